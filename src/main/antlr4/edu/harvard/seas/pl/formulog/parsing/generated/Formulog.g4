@@ -22,7 +22,7 @@ tabSeparatedTermLine
 
 metadata
 :
-	topLevelFunDefs '.'? # funDecl
+	annotation* topLevelFunDefs '.'? # funDecl
 	| annotation* relType = 'rel' ID maybeAnnotatedTypeList '.'? # relDecl
 	| 'type' typeDefLHS EQ type '.'? # typeAlias
 	| 'type' typeDefLHS EQ typeDefRHS
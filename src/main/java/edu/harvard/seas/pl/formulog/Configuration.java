@@ -29,6 +29,7 @@ import edu.harvard.seas.pl.formulog.smt.SmtStatus;
 import edu.harvard.seas.pl.formulog.smt.SmtStrategy;
 import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
 import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.util.BoundedCache;
 import edu.harvard.seas.pl.formulog.util.Dataset;
 import edu.harvard.seas.pl.formulog.util.EnumerableThreadLocal;
 import edu.harvard.seas.pl.formulog.util.Pair;
@@ -36,6 +37,7 @@ import edu.harvard.seas.pl.formulog.util.SharedLong;
 import edu.harvard.seas.pl.formulog.util.Util;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -62,6 +64,10 @@ public final class Configuration {
   public static final boolean recordFuncDiagnostics = propIsSet("timeFuncs");
   private static final Map<FunctionSymbol, AtomicLong> funcTimes = new ConcurrentHashMap<>();
 
+  public static final boolean printMemoStats = propIsSet("printMemoStats");
+  private static final Map<FunctionSymbol, Pair<SharedLong, SharedLong>> memoStats =
+      new ConcurrentHashMap<>();
+
   public static final boolean recordRuleDiagnostics = propIsSet("timeRules");
   private static final Map<Rule<?, ?>, Pair<AtomicLong, AtomicLong>> ruleTimes =
       new ConcurrentHashMap<>();
@@ -71,6 +77,12 @@ public final class Configuration {
 
   public static final boolean timeSmt = propIsSet("timeSmt");
   public static final boolean smtMemoize = propIsSet("smtMemoize", true);
+  public static final int smtMemoSize = getIntProp("smtMemoSize", 1 << 16);
+  public static final BoundedCache.Eviction smtMemoEviction =
+      getEvictionProp("smtMemoEviction", "lru");
+  public static final String smtCacheFile = System.getProperty("smtCacheFile");
+  public static final boolean smtCanonicalize = propIsSet("smtCanonicalize", true);
+  public static final boolean smtManagedBlocking = propIsSet("smtManagedBlocking", true);
   private static final Map<SmtLibSolver, Dataset> perProcessSmtEvalStats =
       new ConcurrentHashMap<>();
   private static final Dataset smtEvalStats = new Dataset();
@@ -104,6 +116,8 @@ public final class Configuration {
   public static final boolean debugParallelism = propIsSet("debugParallelism");
 
   public static final int optimizationSetting = getIntProp("optimize", 0);
+  public static final boolean costBasedPlanning = propIsSet("costBasedPlanning");
+  public static final boolean debugPlans = propIsSet("debugPlans");
 
   public static final int taskSize = getIntProp("taskSize", 128);
 
@@ -124,6 +138,38 @@ public final class Configuration {
     }
   }
 
+  public static final List<String> smtPortfolio;
+
+  static {
+    List<String> solvers = getListProp("smtPortfolio");
+    smtPortfolio = solvers.isEmpty() ? Arrays.asList("z3", "cvc4", "yices") : solvers;
+    for (String solver : smtPortfolio) {
+      switch (solver) {
+        case "z3":
+        case "cvc4":
+        case "yices":
+        case "boolector":
+          break;
+        default:
+          throw new IllegalArgumentException("Unrecognized solver in portfolio: " + solver);
+      }
+    }
+  }
+
+  public static final int smtPoolMin = getIntProp("smtPoolMin", 1);
+  public static final int smtPoolGrowDelay = getIntProp("smtPoolGrowDelay", 10);
+  public static final int smtPoolIdleTimeout = getIntProp("smtPoolIdleTimeout", 60000);
+  public static final int smtHangTimeout = getIntProp("smtHangTimeout", 0);
+  public static final int smtRetries = getIntProp("smtRetries", 1);
+
+  public static final boolean smtShareSubterms = propIsSet("smtShareSubterms", false);
+  public static final int smtShareThreshold = getIntProp("smtShareThreshold", 16);
+
+  public static final boolean smtSubsumption = propIsSet("smtSubsumption", false);
+  public static final int smtSubsumptionCacheSize = getIntProp("smtSubsumptionCacheSize", 10000);
+  public static final boolean smtSubsumptionReuseModels =
+      propIsSet("smtSubsumptionReuseModels", true);
+
   public static final String smtLogic = getStringProp("smtLogic", "ALL");
   public static final boolean smtDeclareAdts = propIsSet("smtDeclareAdts", true);
   public static final boolean smtCacheHardResets = propIsSet("smtCacheHardResets", false);
@@ -177,8 +223,30 @@ public final class Configuration {
     return getIntProp("memoizeThreshold", 0);
   }
 
+  public static final int memoCacheSize = getIntProp("memoCacheSize", 0);
+  public static final BoundedCache.Eviction memoEviction = getEvictionProp("memoEviction", "lru");
+
   public static final boolean genComparators = propIsSet("genComparators", true);
+  public static final boolean genRuleBodies = propIsSet("genRuleBodies");
+  public static final boolean freezeRelations = propIsSet("freezeRelations", true);
+  public static final boolean lazyIndices = propIsSet("lazyIndices", true);
+  public static final boolean weakInterning = propIsSet("weakInterning");
+  public static final boolean packPrimitives = propIsSet("packPrimitives", true);
+  public static final boolean offHeapStrings = propIsSet("offHeapStrings");
   public static final boolean minIndex = propIsSet("minIndex", true);
+  public static final String dbIndex;
+
+  static {
+    dbIndex = getStringProp("dbIndex", "skiplist");
+    switch (dbIndex) {
+      case "skiplist":
+      case "packed":
+      case "btree":
+        break;
+      default:
+        throw new IllegalArgumentException("Unrecognized index implementation: " + dbIndex);
+    }
+  }
 
   public static final boolean inlineInRules = propIsSet("inlineInRules", true);
 
@@ -186,6 +254,7 @@ public final class Configuration {
   public static final boolean codegenSplitOnSmt = propIsSet("codegenSplitOnSmt");
 
   public static final boolean useHashDbFilter = propIsSet("useHashDbFilter");
+  public static final boolean hashIndex = propIsSet("hashIndex");
 
   public static final boolean recordWork = propIsSet("recordWork");
   public static final boolean recordDetailedWork = propIsSet("recordDetailedWork");
@@ -210,6 +279,14 @@ public final class Configuration {
   public static final SharedLong smtCacheClears = new SharedLong();
   public static final SharedLong smtCacheHits = new SharedLong();
   public static final SharedLong smtCacheMisses = new SharedLong();
+  public static final SharedLong smtMemoHits = new SharedLong();
+  public static final SharedLong smtMemoMisses = new SharedLong();
+  public static final SharedLong smtMemoEvictions = new SharedLong();
+  public static final SharedLong smtDiskCacheHits = new SharedLong();
+  public static final SharedLong smtDiskCacheMisses = new SharedLong();
+  public static final SharedLong smtSolverStarts = new SharedLong();
+  public static final SharedLong smtSubsumptionHits = new SharedLong();
+  public static final SharedLong smtSubsumptionMisses = new SharedLong();
 
   static {
     if (recordFuncDiagnostics) {
@@ -223,6 +300,17 @@ public final class Configuration {
                 }
               });
     }
+    if (printMemoStats) {
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread() {
+
+                @Override
+                public void run() {
+                  printMemoStats(System.err);
+                }
+              });
+    }
     if (recordRuleDiagnostics) {
       Runtime.getRuntime()
           .addShutdownHook(
@@ -414,6 +502,27 @@ public final class Configuration {
     }
   }
 
+  /** Registers the hit and miss counters of a function's memo table, to be printed on exit. */
+  public static void registerMemoStats(FunctionSymbol func, SharedLong hits, SharedLong misses) {
+    memoStats.put(func, new Pair<>(hits, misses));
+  }
+
+  public static synchronized void printMemoStats(PrintStream out) {
+    List<Map.Entry<FunctionSymbol, Pair<Long, Long>>> sorted = new ArrayList<>();
+    for (Map.Entry<FunctionSymbol, Pair<SharedLong, SharedLong>> e : memoStats.entrySet()) {
+      Pair<SharedLong, SharedLong> p = e.getValue();
+      sorted.add(Map.entry(e.getKey(), new Pair<>(p.fst().unsafeGet(), p.snd().unsafeGet())));
+    }
+    sorted.sort(Comparator.comparingLong(e -> -(e.getValue().fst() + e.getValue().snd())));
+    for (Map.Entry<FunctionSymbol, Pair<Long, Long>> e : sorted) {
+      long hits = e.getValue().fst();
+      long lookups = hits + e.getValue().snd();
+      out.printf(
+          "[MEMO STATS] %d/%d hits (%.1f%%): %s%n",
+          hits, lookups, 100.0 * hits / lookups, e.getKey());
+    }
+  }
+
   private static final Comparator<Map.Entry<?, AtomicLong>> sortTimes =
       new Comparator<Map.Entry<?, AtomicLong>>() {
 
@@ -504,6 +613,20 @@ public final class Configuration {
     return propIsSet(prop, false);
   }
 
+  static BoundedCache.Eviction getEvictionProp(String prop, String def) {
+    String val = getStringProp(prop, def);
+    switch (val) {
+      case "lru":
+        return BoundedCache.Eviction.LRU;
+      case "fifo":
+        return BoundedCache.Eviction.FIFO;
+      case "lfu":
+        return BoundedCache.Eviction.LFU;
+      default:
+        throw new IllegalArgumentException("Unrecognized eviction policy for " + prop + ": " + val);
+    }
+  }
+
   static int getIntProp(String prop, int def) {
     String val = System.getProperty(prop);
     if (val == null) {
@@ -574,12 +697,30 @@ public final class Configuration {
       int size = Integer.parseInt(m.group(1));
       return new SmtStrategy(SmtStrategy.Tag.QUEUE, size);
     }
+    p = Pattern.compile("elastic-(\\d+)");
+    m = p.matcher(val);
+    if (m.matches()) {
+      int size = Integer.parseInt(m.group(1));
+      return new SmtStrategy(SmtStrategy.Tag.ELASTIC, size);
+    }
+    p = Pattern.compile("portfolio-(\\d+)");
+    m = p.matcher(val);
+    if (m.matches()) {
+      int size = Integer.parseInt(m.group(1));
+      return new SmtStrategy(SmtStrategy.Tag.PORTFOLIO, size);
+    }
     p = Pattern.compile("bestMatch-(\\d+)");
     m = p.matcher(val);
     if (m.matches()) {
       int size = Integer.parseInt(m.group(1));
       return new SmtStrategy(SmtStrategy.Tag.BEST_MATCH, size);
     }
+    p = Pattern.compile("prefixTrie-(\\d+)");
+    m = p.matcher(val);
+    if (m.matches()) {
+      int size = Integer.parseInt(m.group(1));
+      return new SmtStrategy(SmtStrategy.Tag.PREFIX_TRIE, size);
+    }
     p = Pattern.compile("perThreadQueue-(\\d+)");
     m = p.matcher(val);
     if (m.matches()) {
@@ -311,6 +311,14 @@ public final class Main implements Callable<Integer> {
     out.println("SMT cache hits: " + Configuration.smtCacheHits.unsafeGet());
     out.println("SMT cache misses: " + Configuration.smtCacheMisses.unsafeGet());
     out.println("SMT cache clears: " + Configuration.smtCacheClears.unsafeGet());
+    out.println("SMT memo hits: " + Configuration.smtMemoHits.unsafeGet());
+    out.println("SMT memo misses: " + Configuration.smtMemoMisses.unsafeGet());
+    out.println("SMT memo evictions: " + Configuration.smtMemoEvictions.unsafeGet());
+    out.println("SMT disk cache hits: " + Configuration.smtDiskCacheHits.unsafeGet());
+    out.println("SMT disk cache misses: " + Configuration.smtDiskCacheMisses.unsafeGet());
+    out.println("SMT solvers started by pool: " + Configuration.smtSolverStarts.unsafeGet());
+    out.println("SMT subsumption hits: " + Configuration.smtSubsumptionHits.unsafeGet());
+    out.println("SMT subsumption misses: " + Configuration.smtSubsumptionMisses.unsafeGet());
     out.println("SMT calls per solver: " + String.join(",", calls));
     out.println("SMT time per solver (ms): " + String.join(",", times));
   }
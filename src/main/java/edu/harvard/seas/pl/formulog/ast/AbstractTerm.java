@@ -21,14 +21,14 @@ package edu.harvard.seas.pl.formulog.ast;
 
 public abstract class AbstractTerm implements Term {
 
-  private final int id;
+  private final long id;
 
   public AbstractTerm() {
     this.id = Terms.nextId();
   }
 
   @Override
-  public int getId() {
+  public long getId() {
     return id;
   }
 }
@@ -60,6 +60,12 @@ public final class Constructors {
 
   public static Constructor make(ConstructorSymbol sym, Term[] args) {
     assert sym.getArity() == args.length : sym + " " + Arrays.toString(args);
+    // Every constructor is interned under the symbol and arguments it was made from, so a hit
+    // here is what the code below would return (without allocating a supplier).
+    Constructor c = memo.lookup(sym, args);
+    if (c != null) {
+      return c;
+    }
     if (sym instanceof BuiltInConstructorSymbol) {
       return lookupOrCreateBuiltInConstructor((BuiltInConstructorSymbol) sym, args);
     }
@@ -290,11 +296,11 @@ public final class Constructors {
     @Override
     public void toSmtLib(SmtLibShim shim) {
       shim.print("(let ((");
-      ((SmtLibTerm) args[0]).toSmtLib(shim);
+      shim.print((SmtLibTerm) args[0]);
       shim.print(" ");
-      ((SmtLibTerm) args[1]).toSmtLib(shim);
+      shim.print((SmtLibTerm) args[1]);
       shim.print(")) ");
-      ((SmtLibTerm) args[2]).toSmtLib(shim);
+      shim.print((SmtLibTerm) args[2]);
       shim.print(")");
     }
 
@@ -360,7 +366,7 @@ public final class Constructors {
       if (!pats.isEmpty()) {
         shim.print("(! ");
       }
-      ((SmtLibTerm) args[1]).toSmtLib(shim);
+      shim.print((SmtLibTerm) args[1]);
       if (!pats.isEmpty()) {
         for (List<Term> pat : pats) {
           shim.print(" :pattern (");
@@ -369,7 +375,7 @@ public final class Constructors {
             shim.getTypeAnnotation(BuiltInConstructorSymbol.CONS);
             Constructor wrappedPat = (Constructor) it.next();
             SmtLibTerm t = (SmtLibTerm) wrappedPat.getArgs()[0];
-            t.toSmtLib(shim);
+            shim.print(t);
             if (it.hasNext()) {
               shim.print(" ");
             }
@@ -658,7 +664,7 @@ public final class Constructors {
                 shim.print("((_ int2bv ");
                 int width = nat(sym.getArgs().get(0));
                 shim.print(width + ") ");
-                ((SmtLibTerm) args[0]).toSmtLib(shim);
+                shim.print((SmtLibTerm) args[0]);
                 shim.print(")");
               }
             });
@@ -674,7 +680,7 @@ public final class Constructors {
               public void toSmtLib(SmtLibShim shim) {
                 shim.print("((_ extract ");
                 shim.print(args[2] + " " + args[1] + ") ");
-                ((SmtLibTerm) args[0]).toSmtLib(shim);
+                shim.print((SmtLibTerm) args[0]);
                 shim.print(")");
               }
             });
@@ -689,7 +695,7 @@ public final class Constructors {
 
               @Override
               public void toSmtLib(SmtLibShim shim) {
-                ((SmtLibTerm) args[0]).toSmtLib(shim);
+                shim.print((SmtLibTerm) args[0]);
               }
             });
   }
@@ -709,14 +715,14 @@ public final class Constructors {
                 if (idx1 < idx2) {
                   shim.print("(");
                   shim.print("(_ sign_extend " + (idx2 - idx1) + ") ");
-                  t.toSmtLib(shim);
+                  shim.print(t);
                   shim.print(")");
                 } else if (idx1 == idx2) {
-                  t.toSmtLib(shim);
+                  shim.print(t);
                 } else {
                   shim.print("(");
                   shim.print("(_ extract " + (idx2 - 1) + " 0) ");
-                  t.toSmtLib(shim);
+                  shim.print(t);
                   shim.print(")");
                 }
               }
@@ -738,14 +744,14 @@ public final class Constructors {
                 if (idx1 < idx2) {
                   shim.print("(");
                   shim.print("(_ zero_extend " + (idx2 - idx1) + ") ");
-                  t.toSmtLib(shim);
+                  shim.print(t);
                   shim.print(")");
                 } else if (idx1 == idx2) {
-                  t.toSmtLib(shim);
+                  shim.print(t);
                 } else {
                   shim.print("(");
                   shim.print("(_ extract " + (idx2 - 1) + " 0) ");
-                  t.toSmtLib(shim);
+                  shim.print(t);
                   shim.print(")");
                 }
               }
@@ -764,7 +770,7 @@ public final class Constructors {
                 int exponent = nat(sym, 1);
                 int significand = nat(sym, 2);
                 shim.print("((_ to_fp " + exponent + " " + significand + ") RNE ");
-                ((SmtLibTerm) args[0]).toSmtLib(shim);
+                shim.print((SmtLibTerm) args[0]);
                 shim.print(")");
               }
             });
@@ -782,7 +788,7 @@ public final class Constructors {
                 int exponent = nat(sym, 2);
                 int significand = nat(sym, 3);
                 shim.print("((_ to_fp " + exponent + " " + significand + ") RNE ");
-                ((SmtLibTerm) args[0]).toSmtLib(shim);
+                shim.print((SmtLibTerm) args[0]);
                 shim.print(")");
               }
             });
@@ -801,7 +807,7 @@ public final class Constructors {
               public void toSmtLib(SmtLibShim shim) {
                 int width = nat(sym, 2);
                 shim.print("((_ " + s + " " + width + ") RNE ");
-                ((SmtLibTerm) args[0]).toSmtLib(shim);
+                shim.print((SmtLibTerm) args[0]);
                 shim.print(")");
               }
             });
@@ -999,7 +1005,7 @@ public final class Constructors {
         shim.print("(");
         shim.print(s);
         shim.print(" ");
-        ((SmtLibTerm) args[0]).toSmtLib(shim);
+        shim.print((SmtLibTerm) args[0]);
         shim.print(")");
       }
     };
@@ -1014,7 +1020,7 @@ public final class Constructors {
         shim.print("(");
         shim.print(s);
         shim.print(" ");
-        ((SmtLibTerm) args[0]).toSmtLib(shim);
+        shim.print((SmtLibTerm) args[0]);
         shim.print(")");
       }
     };
@@ -1117,7 +1123,7 @@ public final class Constructors {
     for (Term t : c.getArgs()) {
       SmtLibTerm tt = (SmtLibTerm) t;
       shim.print(" ");
-      tt.toSmtLib(shim);
+      shim.print(tt);
     }
     if (sym.getArity() > 0) {
       shim.print(")");
@@ -129,7 +129,7 @@ public class Fold implements Expr {
   }
 
   @Override
-  public int getId() {
+  public long getId() {
     throw new UnsupportedOperationException();
   }
 
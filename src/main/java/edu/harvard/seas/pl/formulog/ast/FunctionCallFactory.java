@@ -24,12 +24,15 @@ import edu.harvard.seas.pl.formulog.ast.Exprs.ExprVisitor;
 import edu.harvard.seas.pl.formulog.ast.Exprs.ExprVisitorExn;
 import edu.harvard.seas.pl.formulog.eval.EvaluationException;
 import edu.harvard.seas.pl.formulog.functions.FunctionDefManager;
+import edu.harvard.seas.pl.formulog.functions.FunctionDefManager.MemoPolicy;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInFunctionSymbol;
 import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
 import edu.harvard.seas.pl.formulog.symbols.Symbol;
 import edu.harvard.seas.pl.formulog.unification.Substitution;
+import edu.harvard.seas.pl.formulog.util.BoundedCache;
 import edu.harvard.seas.pl.formulog.util.FunctorUtil;
 import edu.harvard.seas.pl.formulog.util.FunctorUtil.Memoizer;
+import edu.harvard.seas.pl.formulog.util.SharedLong;
 import edu.harvard.seas.pl.formulog.util.Util;
 import java.util.Arrays;
 import java.util.List;
@@ -46,7 +49,10 @@ public final class FunctionCallFactory {
   private static final boolean debug = System.getProperty("callTrace") != null;
   private static final int memoizeThreshold = Configuration.memoizeThreshold();
 
-  private final Map<Symbol, Map<List<Term>, Term>> callMemo = new ConcurrentHashMap<>();
+  private static final int memoCacheSize = Configuration.memoCacheSize;
+  private static final BoundedCache.Eviction memoEviction = Configuration.memoEviction;
+
+  private final Map<Symbol, MemoTable> callMemo = new ConcurrentHashMap<>();
 
   public FunctionCallFactory(FunctionDefManager defManager) {
     this.defManager = defManager;
@@ -64,6 +70,10 @@ public final class FunctionCallFactory {
               + " have length "
               + args.length);
     }
+    FunctionCall f = memo.lookup(sym, args);
+    if (f != null) {
+      return f;
+    }
     return memo.lookupOrCreate(sym, args, () -> new FunctionCall(sym, args));
   }
 
@@ -75,6 +85,58 @@ public final class FunctionCallFactory {
     callMemo.clear();
   }
 
+  /** Returns the number of calls to the function that were answered from its memo table. */
+  public long getMemoHits(FunctionSymbol sym) {
+    MemoTable m = callMemo.get(sym);
+    return m == null ? 0 : m.hits.unsafeGet();
+  }
+
+  /** Returns the number of memoized calls to the function that had to be evaluated. */
+  public long getMemoMisses(FunctionSymbol sym) {
+    MemoTable m = callMemo.get(sym);
+    return m == null ? 0 : m.misses.unsafeGet();
+  }
+
+  /**
+   * The cached results of a function. By default, results are kept in a map whose reads take no
+   * lock and that is never trimmed; if memoCacheSize is set, they are kept in a bounded cache
+   * instead.
+   */
+  private static class MemoTable {
+
+    private final Map<List<Term>, Term> unbounded;
+    private final BoundedCache<List<Term>, Term> bounded;
+    private final SharedLong hits = new SharedLong();
+    private final SharedLong misses = new SharedLong();
+
+    public MemoTable(FunctionSymbol sym) {
+      if (memoCacheSize > 0) {
+        unbounded = null;
+        bounded = new BoundedCache<>(memoCacheSize, memoEviction);
+      } else {
+        unbounded = new ConcurrentHashMap<>();
+        bounded = null;
+      }
+      if (Configuration.printMemoStats) {
+        Configuration.registerMemoStats(sym, hits, misses);
+      }
+    }
+
+    public Term get(List<Term> key) {
+      Term r = bounded == null ? unbounded.get(key) : bounded.get(key);
+      (r == null ? misses : hits).increment();
+      return r;
+    }
+
+    public void put(List<Term> key, Term val) {
+      if (bounded == null) {
+        unbounded.put(key, val);
+      } else {
+        bounded.put(key, val);
+      }
+    }
+  }
+
   public class FunctionCall extends AbstractTerm implements Functor<FunctionSymbol>, Expr {
 
     private final FunctionSymbol sym;
@@ -151,8 +213,10 @@ public final class FunctionCallFactory {
       }
       Term r;
       try {
-        if (memoizeThreshold > -1 && !hasSideEffects()) {
-          r = computeWithMemoization(newArgs);
+        MemoPolicy policy = defManager.getMemoPolicy(sym);
+        if (policy == MemoPolicy.ALWAYS
+            || (policy == MemoPolicy.DEFAULT && memoizeThreshold > -1 && !hasSideEffects())) {
+          r = computeWithMemoization(newArgs, policy == MemoPolicy.ALWAYS ? 0 : memoizeThreshold);
         } else {
           r = computeWithoutMemoization(newArgs);
         }
@@ -177,8 +241,8 @@ public final class FunctionCallFactory {
       return sym.equals(BuiltInFunctionSymbol.PRINT);
     }
 
-    private Term computeWithMemoization(Term[] newArgs) throws EvaluationException {
-      Map<List<Term>, Term> m = Util.lookupOrCreate(callMemo, sym, () -> new ConcurrentHashMap<>());
+    private Term computeWithMemoization(Term[] newArgs, int threshold) throws EvaluationException {
+      MemoTable m = Util.lookupOrCreate(callMemo, sym, () -> new MemoTable(sym));
       List<Term> key = Arrays.asList(newArgs);
       Term r = m.get(key);
       if (r == null) {
@@ -188,7 +252,7 @@ public final class FunctionCallFactory {
         if (Configuration.recordFuncDiagnostics) {
           Configuration.recordFuncTime(sym, time);
         }
-        if (time >= memoizeThreshold) {
+        if (time >= threshold) {
           m.put(key, r);
         }
       }
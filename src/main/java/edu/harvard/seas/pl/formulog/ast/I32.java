@@ -23,16 +23,14 @@ import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
 import edu.harvard.seas.pl.formulog.smt.SmtLibShim;
 import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
 import edu.harvard.seas.pl.formulog.types.Types.Type;
-import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.util.InternTable;
 import java.util.Collections;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import org.pcollections.PMap;
 
 public class I32 extends AbstractTerm implements Primitive<Integer>, SmtLibTerm {
 
-  private static final Map<Integer, I32> memo = new ConcurrentHashMap<>();
+  private static final InternTable<Integer, I32> memo = new InternTable<>();
   private final int val;
 
   private I32(int val) {
@@ -40,7 +38,7 @@ public class I32 extends AbstractTerm implements Primitive<Integer>, SmtLibTerm
   }
 
   public static I32 make(int val) {
-    return Util.lookupOrCreate(memo, val, () -> new I32(val));
+    return memo.lookupOrCreate(val, () -> new I32(val));
   }
 
   @Override
@@ -23,16 +23,14 @@ import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
 import edu.harvard.seas.pl.formulog.smt.SmtLibShim;
 import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
 import edu.harvard.seas.pl.formulog.types.Types.Type;
-import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.util.InternTable;
 import java.util.Collections;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import org.pcollections.PMap;
 
 public class I64 extends AbstractTerm implements Primitive<Long>, SmtLibTerm {
 
-  private static final Map<Long, I64> memo = new ConcurrentHashMap<>();
+  private static final InternTable<Long, I64> memo = new InternTable<>();
   private final long val;
 
   private I64(long val) {
@@ -40,7 +38,7 @@ public class I64 extends AbstractTerm implements Primitive<Long>, SmtLibTerm {
   }
 
   public static I64 make(long val) {
-    return Util.lookupOrCreate(memo, val, () -> new I64(val));
+    return memo.lookupOrCreate(val, () -> new I64(val));
   }
 
   @Override
@@ -94,7 +94,7 @@ public class LetFunExpr implements Expr {
   }
 
   @Override
-  public int getId() {
+  public long getId() {
     throw new UnsupportedOperationException();
   }
 
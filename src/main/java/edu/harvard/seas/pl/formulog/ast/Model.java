@@ -22,14 +22,13 @@ package edu.harvard.seas.pl.formulog.ast;
 import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
 import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
 import edu.harvard.seas.pl.formulog.types.Types.Type;
-import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.util.InternTable;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class Model extends AbstractTerm implements Primitive<Map<SolverVariable, Term>> {
 
-  private static final Map<Map<SolverVariable, Term>, Model> memo = new ConcurrentHashMap<>();
+  private static final InternTable<Map<SolverVariable, Term>, Model> memo = new InternTable<>();
 
   private final Map<SolverVariable, Term> m;
 
@@ -38,7 +37,7 @@ public class Model extends AbstractTerm implements Primitive<Map<SolverVariable,
   }
 
   public static Model make(Map<SolverVariable, Term> m) {
-    return Util.lookupOrCreate(memo, m, () -> new Model(m));
+    return memo.lookupOrCreate(m, () -> new Model(m));
   }
 
   @Override
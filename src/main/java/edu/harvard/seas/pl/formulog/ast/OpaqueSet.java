@@ -21,12 +21,10 @@ package edu.harvard.seas.pl.formulog.ast;
 
 import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
 import edu.harvard.seas.pl.formulog.types.Types.Type;
+import edu.harvard.seas.pl.formulog.util.InternTable;
 import edu.harvard.seas.pl.formulog.util.Pair;
-import edu.harvard.seas.pl.formulog.util.Util;
 import java.util.Collection;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import org.pcollections.HashPMap;
 import org.pcollections.IntTreePMap;
 import org.pcollections.MapPSet;
@@ -42,7 +40,7 @@ public class OpaqueSet extends AbstractTerm implements Primitive<Set<Term>> {
 
   private static final OpaqueSet empty;
 
-  private static final Map<PSet<Term>, OpaqueSet> memo = new ConcurrentHashMap<>();
+  private static final InternTable<PSet<Term>, OpaqueSet> memo = new InternTable<>();
 
   static {
     PSet<Term> mt = MapPSet.from(HashPMap.empty(IntTreePMap.empty()));
@@ -66,7 +64,7 @@ public class OpaqueSet extends AbstractTerm implements Primitive<Set<Term>> {
   }
 
   private static OpaqueSet make(PSet<Term> s) {
-    return Util.lookupOrCreate(memo, s, () -> new OpaqueSet(s));
+    return memo.lookupOrCreate(s, () -> new OpaqueSet(s));
   }
 
   public Collection<Term> getCollection() {
@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.ast;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * This class stores the contents of string terms as UTF-8 in off-heap blocks, and interns them by
+ * content. Each distinct string is given a dense id, and the {@link StringTerm} for it is a view
+ * that only holds that id. The arena is append-only: strings (and their terms) live for the rest of
+ * the run.
+ *
+ * <p>Lookups of strings that are already in the arena do not lock; adding a string is serialized.
+ */
+final class StringArena {
+
+  static final StringArena INSTANCE = new StringArena();
+
+  private static final int BLOCK_SIZE = 1 << 20;
+  private static final int CHUNK_BITS = 12;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  // Per id, chunked: the block and offset of the contents, their length, their hash, and the term.
+  private volatile long[][] locs = new long[16][];
+  private volatile int[][] lens = new int[16][];
+  private volatile int[][] hashes = new int[16][];
+  private volatile StringTerm[][] terms = new StringTerm[16][];
+  private volatile ByteBuffer[] blocks = new ByteBuffer[16];
+
+  // Open-addressing table of ids plus one (zero marks an empty slot).
+  private volatile AtomicIntegerArray index = new AtomicIntegerArray(1024);
+
+  // Guarded by this.
+  private int size;
+  private int block = -1;
+
+  private StringArena() {}
+
+  StringTerm intern(String s) {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    int h = hash(bytes);
+    StringTerm t = find(index, bytes, h);
+    if (t == null) {
+      t = insert(bytes, h);
+    }
+    return t;
+  }
+
+  String get(int id) {
+    long loc = locs[id >>> CHUNK_BITS][id & CHUNK_MASK];
+    int len = lens[id >>> CHUNK_BITS][id & CHUNK_MASK];
+    ByteBuffer buf = blocks[(int) (loc >>> 32)].duplicate();
+    buf.position((int) loc);
+    byte[] bytes = new byte[len];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  int size() {
+    return size;
+  }
+
+  private StringTerm find(AtomicIntegerArray tab, byte[] bytes, int h) {
+    int mask = tab.length() - 1;
+    for (int i = h & mask; ; i = (i + 1) & mask) {
+      int slot = tab.get(i);
+      if (slot == 0) {
+        return null;
+      }
+      int id = slot - 1;
+      if (hashes[id >>> CHUNK_BITS][id & CHUNK_MASK] == h && sameContents(id, bytes)) {
+        return terms[id >>> CHUNK_BITS][id & CHUNK_MASK];
+      }
+    }
+  }
+
+  private boolean sameContents(int id, byte[] bytes) {
+    if (lens[id >>> CHUNK_BITS][id & CHUNK_MASK] != bytes.length) {
+      return false;
+    }
+    long loc = locs[id >>> CHUNK_BITS][id & CHUNK_MASK];
+    ByteBuffer buf = blocks[(int) (loc >>> 32)];
+    int off = (int) loc;
+    for (int i = 0; i < bytes.length; ++i) {
+      if (buf.get(off + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private synchronized StringTerm insert(byte[] bytes, int h) {
+    StringTerm t = find(index, bytes, h);
+    if (t != null) {
+      return t;
+    }
+    int id = size;
+    if (id == Integer.MAX_VALUE - 1) {
+      throw new IllegalStateException("String arena is full");
+    }
+    long loc = store(bytes);
+    int chunk = id >>> CHUNK_BITS;
+    if (chunk == locs.length) {
+      locs = Arrays.copyOf(locs, chunk * 2);
+      lens = Arrays.copyOf(lens, chunk * 2);
+      hashes = Arrays.copyOf(hashes, chunk * 2);
+      terms = Arrays.copyOf(terms, chunk * 2);
+    }
+    if (locs[chunk] == null) {
+      locs[chunk] = new long[CHUNK_SIZE];
+      lens[chunk] = new int[CHUNK_SIZE];
+      hashes[chunk] = new int[CHUNK_SIZE];
+      terms[chunk] = new StringTerm[CHUNK_SIZE];
+    }
+    locs[chunk][id & CHUNK_MASK] = loc;
+    lens[chunk][id & CHUNK_MASK] = bytes.length;
+    hashes[chunk][id & CHUNK_MASK] = h;
+    t = new StringTerm(id);
+    terms[chunk][id & CHUNK_MASK] = t;
+    size++;
+    AtomicIntegerArray tab = index;
+    if (size * 2 > tab.length()) {
+      tab = rehash(tab.length() * 2);
+    }
+    // Setting the slot publishes the entry to readers that find it.
+    tab.set(emptySlot(tab, h), id + 1);
+    index = tab;
+    return t;
+  }
+
+  /** Copies the bytes into a block, and returns the block number and offset. */
+  private long store(byte[] bytes) {
+    ByteBuffer buf = block < 0 ? null : blocks[block];
+    if (buf == null || buf.remaining() < bytes.length) {
+      buf = ByteBuffer.allocateDirect(Math.max(BLOCK_SIZE, bytes.length));
+      block++;
+      if (block == blocks.length) {
+        blocks = Arrays.copyOf(blocks, block * 2);
+      }
+      blocks[block] = buf;
+    }
+    int off = buf.position();
+    buf.put(bytes);
+    return ((long) block << 32) | off;
+  }
+
+  private AtomicIntegerArray rehash(int capacity) {
+    AtomicIntegerArray tab = new AtomicIntegerArray(capacity);
+    for (int id = 0; id < size - 1; ++id) {
+      tab.set(emptySlot(tab, hashes[id >>> CHUNK_BITS][id & CHUNK_MASK]), id + 1);
+    }
+    return tab;
+  }
+
+  private static int emptySlot(AtomicIntegerArray tab, int h) {
+    int mask = tab.length() - 1;
+    int i = h & mask;
+    while (tab.get(i) != 0) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  private static int hash(byte[] bytes) {
+    int h = Arrays.hashCode(bytes);
+    return h ^ (h >>> 16);
+  }
+}
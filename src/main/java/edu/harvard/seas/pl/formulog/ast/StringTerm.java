@@ -19,38 +19,52 @@
  */
 package edu.harvard.seas.pl.formulog.ast;
 
+import edu.harvard.seas.pl.formulog.Configuration;
 import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
 import edu.harvard.seas.pl.formulog.smt.SmtLibShim;
 import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
 import edu.harvard.seas.pl.formulog.types.Types.Type;
-import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.util.InternTable;
 import java.util.Collections;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import org.pcollections.PMap;
 
 public class StringTerm extends AbstractTerm implements Primitive<String>, SmtLibTerm {
 
-  private static final Map<String, StringTerm> memo = new ConcurrentHashMap<>();
+  private static final InternTable<String, StringTerm> memo = new InternTable<>();
+  private static final boolean offHeap = Configuration.offHeapStrings;
+  // Null if the contents are stored in the string arena.
   private final String val;
+  private final int arenaId;
 
   private StringTerm(String val) {
     this.val = val;
+    this.arenaId = -1;
+  }
+
+  StringTerm(int arenaId) {
+    this.val = null;
+    this.arenaId = arenaId;
   }
 
   public static StringTerm make(String val) {
-    return Util.lookupOrCreate(memo, val, () -> new StringTerm(val));
+    if (offHeap) {
+      return StringArena.INSTANCE.intern(val);
+    }
+    return memo.lookupOrCreate(val, () -> new StringTerm(val));
   }
 
   @Override
   public String getVal() {
+    if (val == null) {
+      return StringArena.INSTANCE.get(arenaId);
+    }
     return val;
   }
 
   @Override
   public String toString() {
-    return "\"" + val + "\"";
+    return "\"" + getVal() + "\"";
   }
 
   @Override
@@ -60,7 +74,7 @@ public class StringTerm extends AbstractTerm implements Primitive<String>, SmtLi
 
   @Override
   public void toSmtLib(SmtLibShim shim) {
-    String s = val.replace("\"", "\"\"");
+    String s = getVal().replace("\"", "\"\"");
     shim.print("\"" + s + "\"");
   }
 
@@ -51,5 +51,5 @@ public interface Term {
 
   void updateVarCounts(Map<Var, Integer> counts);
 
-  int getId();
+  long getId();
 }
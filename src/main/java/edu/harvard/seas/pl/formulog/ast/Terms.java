@@ -29,7 +29,7 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 public final class Terms {
@@ -165,15 +165,15 @@ public final class Terms {
     O visit(Expr e, I in) throws E;
   }
 
-  public static final Term minTerm = new DummyTerm(Integer.MIN_VALUE);
+  public static final Term minTerm = new DummyTerm(Long.MIN_VALUE);
 
-  public static final Term maxTerm = new DummyTerm(Integer.MAX_VALUE);
+  public static final Term maxTerm = new DummyTerm(Long.MAX_VALUE);
 
   private static class DummyTerm implements Term {
 
-    private final int id;
+    private final long id;
 
-    public DummyTerm(int id) {
+    public DummyTerm(long id) {
       this.id = id;
     }
 
@@ -213,7 +213,7 @@ public final class Terms {
     }
 
     @Override
-    public int getId() {
+    public long getId() {
       return id;
     }
 
@@ -228,13 +228,15 @@ public final class Terms {
     }
   }
 
-  public static Term makeDummyTerm(int id) {
+  public static Term makeDummyTerm(long id) {
     return new DummyTerm(id);
   }
 
-  private static final AtomicInteger idCnt = new AtomicInteger(0);
+  // Term ids are 64 bits wide so that long runs that create billions of (mostly transient) terms
+  // cannot wrap around and break the order of existing indices.
+  private static final AtomicLong idCnt = new AtomicLong(0);
 
-  public static int nextId() {
+  public static long nextId() {
     return idCnt.incrementAndGet();
   }
 
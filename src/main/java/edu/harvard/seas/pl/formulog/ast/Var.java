@@ -33,15 +33,30 @@ public class Var extends AbstractTerm {
   static final AtomicInteger cnt = new AtomicInteger();
 
   private final String name;
+  private final int slot;
 
   protected Var(String name) {
+    this(name, -1);
+  }
+
+  private Var(String name, int slot) {
     this.name = name;
+    this.slot = slot;
   }
 
   public static Var fresh(String name) {
     return new Var(name);
   }
 
+  /**
+   * Returns a fresh variable with the same name as the given one, that is assigned the given slot
+   * in the substitutions used to evaluate the rule it belongs to.
+   */
+  public static Var withSlot(Var x, int slot) {
+    assert slot >= 0;
+    return new Var(x.name, slot);
+  }
+
   public static Var fresh() {
     return new Var("$" + cnt.getAndIncrement());
   }
@@ -54,6 +69,11 @@ public class Var extends AbstractTerm {
     return name;
   }
 
+  /** Returns the slot of this variable, or -1 if it has not been assigned one. */
+  public int getSlot() {
+    return slot;
+  }
+
   @Override
   public String toString() {
     return name;
@@ -0,0 +1,520 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.db;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * This class implements a concurrent B-tree set in the spirit of the specialized B-tree used by
+ * Souffle. Elements are kept in wide leaves (so that scans have good locality and inserts allocate
+ * nothing in the common case), and inner nodes only hold separators.
+ *
+ * <p>The tree follows the B-link design of Lehman and Yao: each node knows its right sibling and an
+ * exclusive upper bound on its keys, so a search that arrives at a node that has been split simply
+ * moves right. Writers lock one node at a time. Readers do not lock at all in the common case; they
+ * read nodes optimistically and retry if a writer modified the node in the meantime.
+ *
+ * <p>Callers that insert many elements in (roughly) ascending order can pass a {@link Hint}, which
+ * remembers the last leaf touched and lets the next insertion skip the descent from the root.
+ */
+public class ConcurrentBTreeSet<E> implements Iterable<E> {
+
+  private static final int LEAF_CAPACITY = 64;
+  private static final int INNER_CAPACITY = 64;
+
+  private final Comparator<? super E> cmp;
+  private final Object rootLock = new Object();
+  private volatile Node root;
+  private volatile Node head;
+
+  public ConcurrentBTreeSet(Comparator<? super E> cmp) {
+    this.cmp = cmp;
+    clear();
+  }
+
+  private static final class Node {
+    final StampedLock lock = new StampedLock();
+    final int level;
+    final Object low;
+    final Object[] keys;
+    final Node[] children;
+    int size;
+    Object high;
+    Node right;
+
+    Node(int level, Object low) {
+      this.level = level;
+      this.low = low;
+      if (level == 0) {
+        keys = new Object[LEAF_CAPACITY];
+        children = null;
+      } else {
+        keys = new Object[INNER_CAPACITY];
+        children = new Node[INNER_CAPACITY + 1];
+      }
+    }
+
+    boolean isLeaf() {
+      return level == 0;
+    }
+  }
+
+  /** A hint remembers the leaf where the last insertion happened. */
+  public static final class Hint {
+    private Node leaf;
+  }
+
+  @SuppressWarnings("unchecked")
+  private int compare(Object x, Object y) {
+    return cmp.compare((E) x, (E) y);
+  }
+
+  /** Returns the index of the first key in the node that is not less than the given key. */
+  private int lowerBound(Node n, Object key, int size) {
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      Object x = n.keys[mid];
+      if (x == null) {
+        // Only possible during an optimistic read that will fail validation.
+        return -1;
+      }
+      if (compare(x, key) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /** Returns the index of the first key in the node that is greater than the given key. */
+  private int upperBound(Node n, Object key, int size) {
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      Object x = n.keys[mid];
+      if (x == null) {
+        return -1;
+      }
+      if (compare(x, key) <= 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Returns the node that a search for the key should visit after the given one (the node itself if
+   * it is the leaf that covers the key), or null if the node was read in an inconsistent state.
+   */
+  private Node step(Node n, Object key) {
+    Object high = n.high;
+    if (high != null && compare(key, high) >= 0) {
+      return n.right;
+    }
+    if (n.isLeaf()) {
+      return n;
+    }
+    int i = upperBound(n, key, n.size);
+    return i < 0 ? null : n.children[i];
+  }
+
+  /** Returns the node at the given level whose range covers the key. */
+  private Node findNode(Object key, int level) {
+    Node n = root;
+    while (true) {
+      Node next;
+      long stamp = n.lock.tryOptimisticRead();
+      if (stamp != 0) {
+        next = step(n, key);
+        if (!n.lock.validate(stamp) || next == null) {
+          continue;
+        }
+      } else {
+        stamp = n.lock.readLock();
+        try {
+          next = step(n, key);
+        } finally {
+          n.lock.unlockRead(stamp);
+        }
+      }
+      if (next == n || next.level < level) {
+        return n;
+      }
+      n = next;
+    }
+  }
+
+  public boolean add(E e) {
+    return add(e, null);
+  }
+
+  public boolean add(E e, Hint hint) {
+    Node leaf = null;
+    long stamp = 0;
+    if (hint != null && hint.leaf != null) {
+      Node n = hint.leaf;
+      if (n.low == null || compare(e, n.low) >= 0) {
+        stamp = n.lock.writeLock();
+        if (n.high == null || compare(e, n.high) < 0) {
+          leaf = n;
+        } else {
+          n.lock.unlockWrite(stamp);
+        }
+      }
+    }
+    if (leaf == null) {
+      leaf = findNode(e, 0);
+      stamp = leaf.lock.writeLock();
+      while (leaf.high != null && compare(e, leaf.high) >= 0) {
+        Node r = leaf.right;
+        leaf.lock.unlockWrite(stamp);
+        leaf = r;
+        stamp = leaf.lock.writeLock();
+      }
+    }
+    if (hint != null) {
+      hint.leaf = leaf;
+    }
+    int size = leaf.size;
+    int i = lowerBound(leaf, e, size);
+    if (i < size && compare(leaf.keys[i], e) == 0) {
+      leaf.lock.unlockWrite(stamp);
+      return false;
+    }
+    if (size < LEAF_CAPACITY) {
+      insertAt(leaf.keys, i, e, size);
+      leaf.size = size + 1;
+      leaf.lock.unlockWrite(stamp);
+      return true;
+    }
+    Node right = splitLeaf(leaf, i, e);
+    leaf.lock.unlockWrite(stamp);
+    insertIntoParent(leaf, right.low, right);
+    return true;
+  }
+
+  private static void insertAt(Object[] arr, int i, Object x, int size) {
+    System.arraycopy(arr, i, arr, i + 1, size - i);
+    arr[i] = x;
+  }
+
+  /** Splits a full leaf while inserting the element at the given position; returns the sibling. */
+  private Node splitLeaf(Node n, int i, Object e) {
+    int size = n.size;
+    // When appending to the rightmost leaf, leave the old leaf full, since ascending insertions
+    // will never touch it again.
+    int mid = (i == size && n.right == null) ? size : size / 2;
+    Node r;
+    if (mid == size) {
+      r = new Node(0, e);
+      r.keys[0] = e;
+      r.size = 1;
+    } else {
+      r = new Node(0, n.keys[mid]);
+      System.arraycopy(n.keys, mid, r.keys, 0, size - mid);
+      r.size = size - mid;
+    }
+    r.high = n.high;
+    r.right = n.right;
+    n.high = r.low;
+    n.right = r;
+    n.size = mid;
+    if (mid < size) {
+      if (i <= mid) {
+        insertAt(n.keys, i, e, mid);
+        n.size = mid + 1;
+      } else {
+        insertAt(r.keys, i - mid, e, r.size);
+        r.size++;
+      }
+    }
+    return r;
+  }
+
+  /** Records in the level above that the keys starting at the separator now live in the sibling. */
+  private void insertIntoParent(Node left, Object sep, Node sibling) {
+    while (true) {
+      synchronized (rootLock) {
+        if (root == left) {
+          Node newRoot = new Node(left.level + 1, null);
+          newRoot.keys[0] = sep;
+          newRoot.children[0] = left;
+          newRoot.children[1] = sibling;
+          newRoot.size = 1;
+          root = newRoot;
+          return;
+        }
+        if (root.level > left.level) {
+          break;
+        }
+      }
+      // Another thread has split the root but has not installed the new root yet.
+      Thread.onSpinWait();
+    }
+    Node p = findNode(sep, left.level + 1);
+    long stamp = p.lock.writeLock();
+    while (p.high != null && compare(sep, p.high) >= 0) {
+      Node r = p.right;
+      p.lock.unlockWrite(stamp);
+      p = r;
+      stamp = p.lock.writeLock();
+    }
+    int size = p.size;
+    int i = upperBound(p, sep, size);
+    if (size < INNER_CAPACITY) {
+      insertAt(p.keys, i, sep, size);
+      insertAt(p.children, i + 1, sibling, size + 1);
+      p.size = size + 1;
+      p.lock.unlockWrite(stamp);
+      return;
+    }
+    int mid = size / 2;
+    Object promoted = p.keys[mid];
+    Node r = new Node(p.level, promoted);
+    System.arraycopy(p.keys, mid + 1, r.keys, 0, size - mid - 1);
+    System.arraycopy(p.children, mid + 1, r.children, 0, size - mid);
+    r.size = size - mid - 1;
+    r.high = p.high;
+    r.right = p.right;
+    p.high = promoted;
+    p.right = r;
+    p.size = mid;
+    if (i <= mid) {
+      insertAt(p.keys, i, sep, mid);
+      insertAt(p.children, i + 1, sibling, mid + 1);
+      p.size++;
+    } else {
+      int j = i - mid - 1;
+      insertAt(r.keys, j, sep, r.size);
+      insertAt(r.children, j + 1, sibling, r.size + 1);
+      r.size++;
+    }
+    p.lock.unlockWrite(stamp);
+    insertIntoParent(p, promoted, r);
+  }
+
+  public boolean contains(E e) {
+    Node n = findNode(e, 0);
+    while (true) {
+      long stamp = n.lock.tryOptimisticRead();
+      if (stamp == 0) {
+        int r;
+        Node right;
+        stamp = n.lock.readLock();
+        try {
+          r = containsIn(n, e);
+          right = n.right;
+        } finally {
+          n.lock.unlockRead(stamp);
+        }
+        if (r == 2) {
+          n = right;
+          continue;
+        }
+        return r == 1;
+      }
+      int r = containsIn(n, e);
+      Node right = n.right;
+      if (!n.lock.validate(stamp) || r < 0) {
+        continue;
+      }
+      if (r == 2) {
+        n = right;
+      } else {
+        return r == 1;
+      }
+    }
+  }
+
+  /**
+   * Returns 1 if the leaf contains the element, 0 if it does not, 2 if the element is beyond the
+   * range of the leaf, and -1 if the leaf was read in an inconsistent state.
+   */
+  private int containsIn(Node n, Object e) {
+    Object high = n.high;
+    if (high != null && compare(e, high) >= 0) {
+      return 2;
+    }
+    int size = n.size;
+    int i = lowerBound(n, e, size);
+    if (i < 0) {
+      return -1;
+    }
+    if (i == size) {
+      return 0;
+    }
+    Object x = n.keys[i];
+    if (x == null) {
+      return -1;
+    }
+    return compare(x, e) == 0 ? 1 : 0;
+  }
+
+  public boolean isEmpty() {
+    Node n = head;
+    long stamp = n.lock.tryOptimisticRead();
+    int size = n.size;
+    if (n.lock.validate(stamp)) {
+      return size == 0;
+    }
+    stamp = n.lock.readLock();
+    try {
+      return n.size == 0;
+    } finally {
+      n.lock.unlockRead(stamp);
+    }
+  }
+
+  /** Removes all elements; this must not be called concurrently with other operations. */
+  public void clear() {
+    Node n = new Node(0, null);
+    root = n;
+    head = n;
+  }
+
+  /**
+   * Returns the elements between the given bounds (both inclusive); a null bound means that the
+   * range is unbounded in that direction.
+   */
+  public Iterable<E> range(E lower, E upper) {
+    return () -> new RangeIterator(lower, upper);
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new RangeIterator(null, null);
+  }
+
+  /**
+   * An iterator that walks the leaves from left to right. It remembers the last element it
+   * returned, so if the current leaf is modified, it can find its place again (possibly in a
+   * sibling, if the leaf has been split).
+   */
+  private class RangeIterator implements Iterator<E> {
+
+    private final Object lower;
+    private final Object upper;
+    private Node leaf;
+    private int idx;
+    private long stamp;
+    private Object prev;
+    private Object next;
+
+    public RangeIterator(Object lower, Object upper) {
+      this.lower = lower;
+      this.upper = upper;
+      leaf = lower == null ? head : findNode(lower, 0);
+      advance();
+    }
+
+    private void advance() {
+      while (true) {
+        Node n = leaf;
+        if (stamp != 0) {
+          int size = n.size;
+          if (idx < size) {
+            Object x = n.keys[idx];
+            if (x != null && n.lock.validate(stamp)) {
+              setNext(x);
+              return;
+            }
+          } else {
+            Node r = n.right;
+            if (n.lock.validate(stamp)) {
+              if (r == null) {
+                next = null;
+                return;
+              }
+              // Everything in the sibling is greater than what we have seen so far.
+              leaf = r;
+              idx = 0;
+              stamp = r.lock.tryOptimisticRead();
+              continue;
+            }
+          }
+        }
+        // The leaf has changed since we last looked at it (or we have not looked at it yet), so
+        // find our place in it again.
+        long rs = n.lock.readLock();
+        Node r;
+        try {
+          int size = n.size;
+          int i;
+          if (prev != null) {
+            i = upperBound(n, prev, size);
+          } else if (lower != null) {
+            i = lowerBound(n, lower, size);
+          } else {
+            i = 0;
+          }
+          if (i < size) {
+            idx = i;
+            setNext(n.keys[i]);
+            stamp = n.lock.tryConvertToOptimisticRead(rs);
+            rs = 0;
+            return;
+          }
+          r = n.right;
+        } finally {
+          if (rs != 0) {
+            n.lock.unlockRead(rs);
+          }
+        }
+        if (r == null) {
+          next = null;
+          return;
+        }
+        leaf = r;
+        stamp = 0;
+      }
+    }
+
+    private void setNext(Object x) {
+      next = (upper != null && compare(x, upper) > 0) ? null : x;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E next() {
+      Object x = next;
+      if (x == null) {
+        throw new NoSuchElementException();
+      }
+      prev = x;
+      idx++;
+      advance();
+      return (E) x;
+    }
+  }
+}
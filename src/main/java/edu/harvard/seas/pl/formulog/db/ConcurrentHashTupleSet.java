@@ -0,0 +1,202 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.db;
+
+import edu.harvard.seas.pl.formulog.ast.Term;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class implements a concurrent, open-addressing hash set of tuples, where tuples are
+ * identified by the terms at a fixed set of key positions (at most one tuple is kept per key).
+ *
+ * <p>The table is split into segments. Writers lock the segment they insert into; readers never
+ * lock, since slots are only ever filled in (never emptied or moved within a table) and a segment
+ * that grows publishes a fresh table.
+ */
+public class ConcurrentHashTupleSet implements Iterable<Term[]> {
+
+  private static final int SEGMENT_BITS = 6;
+  private static final int NUM_SEGMENTS = 1 << SEGMENT_BITS;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Term[][].class);
+
+  private final int[] key;
+  private final Segment[] segments = new Segment[NUM_SEGMENTS];
+
+  public ConcurrentHashTupleSet(int[] key) {
+    this.key = key;
+    clear();
+  }
+
+  private static final class Segment {
+    volatile Term[][] table = new Term[INITIAL_CAPACITY][];
+    volatile int size;
+  }
+
+  private int hash(Term[] tup) {
+    int h = 0;
+    for (int i : key) {
+      h = 31 * h + Long.hashCode(tup[i].getId());
+    }
+    // Spread the bits, since term ids are dense.
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private boolean sameKey(Term[] tup1, Term[] tup2) {
+    for (int i : key) {
+      if (tup1[i] != tup2[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Segment segmentFor(int h) {
+    return segments[h >>> (32 - SEGMENT_BITS)];
+  }
+
+  /** Returns the stored tuple with the same key as the given one, or null if there is none. */
+  public Term[] get(Term[] tup) {
+    int h = hash(tup);
+    Term[][] table = segmentFor(h).table;
+    int mask = table.length - 1;
+    for (int i = h & mask; ; i = (i + 1) & mask) {
+      Term[] other = (Term[]) SLOTS.getAcquire(table, i);
+      if (other == null) {
+        return null;
+      }
+      if (sameKey(tup, other)) {
+        return other;
+      }
+    }
+  }
+
+  public boolean contains(Term[] tup) {
+    return get(tup) != null;
+  }
+
+  public boolean add(Term[] tup) {
+    int h = hash(tup);
+    Segment seg = segmentFor(h);
+    synchronized (seg) {
+      Term[][] table = seg.table;
+      int mask = table.length - 1;
+      int i = h & mask;
+      for (Term[] other; (other = table[i]) != null; i = (i + 1) & mask) {
+        if (sameKey(tup, other)) {
+          return false;
+        }
+      }
+      // Keep the load factor at most 1/2 so that probe sequences stay short.
+      if ((seg.size + 1) * 2 > table.length) {
+        table = grow(table);
+        mask = table.length - 1;
+        i = h & mask;
+        while (table[i] != null) {
+          i = (i + 1) & mask;
+        }
+        table[i] = tup;
+        seg.table = table;
+      } else {
+        SLOTS.setRelease(table, i, tup);
+      }
+      seg.size++;
+      return true;
+    }
+  }
+
+  private Term[][] grow(Term[][] table) {
+    Term[][] bigger = new Term[table.length * 2][];
+    int mask = bigger.length - 1;
+    for (Term[] tup : table) {
+      if (tup != null) {
+        int i = hash(tup) & mask;
+        while (bigger[i] != null) {
+          i = (i + 1) & mask;
+        }
+        bigger[i] = tup;
+      }
+    }
+    return bigger;
+  }
+
+  public boolean isEmpty() {
+    for (Segment seg : segments) {
+      if (seg.size != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Removes all tuples; this must not be called concurrently with other operations. */
+  public void clear() {
+    for (int i = 0; i < NUM_SEGMENTS; ++i) {
+      segments[i] = new Segment();
+    }
+  }
+
+  @Override
+  public Iterator<Term[]> iterator() {
+    return new Iterator<Term[]>() {
+
+      private int seg;
+      private Term[][] table = segments[0].table;
+      private int pos;
+      private Term[] next = findNext();
+
+      private Term[] findNext() {
+        while (true) {
+          while (pos < table.length) {
+            Term[] tup = (Term[]) SLOTS.getAcquire(table, pos++);
+            if (tup != null) {
+              return tup;
+            }
+          }
+          if (++seg == NUM_SEGMENTS) {
+            return null;
+          }
+          table = segments[seg].table;
+          pos = 0;
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      public Term[] next() {
+        Term[] tup = next;
+        if (tup == null) {
+          throw new NoSuchElementException();
+        }
+        next = findNext();
+        return tup;
+      }
+    };
+  }
+}
@@ -26,8 +26,8 @@ public class ExampleComparator implements Comparator<Term[]> {
 
   @Override
   public int compare(Term[] xs, Term[] ys) {
-    int xid = xs[0].getId();
-    int yid = ys[0].getId();
+    long xid = xs[0].getId();
+    long yid = ys[0].getId();
     if (xid < yid) {
       return -1;
     } else if (xid > yid) {
@@ -0,0 +1,449 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.db;
+
+import edu.harvard.seas.pl.formulog.ast.BindingType;
+import edu.harvard.seas.pl.formulog.ast.BoolTerm;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.I64;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * This class implements an ordered, concurrent set of tuples in which each tuple is stored as a row
+ * of term codes (see {@link TermDictionary}) packed into a shared int array, instead of as an
+ * individual {@code Term[]}. Comparisons and range scans run over these primitive rows, and codes
+ * are only turned back into terms when a tuple is handed out. Positions that are known to hold i32,
+ * i64 or bool values (see {@link Column}) store the raw values instead of codes, so that the set
+ * does not keep those terms (or dictionary entries for them) alive.
+ *
+ * <p>Rows are kept sorted in a linked list of pages (a B-link list). Each page holds an immutable
+ * snapshot of its rows and of its right sibling, so readers never lock: a reader that sees an old
+ * snapshot of a page that has since been split still sees all of its rows, and a reader that sees
+ * the new snapshot reaches the moved rows through the sibling pointer. Writers lock a single page.
+ * A skip list keyed on the low key of each page is used to find the page where a search should
+ * begin.
+ */
+public class PackedTupleSet implements Iterable<Term[]> {
+
+  private static final int PAGE_ROWS = 64;
+  private final TermDictionary dict;
+  private final int[] order;
+  private final Column[] cols;
+  private final int keyCols;
+  private final int keyLen;
+  private final int width;
+  private final Comparator<int[]> keyCmp;
+  private ConcurrentSkipListMap<int[], Page> pages;
+  private Page head;
+  private boolean frozen;
+
+  /**
+   * Creates a set that orders tuples lexicographically by the positions in {@code keyOrder}; all
+   * other positions are stored, but do not take part in comparisons.
+   */
+  public PackedTupleSet(int[] keyOrder, int arity) {
+    this(keyOrder, allTerms(arity), new TermDictionary());
+  }
+
+  /**
+   * Creates a set that orders tuples lexicographically by the positions in {@code keyOrder}, and
+   * stores each position as described by {@code columns}; terms are encoded using the given
+   * dictionary.
+   */
+  public PackedTupleSet(int[] keyOrder, Column[] columns, TermDictionary dict) {
+    this.dict = dict;
+    int arity = columns.length;
+    order = new int[arity];
+    boolean[] seen = new boolean[arity];
+    int i = 0;
+    for (int pos : keyOrder) {
+      order[i++] = pos;
+      seen[pos] = true;
+    }
+    for (int pos = 0; pos < arity; ++pos) {
+      if (!seen[pos]) {
+        order[i++] = pos;
+      }
+    }
+    cols = new Column[arity];
+    int keySlots = 0;
+    int slots = 0;
+    for (i = 0; i < arity; ++i) {
+      cols[i] = columns[order[i]];
+      slots += cols[i].width;
+      if (i < keyOrder.length) {
+        keySlots = slots;
+      }
+    }
+    keyCols = keyOrder.length;
+    keyLen = keySlots;
+    width = slots;
+    keyCmp = (xs, ys) -> compare(xs, 0, ys, 0);
+    clear();
+  }
+
+  /** How the values at a tuple position are stored in a row. */
+  public enum Column {
+    /** A dictionary code. */
+    TERM(1),
+    /** The value of an i32 term. */
+    I32(1),
+    /** The value of an i64 term, split into two ints. */
+    I64(2),
+    /** The value of a bool term, as zero or one. */
+    BOOL(1);
+
+    private final int width;
+
+    Column(int width) {
+      this.width = width;
+    }
+  }
+
+  private static Column[] allTerms(int arity) {
+    Column[] cols = new Column[arity];
+    Arrays.fill(cols, Column.TERM);
+    return cols;
+  }
+
+  /**
+   * Writes the encoding of the term to the row at the given offset. Returns false if the term is
+   * stored as a code but does not have one yet (and {@code assign} is not set), or if it is not of
+   * the column's primitive type. The latter can happen in lookups, since a rule variable can be
+   * bound to a formula where the relation expects a plain value (see issue #74); no row can match
+   * such a key.
+   */
+  private boolean encode(Term t, Column col, int[] row, int off, boolean assign) {
+    switch (col) {
+      case I32:
+        if (!(t instanceof I32)) {
+          return false;
+        }
+        row[off] = ((I32) t).getVal();
+        return true;
+      case I64:
+        if (!(t instanceof I64)) {
+          return false;
+        }
+        long v = ((I64) t).getVal();
+        row[off] = (int) (v >>> 32);
+        row[off + 1] = (int) v;
+        return true;
+      case BOOL:
+        if (!(t instanceof BoolTerm)) {
+          return false;
+        }
+        row[off] = ((BoolTerm) t).getVal() ? 1 : 0;
+        return true;
+      default:
+        int code = assign ? dict.encode(t) : dict.lookup(t);
+        row[off] = code;
+        return code >= 0;
+    }
+  }
+
+  private Term decode(Column col, int[] row, int off) {
+    switch (col) {
+      case I32:
+        return I32.make(row[off]);
+      case I64:
+        return I64.make(((long) row[off] << 32) | (row[off + 1] & 0xFFFFFFFFL));
+      case BOOL:
+        return BoolTerm.mk(row[off] != 0);
+      default:
+        return dict.decode(row[off]);
+    }
+  }
+
+  private static class Page {
+    final int[] low;
+    volatile Snapshot snap;
+
+    Page(int[] low, Snapshot snap) {
+      this.low = low;
+      this.snap = snap;
+    }
+  }
+
+  private static class Snapshot {
+    final int[] rows;
+    final int size;
+    final Page next;
+
+    Snapshot(int[] rows, int size, Page next) {
+      this.rows = rows;
+      this.size = size;
+      this.next = next;
+    }
+  }
+
+  private int compare(int[] xs, int xoff, int[] ys, int yoff) {
+    for (int i = 0; i < keyLen; ++i) {
+      int x = xs[xoff + i];
+      int y = ys[yoff + i];
+      if (x != y) {
+        return x < y ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the index of the first row of the snapshot that is not less than the key; if the row at
+   * that index is equal to the key, the index is returned as {@code -(index + 1)}.
+   */
+  private int search(Snapshot s, int[] key) {
+    int lo = 0;
+    int hi = s.size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      int c = compare(s.rows, mid * width, key, 0);
+      if (c < 0) {
+        lo = mid + 1;
+      } else if (c > 0) {
+        hi = mid;
+      } else {
+        return -(mid + 1);
+      }
+    }
+    return lo;
+  }
+
+  /** Returns a snapshot of the page that would contain the given key. */
+  private Snapshot findSnapshot(int[] key) {
+    Snapshot s = pages.floorEntry(key).getValue().snap;
+    while (s.next != null && compare(key, 0, s.next.low, 0) >= 0) {
+      s = s.next.snap;
+    }
+    return s;
+  }
+
+  public boolean add(Term[] tup) {
+    if (frozen) {
+      throw new UnsupportedOperationException("Cannot add to a frozen set");
+    }
+    int[] row = new int[width];
+    for (int i = 0, off = 0; i < order.length; off += cols[i].width, ++i) {
+      Term t = tup[order[i]];
+      if (!encode(t, cols[i], row, off, true)) {
+        throw new IllegalArgumentException("Cannot store " + t + " in a " + cols[i] + " column");
+      }
+    }
+    Page p = pages.floorEntry(row).getValue();
+    while (true) {
+      synchronized (p) {
+        Snapshot s = p.snap;
+        if (s.next != null && compare(row, 0, s.next.low, 0) >= 0) {
+          p = s.next;
+          continue;
+        }
+        int i = search(s, row);
+        if (i < 0) {
+          return false;
+        }
+        insert(p, s, i, row);
+        return true;
+      }
+    }
+  }
+
+  private void insert(Page p, Snapshot s, int i, int[] row) {
+    int size = s.size;
+    int[] rows = s.rows;
+    if (size == PAGE_ROWS) {
+      split(p, s, i, row);
+      return;
+    }
+    int needed = (size + 1) * width;
+    if (i == size && needed <= rows.length) {
+      // Readers of the current snapshot never look past its size, so we can append in place.
+      System.arraycopy(row, 0, rows, size * width, width);
+    } else {
+      int len = rows.length;
+      if (needed > len) {
+        len = Math.min(Math.max(needed, len + (len >> 1)), PAGE_ROWS * width);
+      }
+      int[] newRows = new int[len];
+      System.arraycopy(rows, 0, newRows, 0, i * width);
+      System.arraycopy(row, 0, newRows, i * width, width);
+      System.arraycopy(rows, i * width, newRows, (i + 1) * width, (size - i) * width);
+      rows = newRows;
+    }
+    p.snap = new Snapshot(rows, size + 1, s.next);
+  }
+
+  private void split(Page p, Snapshot s, int i, int[] row) {
+    int total = s.size + 1;
+    int[] all = new int[total * width];
+    System.arraycopy(s.rows, 0, all, 0, i * width);
+    System.arraycopy(row, 0, all, i * width, width);
+    System.arraycopy(s.rows, i * width, all, (i + 1) * width, (s.size - i) * width);
+    int leftSize = total / 2;
+    int rightSize = total - leftSize;
+    int[] left = Arrays.copyOf(all, leftSize * width);
+    // Leave some room in the right page, since ascending insertions append to it.
+    int[] right = new int[Math.min(rightSize + (rightSize >> 1), PAGE_ROWS) * width];
+    System.arraycopy(all, leftSize * width, right, 0, rightSize * width);
+    Page sibling = new Page(Arrays.copyOf(right, keyLen), new Snapshot(right, rightSize, s.next));
+    // Publishing the new snapshot of this page atomically moves the upper half of its rows to the
+    // sibling; the sibling only becomes reachable through the skip list afterwards.
+    p.snap = new Snapshot(left, leftSize, sibling);
+    pages.put(sibling.low, sibling);
+  }
+
+  public boolean contains(Term[] tup) {
+    int[] key = new int[keyLen];
+    for (int i = 0, off = 0; i < keyCols; off += cols[i].width, ++i) {
+      if (!encode(tup[order[i]], cols[i], key, off, false)) {
+        return false;
+      }
+    }
+    return search(findSnapshot(key), key) < 0;
+  }
+
+  /**
+   * Returns the tuples that agree with the given key at the positions that the binding pattern
+   * marks as bound.
+   */
+  public Iterable<Term[]> lookup(Term[] key, BindingType[] pat) {
+    int[] lower = new int[keyLen];
+    int[] upper = new int[keyLen];
+    for (int i = 0, off = 0; i < keyCols; off += cols[i].width, ++i) {
+      int pos = order[i];
+      if (pat[pos].isBound()) {
+        if (!encode(key[pos], cols[i], lower, off, false)) {
+          return Collections.emptyList();
+        }
+        System.arraycopy(lower, off, upper, off, cols[i].width);
+      } else {
+        Arrays.fill(lower, off, off + cols[i].width, Integer.MIN_VALUE);
+        Arrays.fill(upper, off, off + cols[i].width, Integer.MAX_VALUE);
+      }
+    }
+    return () -> new RowIterator(lower, upper);
+  }
+
+  public boolean isEmpty() {
+    return head.snap.size == 0;
+  }
+
+  public void clear() {
+    resetPages(new Snapshot(new int[width], 0, null));
+    frozen = false;
+  }
+
+  private void resetPages(Snapshot snap) {
+    int[] low = new int[keyLen];
+    Arrays.fill(low, Integer.MIN_VALUE);
+    head = new Page(low, snap);
+    pages = new ConcurrentSkipListMap<>(keyCmp);
+    pages.put(low, head);
+  }
+
+  /**
+   * Moves all rows into a single sorted array with no spare room, after which the set cannot be
+   * added to until it is cleared. This must not be called concurrently with any other operation on
+   * the set.
+   */
+  public void freeze() {
+    int size = 0;
+    for (Snapshot s = head.snap; s != null; s = s.next == null ? null : s.next.snap) {
+      size += s.size;
+    }
+    int[] rows = new int[size * width];
+    int off = 0;
+    for (Snapshot s = head.snap; s != null; s = s.next == null ? null : s.next.snap) {
+      System.arraycopy(s.rows, 0, rows, off, s.size * width);
+      off += s.size * width;
+    }
+    resetPages(new Snapshot(rows, size, null));
+    frozen = true;
+  }
+
+  @Override
+  public Iterator<Term[]> iterator() {
+    return new RowIterator(null, null);
+  }
+
+  private class RowIterator implements Iterator<Term[]> {
+
+    private final int[] lower;
+    private final int[] upper;
+    private Snapshot snap;
+    private int idx;
+    private boolean done;
+
+    public RowIterator(int[] lower, int[] upper) {
+      this.lower = lower;
+      this.upper = upper;
+      if (lower == null) {
+        snap = head.snap;
+      } else {
+        snap = findSnapshot(lower);
+        idx = search(snap, lower);
+        if (idx < 0) {
+          idx = -idx - 1;
+        }
+      }
+      advance();
+    }
+
+    private void advance() {
+      while (idx == snap.size) {
+        if (snap.next == null) {
+          done = true;
+          return;
+        }
+        snap = snap.next.snap;
+        idx = 0;
+      }
+      if (upper != null && compare(snap.rows, idx * width, upper, 0) > 0) {
+        done = true;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !done;
+    }
+
+    @Override
+    public Term[] next() {
+      if (done) {
+        throw new NoSuchElementException();
+      }
+      int[] rows = snap.rows;
+      int off = idx * width;
+      Term[] tup = new Term[order.length];
+      for (int i = 0; i < order.length; off += cols[i].width, ++i) {
+        tup[order[i]] = decode(cols[i], rows, off);
+      }
+      idx++;
+      advance();
+      return tup;
+    }
+  }
+}
@@ -23,18 +23,23 @@ import edu.harvard.seas.pl.formulog.Configuration;
 import edu.harvard.seas.pl.formulog.ast.BindingType;
 import edu.harvard.seas.pl.formulog.ast.Term;
 import edu.harvard.seas.pl.formulog.ast.Terms;
+import edu.harvard.seas.pl.formulog.db.PackedTupleSet.Column;
 import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
 import edu.harvard.seas.pl.formulog.symbols.SymbolComparator;
+import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
+import edu.harvard.seas.pl.formulog.types.Types.Type;
 import edu.harvard.seas.pl.formulog.util.Pair;
 import edu.harvard.seas.pl.formulog.util.Util;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -42,6 +47,7 @@ import java.util.NavigableSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class SortedIndexedFactDb implements IndexedFactDb {
@@ -49,34 +55,24 @@ public class SortedIndexedFactDb implements IndexedFactDb {
   private final Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>[]> indices;
   private final Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>> masterIndex;
 
-  private final Map<RelationSymbol, Set<HashedTuple>> hashFilter = new HashMap<>();
-  private final ThreadLocal<HashedTuple> hashKey = ThreadLocal.withInitial(HashedTuple::new);
+  // Full-tuple hash indices used for membership tests and deduplication (if enabled)
+  private final Map<RelationSymbol, IndexedFactSet> hashMaster;
+
+  // Codes for the terms stored in packed indices (if enabled)
+  private final TermDictionary dict;
+
+  private final Set<RelationSymbol> frozen = new HashSet<>();
+  private final Map<RelationSymbol, Set<Integer>> pinned = new HashMap<>();
 
   private SortedIndexedFactDb(
       Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>[]> indices,
-      Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>> masterIndex) {
+      Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>> masterIndex,
+      Map<RelationSymbol, IndexedFactSet> hashMaster,
+      TermDictionary dict) {
     this.indices = indices;
     this.masterIndex = masterIndex;
-    for (var sym : indices.keySet()) {
-      hashFilter.put(sym, Util.concurrentSet());
-    }
-  }
-
-  private static class HashedTuple {
-    public Term[] tup;
-
-    @Override
-    public int hashCode() {
-      return Arrays.hashCode(tup);
-    }
-
-    @Override
-    public boolean equals(Object other) {
-      if (other instanceof HashedTuple) {
-        return Arrays.equals(tup, ((HashedTuple) other).tup);
-      }
-      return false;
-    }
+    this.hashMaster = hashMaster;
+    this.dict = dict;
   }
 
   @Override
@@ -119,39 +115,34 @@ public class SortedIndexedFactDb implements IndexedFactDb {
   @Override
   public Iterable<Term[]> get(RelationSymbol sym, Term[] key, int index) {
     Pair<IndexedFactSet, BindingType[]> p = indices.get(sym)[index];
+    assert p.fst().isActive() : "Index " + index + " of " + sym + " has been dropped";
     return p.fst().lookup(key, p.snd());
   }
 
-  private boolean hashFilterAdd(RelationSymbol sym, Term[] tup) {
-    var key = hashKey.get();
-    key.tup = tup;
-    if (hashFilter.get(sym).add(key)) {
-      hashKey.set(new HashedTuple());
-      return true;
-    }
-    key.tup = null;
-    return false;
-  }
-
-  private boolean hashFilterContains(RelationSymbol sym, Term[] tup) {
-    var key = hashKey.get();
-    key.tup = tup;
-    var r = hashFilter.get(sym).contains(key);
-    key.tup = null;
-    return r;
+  /**
+   * Like {@link #get(RelationSymbol, Term[], int)}, but takes the bounds of the range to look up
+   * directly, which lets callers reuse them across lookups: the bounds must agree on the positions
+   * that the index's pattern binds and hold {@link Terms#minTerm} and {@link Terms#maxTerm}
+   * everywhere else. The bounds must not be modified while the result is in use.
+   */
+  public Iterable<Term[]> get(RelationSymbol sym, Term[] lower, Term[] upper, int index) {
+    Pair<IndexedFactSet, BindingType[]> p = indices.get(sym)[index];
+    assert p.fst().isActive() : "Index " + index + " of " + sym + " has been dropped";
+    return p.fst().lookup(lower, upper, p.snd());
   }
 
   @Override
   public boolean add(RelationSymbol sym, Term[] tup) {
     assert allNormal(tup);
-    if (Configuration.useHashDbFilter && !hashFilterAdd(sym, tup)) {
-      return false;
+    checkNotFrozen(sym);
+    IndexedFactSet master = hashMaster.get(sym);
+    if (master == null) {
+      master = masterIndex.get(sym).fst();
     }
-    IndexedFactSet master = masterIndex.get(sym).fst();
     if (master.add(tup)) {
       for (Pair<IndexedFactSet, ?> p : indices.get(sym)) {
         IndexedFactSet idx = p.fst();
-        if (!idx.equals(master)) {
+        if (!idx.equals(master) && idx.isActive()) {
           idx.add(tup);
         }
       }
@@ -160,22 +151,39 @@ public class SortedIndexedFactDb implements IndexedFactDb {
     return false;
   }
 
+  private void checkNotFrozen(RelationSymbol sym) {
+    if (frozen.contains(sym)) {
+      throw new IllegalStateException("Cannot add to frozen relation " + sym);
+    }
+  }
+
   @Override
   public boolean addAll(RelationSymbol sym, Iterable<Term[]> tups) {
-    if (Configuration.useHashDbFilter) {
+    checkNotFrozen(sym);
+    IndexedFactSet filter = hashMaster.get(sym);
+    if (filter != null) {
       ArrayList<Term[]> l = new ArrayList<>();
       for (var tup : tups) {
-        if (hashFilterAdd(sym, tup)) {
+        if (filter.add(tup)) {
           l.add(tup);
         }
       }
-      tups = l;
+      if (l.isEmpty()) {
+        return false;
+      }
+      for (Pair<IndexedFactSet, ?> p : indices.get(sym)) {
+        IndexedFactSet idx = p.fst();
+        if (!idx.equals(filter) && idx.isActive()) {
+          idx.addAll(l);
+        }
+      }
+      return true;
     }
     IndexedFactSet master = masterIndex.get(sym).fst();
     if (master.addAll(tups)) {
       for (Pair<IndexedFactSet, ?> p : indices.get(sym)) {
         IndexedFactSet idx = p.fst();
-        if (!idx.equals(master)) {
+        if (!idx.equals(master) && idx.isActive()) {
           idx.addAll(tups);
         }
       }
@@ -184,6 +192,188 @@ public class SortedIndexedFactDb implements IndexedFactDb {
     return false;
   }
 
+  /**
+   * Drops the secondary indices of the relation that do not back any of the given index numbers (or
+   * any pinned index number); dropped indices are no longer kept up to date, and hold no tuples.
+   * The master index and the index used for membership tests are never dropped. This must not be
+   * called concurrently with any other operation on the database.
+   */
+  public void retainIndices(RelationSymbol sym, Set<Integer> live) {
+    Pair<IndexedFactSet, BindingType[]>[] idxs = indices.get(sym);
+    Set<IndexedFactSet> keep = new HashSet<>();
+    keep.add(masterIndex.get(sym).fst());
+    IndexedFactSet hash = hashMaster.get(sym);
+    if (hash != null) {
+      keep.add(hash);
+    }
+    Set<Integer> pins = pinned.getOrDefault(sym, Collections.emptySet());
+    for (int i = 0; i < idxs.length; ++i) {
+      if (live.contains(i) || pins.contains(i)) {
+        keep.add(idxs[i].fst());
+      }
+    }
+    for (Pair<IndexedFactSet, ?> p : idxs) {
+      IndexedFactSet idx = p.fst();
+      if (!keep.contains(idx) && idx.isActive()) {
+        idx.deactivate();
+      }
+    }
+  }
+
+  /**
+   * Makes sure that the given index numbers of the relation are backed by up-to-date indices,
+   * rebuilding any dropped ones from the master index. This must not be called concurrently with
+   * any other operation on the database.
+   */
+  public void activateIndices(RelationSymbol sym, Collection<Integer> needed) {
+    Pair<IndexedFactSet, BindingType[]>[] idxs = indices.get(sym);
+    for (int i : needed) {
+      IndexedFactSet idx = idxs[i].fst();
+      if (idx.isActive()) {
+        continue;
+      }
+      IndexedFactSet built;
+      if (frozen.contains(sym)) {
+        built = idx.freeze(getAll(sym));
+      } else {
+        idx.activate();
+        idx.addAll(getAll(sym));
+        built = idx;
+      }
+      for (int j = 0; j < idxs.length; ++j) {
+        if (idxs[j].fst() == idx) {
+          idxs[j] = new Pair<>(built, idxs[j].snd());
+        }
+      }
+    }
+  }
+
+  /** Marks the given index numbers of the relation as ones that must never be dropped. */
+  public void pinIndices(RelationSymbol sym, Collection<Integer> idxs) {
+    Util.lookupOrCreate(pinned, sym, HashSet::new).addAll(idxs);
+  }
+
+  /**
+   * Replaces every index of the relation with an immutable one that takes less memory than the
+   * concurrent structures built for insertion: skip list and B-tree indices become sorted arrays of
+   * tuples, and packed indices move their rows into a single array. Hash indices are kept as they
+   * are. The relation cannot be added to afterwards. This must not be called concurrently with any
+   * other operation on the database.
+   */
+  public void freeze(RelationSymbol sym) {
+    Pair<IndexedFactSet, BindingType[]>[] idxs = indices.get(sym);
+    if (idxs == null || !frozen.add(sym)) {
+      return;
+    }
+    Map<IndexedFactSet, IndexedFactSet> m = new HashMap<>();
+    Function<IndexedFactSet, IndexedFactSet> f =
+        idx -> idx.isActive() ? m.computeIfAbsent(idx, IndexedFactSet::freeze) : idx;
+    Pair<IndexedFactSet, BindingType[]>[] newIdxs = Arrays.copyOf(idxs, idxs.length);
+    for (int i = 0; i < idxs.length; ++i) {
+      newIdxs[i] = new Pair<>(f.apply(idxs[i].fst()), idxs[i].snd());
+    }
+    indices.put(sym, newIdxs);
+    Pair<IndexedFactSet, BindingType[]> master = masterIndex.get(sym);
+    masterIndex.put(sym, new Pair<>(f.apply(master.fst()), master.snd()));
+    IndexedFactSet hash = hashMaster.get(sym);
+    if (hash != null) {
+      hashMaster.put(sym, f.apply(hash));
+    }
+  }
+
+  /**
+   * Prepares to merge a batch of tuples into a relation in bulk, returning one merge per distinct
+   * index of the relation (including the ones used for membership tests). Merges into different
+   * indices, and merges of disjoint ranges of the same batch, can run concurrently with each other,
+   * but not with other updates to the relation.
+   */
+  public List<IndexMerge> prepareMerge(RelationSymbol sym, Term[][] tups) {
+    Set<IndexedFactSet> targets = new LinkedHashSet<>();
+    targets.add(masterIndex.get(sym).fst());
+    IndexedFactSet hash = hashMaster.get(sym);
+    if (hash != null) {
+      targets.add(hash);
+    }
+    for (Pair<IndexedFactSet, ?> p : indices.get(sym)) {
+      if (p.fst().isActive()) {
+        targets.add(p.fst());
+      }
+    }
+    List<IndexMerge> merges = new ArrayList<>();
+    for (IndexedFactSet idx : targets) {
+      merges.add(new IndexMerge(idx, tups.clone()));
+    }
+    return merges;
+  }
+
+  public static class IndexMerge {
+
+    private final IndexedFactSet idx;
+    private final Term[][] tups;
+
+    private IndexMerge(IndexedFactSet idx, Term[][] tups) {
+      this.idx = idx;
+      this.tups = tups;
+    }
+
+    /**
+     * Sorts this merge's copy of the batch into the order of its index, if the index has an order
+     * that can be expressed over terms.
+     */
+    public void sort() {
+      Comparator<? super Term[]> cmp = idx.getComparator();
+      if (cmp != null) {
+        Arrays.sort(tups, cmp);
+      }
+    }
+
+    public int size() {
+      return tups.length;
+    }
+
+    /** Inserts the tuples in the range [from, to) of the batch into the index. */
+    public void merge(int from, int to) {
+      idx.addAll(Arrays.asList(tups).subList(from, to));
+    }
+  }
+
+  /**
+   * Returns the number of an index that supports the given binding pattern, creating and populating
+   * a new index if there is not one already. This must not be called concurrently with any other
+   * operation on the database.
+   */
+  public int makeIndex(RelationSymbol sym, BindingType[] pat) {
+    Pair<IndexedFactSet, BindingType[]>[] idxs = indices.get(sym);
+    if (idxs == null) {
+      throw new IllegalArgumentException("Unrecognized symbol: " + sym);
+    }
+    for (int i = 0; i < idxs.length; ++i) {
+      if (Arrays.equals(idxs[i].snd(), pat)) {
+        activateIndices(sym, Collections.singleton(i));
+        return i;
+      }
+    }
+    IndexedFactSet idx = null;
+    for (Pair<IndexedFactSet, BindingType[]> p : idxs) {
+      if (p.fst().supports(pat)) {
+        idx = p.fst();
+        break;
+      }
+    }
+    if (idx == null) {
+      idx = IndexedFactSet.make(sym, pat, dict);
+      idx.addAll(getAll(sym));
+      if (frozen.contains(sym)) {
+        idx = idx.freeze();
+      }
+    }
+    Pair<IndexedFactSet, BindingType[]>[] newIdxs = Arrays.copyOf(idxs, idxs.length + 1);
+    newIdxs[idxs.length] = new Pair<>(idx, pat);
+    indices.put(sym, newIdxs);
+    activateIndices(sym, Collections.singleton(idxs.length));
+    return idxs.length;
+  }
+
   private boolean allNormal(Term[] args) {
     for (Term arg : args) {
       if (!arg.isGround() || arg.containsUnevaluatedTerm()) {
@@ -196,22 +386,21 @@ public class SortedIndexedFactDb implements IndexedFactDb {
   @Override
   public boolean hasFact(RelationSymbol sym, Term[] args) {
     assert allNormal(args);
-    if (Configuration.useHashDbFilter) {
-      return hashFilterContains(sym, args);
+    IndexedFactSet filter = hashMaster.get(sym);
+    if (filter != null) {
+      return filter.contains(args);
     }
     return masterIndex.get(sym).fst().contains(args);
   }
 
   @Override
   public void clear() {
-    for (var s : hashFilter.values()) {
-      s.clear();
-    }
     for (Pair<IndexedFactSet, BindingType[]>[] idxs : indices.values()) {
       for (Pair<IndexedFactSet, ?> p : idxs) {
         p.fst().clear();
       }
     }
+    dict.clear();
   }
 
   @Override
@@ -283,6 +472,8 @@ public class SortedIndexedFactDb implements IndexedFactDb {
         new LinkedHashMap<>();
     private final Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>> masterIndex =
         new HashMap<>();
+    private final Map<RelationSymbol, IndexedFactSet> hashMaster = new HashMap<>();
+    private TermDictionary dict;
 
     public SortedIndexedFactDbBuilder(Set<RelationSymbol> allSyms) {
       List<RelationSymbol> sortedSyms =
@@ -310,6 +501,7 @@ public class SortedIndexedFactDb implements IndexedFactDb {
 
     @Override
     public SortedIndexedFactDb build() {
+      dict = new TermDictionary();
       Map<RelationSymbol, Pair<IndexedFactSet, BindingType[]>[]> indices = new HashMap<>();
       for (Map.Entry<RelationSymbol, Map<BindingTypeArrayWrapper, Integer>> e : pats.entrySet()) {
         RelationSymbol sym = e.getKey();
@@ -322,17 +514,26 @@ public class SortedIndexedFactDb implements IndexedFactDb {
       for (RelationSymbol sym : sortedSyms) {
         sorted.put(sym, masterIndex.get(sym));
       }
-      return new SortedIndexedFactDb(indices, sorted);
+      return new SortedIndexedFactDb(indices, sorted, new HashMap<>(hashMaster), dict);
     }
 
     @SuppressWarnings("unchecked")
     private Pair<IndexedFactSet, BindingType[]>[] mkIndices(
         RelationSymbol sym, Map<BindingTypeArrayWrapper, Integer> m) {
-      List<Pair<IndexedFactSet, BindingType[]>> indices;
+      Map<Integer, Pair<IndexedFactSet, BindingType[]>> byNum = new HashMap<>();
+      Map<BindingTypeArrayWrapper, Integer> sortedPats = m;
+      if (Configuration.hashIndex) {
+        sortedPats = new HashMap<>();
+        byNum.putAll(mkHashIndices(m, sortedPats));
+      }
       if (Configuration.minIndex) {
-        indices = mkMinIndices(sym, m);
+        byNum.putAll(mkMinIndices(sym, sortedPats));
       } else {
-        indices = mkNaiveIndices(sym, m);
+        byNum.putAll(mkNaiveIndices(sym, sortedPats));
+      }
+      List<Pair<IndexedFactSet, BindingType[]>> indices = new ArrayList<>();
+      for (int i = 0; i < m.size(); ++i) {
+        indices.add(byNum.get(i));
       }
       boolean ok = false;
       for (Pair<IndexedFactSet, BindingType[]> p : indices) {
@@ -348,15 +549,58 @@ public class SortedIndexedFactDb implements IndexedFactDb {
         for (int i = 0; i < pat.length; ++i) {
           pat[i] = BindingType.FREE;
         }
-        IndexedFactSet master = IndexedFactSet.make(pat);
+        IndexedFactSet master = IndexedFactSet.make(sym, pat, dict);
         Pair<IndexedFactSet, BindingType[]> p = new Pair<>(master, pat);
         masterIndex.put(sym, p);
         indices.add(p);
       }
+      if (Configuration.hashIndex || Configuration.useHashDbFilter) {
+        hashMaster.put(sym, findOrMakeHashMaster(sym, indices));
+      }
       assert indicesWellFormed(indices) : "Bad index created for relation: " + sym;
       return indices.toArray(new Pair[0]);
     }
 
+    /**
+     * Creates hash indices for the patterns that bind every position they do not ignore (one index
+     * per set of bound positions); the remaining patterns are put in the given map.
+     */
+    private static Map<Integer, Pair<IndexedFactSet, BindingType[]>> mkHashIndices(
+        Map<BindingTypeArrayWrapper, Integer> m, Map<BindingTypeArrayWrapper, Integer> rest) {
+      Map<Integer, Pair<IndexedFactSet, BindingType[]>> indices = new HashMap<>();
+      Map<List<Integer>, IndexedFactSet> byKey = new HashMap<>();
+      for (Map.Entry<BindingTypeArrayWrapper, Integer> e : m.entrySet()) {
+        BindingType[] pat = e.getKey().getArr();
+        if (IndexedFactSet.isFullyBound(pat)) {
+          List<Integer> key = IndexedFactSet.boundPositions(pat);
+          IndexedFactSet idx = byKey.computeIfAbsent(key, IndexedFactSet::makeHash);
+          indices.put(e.getValue(), new Pair<>(idx, pat));
+        } else {
+          rest.put(e.getKey(), e.getValue());
+        }
+      }
+      return indices;
+    }
+
+    private static IndexedFactSet findOrMakeHashMaster(
+        RelationSymbol sym, List<Pair<IndexedFactSet, BindingType[]>> indices) {
+      for (Pair<IndexedFactSet, BindingType[]> p : indices) {
+        IndexedFactSet idx = p.fst();
+        if (idx instanceof HashFactSet && idx.comparatorLength() == sym.getArity()) {
+          return idx;
+        }
+      }
+      BindingType[] pat = new BindingType[sym.getArity()];
+      List<Integer> key = new ArrayList<>();
+      for (int i = 0; i < pat.length; ++i) {
+        pat[i] = BindingType.BOUND;
+        key.add(i);
+      }
+      IndexedFactSet idx = IndexedFactSet.makeHash(key);
+      indices.add(new Pair<>(idx, pat));
+      return idx;
+    }
+
     private static boolean indicesWellFormed(
         Iterable<Pair<IndexedFactSet, BindingType[]>> indices) {
       boolean ok = true;
@@ -376,31 +620,28 @@ public class SortedIndexedFactDb implements IndexedFactDb {
       return i;
     }
 
-    private List<Pair<IndexedFactSet, BindingType[]>> mkNaiveIndices(
+    private Map<Integer, Pair<IndexedFactSet, BindingType[]>> mkNaiveIndices(
         RelationSymbol sym, Map<BindingTypeArrayWrapper, Integer> m) {
-      List<Pair<IndexedFactSet, BindingType[]>> idxs = new ArrayList<>();
+      Map<Integer, Pair<IndexedFactSet, BindingType[]>> idxs = new HashMap<>();
       List<Map.Entry<BindingTypeArrayWrapper, Integer>> sorted =
           m.entrySet().stream().sorted(cmp).collect(Collectors.toList());
       for (Map.Entry<BindingTypeArrayWrapper, Integer> e : sorted) {
         BindingType[] pat = e.getKey().getArr();
-        IndexedFactSet idx = IndexedFactSet.make(pat);
-        idxs.add(new Pair<>(idx, pat));
+        IndexedFactSet idx = IndexedFactSet.make(sym, pat, dict);
+        idxs.put(e.getValue(), new Pair<>(idx, pat));
       }
       return idxs;
     }
 
-    private List<Pair<IndexedFactSet, BindingType[]>> mkMinIndices(
+    private Map<Integer, Pair<IndexedFactSet, BindingType[]>> mkMinIndices(
         RelationSymbol sym, Map<BindingTypeArrayWrapper, Integer> m) {
-      List<Pair<IndexedFactSet, BindingType[]>> indices = new ArrayList<>(m.size());
-      for (int i = 0; i < m.size(); ++i) {
-        indices.add(null);
-      }
+      Map<Integer, Pair<IndexedFactSet, BindingType[]>> indices = new HashMap<>();
       for (Map.Entry<Set<Integer>, Set<Pair<Integer, BindingType[]>>> e1 :
           partitionByIgnoredPositions(m).entrySet()) {
         for (Map.Entry<Integer, Pair<IndexedFactSet, BindingType[]>> e2 :
             mkMinIndices(sym, e1.getKey(), e1.getValue()).entrySet()) {
           assert indices.get(e2.getKey()) == null;
-          indices.set(e2.getKey(), e2.getValue());
+          indices.put(e2.getKey(), e2.getValue());
         }
       }
       return indices;
@@ -432,7 +673,7 @@ public class SortedIndexedFactDb implements IndexedFactDb {
         for (int i : idx) {
           order.add(i);
         }
-        factSetByIndex.put(idx, IndexedFactSet.make(order));
+        factSetByIndex.put(idx, IndexedFactSet.make(order, sym, dict));
       }
       Map<Integer, Pair<IndexedFactSet, BindingType[]>> indices = new HashMap<>();
       for (int i : searchByNum.keySet()) {
@@ -488,17 +729,19 @@ public class SortedIndexedFactDb implements IndexedFactDb {
         };
   }
 
-  private static class IndexedFactSet {
+  private abstract static class IndexedFactSet {
 
     private static final AtomicInteger idCnt = new AtomicInteger();
     private final int id;
-    private final NavigableSet<Term[]> s;
     private final AtomicInteger cnt = new AtomicInteger();
     private final List<Integer> comparatorOrder;
 
     private static final TupleComparatorGenerator gen = new TupleComparatorGenerator();
 
-    public static IndexedFactSet make(BindingType[] pat) {
+    public static IndexedFactSet make(RelationSymbol sym, BindingType[] pat, TermDictionary dict) {
+      if (Configuration.hashIndex && isFullyBound(pat)) {
+        return makeHash(boundPositions(pat));
+      }
       List<Integer> order = new ArrayList<>();
       for (int i = 0; i < pat.length; ++i) {
         if (pat[i].isBound()) {
@@ -510,18 +753,92 @@ public class SortedIndexedFactDb implements IndexedFactDb {
           order.add(i);
         }
       }
-      return make(order);
+      return make(order, sym, dict);
     }
 
-    private static IndexedFactSet make(List<Integer> order) {
+    private static IndexedFactSet make(
+        List<Integer> order, RelationSymbol sym, TermDictionary dict) {
       int[] a = new int[order.size()];
       for (int i = 0; i < a.length; ++i) {
         a[i] = order.get(i);
       }
-      Comparator<Term[]> cmp;
+      switch (Configuration.dbIndex) {
+        case "packed":
+          return new PackedFactSet(new PackedTupleSet(a, columns(sym), dict), order);
+        case "skiplist":
+          return new SkipListFactSet(a, order);
+        case "btree":
+          return new BTreeFactSet(a, order);
+        default:
+          throw new AssertionError("impossible");
+      }
+    }
+
+    /** Returns how a packed fact set should store each position of the relation. */
+    private static Column[] columns(RelationSymbol sym) {
+      Column[] cols = new Column[sym.getArity()];
+      Arrays.fill(cols, Column.TERM);
+      if (!Configuration.packPrimitives || !sym.hasCompileTimeType()) {
+        return cols;
+      }
+      List<Type> types = sym.getCompileTimeType().getArgTypes();
+      for (int i = 0; i < cols.length; ++i) {
+        Type ty = types.get(i);
+        if (ty.equals(BuiltInTypes.i32)) {
+          cols[i] = Column.I32;
+        } else if (ty.equals(BuiltInTypes.i64)) {
+          cols[i] = Column.I64;
+        } else if (ty.equals(BuiltInTypes.bool)) {
+          cols[i] = Column.BOOL;
+        }
+      }
+      return cols;
+    }
+
+    private static boolean isFullyBound(BindingType[] pat) {
+      for (BindingType b : pat) {
+        if (b.isFree()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static List<Integer> boundPositions(BindingType[] pat) {
+      List<Integer> l = new ArrayList<>();
+      for (int i = 0; i < pat.length; ++i) {
+        if (pat[i].isBound()) {
+          l.add(i);
+        }
+      }
+      return l;
+    }
+
+    /** Returns whether this index can be used to look up tuples by the given pattern. */
+    public boolean supports(BindingType[] pat) {
+      List<Integer> bound = boundPositions(pat);
+      if (this instanceof HashFactSet) {
+        return isFullyBound(pat) && comparatorOrder.equals(bound);
+      }
+      Set<Integer> used = new HashSet<>();
+      for (int i = 0; i < pat.length; ++i) {
+        if (!pat[i].isIgnored()) {
+          used.add(i);
+        }
+      }
+      return comparatorOrder.size() == used.size()
+          && used.containsAll(comparatorOrder)
+          && new HashSet<>(comparatorOrder.subList(0, bound.size())).containsAll(bound);
+    }
+
+    public static IndexedFactSet makeHash(List<Integer> key) {
+      return new HashFactSet(key);
+    }
+
+    protected static Comparator<Term[]> makeComparator(int[] order) {
       if (Configuration.genComparators) {
         try {
-          cmp = gen.generate(a);
+          return gen.generate(order);
         } catch (InstantiationException
             | IllegalAccessException
             | IllegalArgumentException
@@ -530,31 +847,59 @@ public class SortedIndexedFactDb implements IndexedFactDb {
             | SecurityException e) {
           throw new AssertionError(e);
         }
-      } else {
-        cmp = new TermArrayComparator(a);
       }
-      return new IndexedFactSet(new ConcurrentSkipListSet<>(cmp), order);
+      return new TermArrayComparator(order);
     }
 
     public int comparatorLength() {
       return comparatorOrder.size();
     }
 
-    public Iterable<Term[]> getAll() {
-      return s;
+    /** Returns an immutable copy of this index. */
+    public IndexedFactSet freeze() {
+      return freeze(getAll());
     }
 
+    /** Returns an immutable index with the same order as this one, holding the given tuples. */
+    public IndexedFactSet freeze(Iterable<Term[]> contents) {
+      int[] order = new int[comparatorOrder.size()];
+      for (int i = 0; i < order.length; ++i) {
+        order[i] = comparatorOrder.get(i);
+      }
+      return new FrozenFactSet(order, comparatorOrder, contents);
+    }
+
+    // Whether this index is kept up to date (see retainIndices).
+    private boolean active = true;
+
+    public boolean isActive() {
+      return active;
+    }
+
+    public void deactivate() {
+      clear();
+      active = false;
+    }
+
+    public void activate() {
+      active = true;
+    }
+
+    /** Returns the order of the index, or null if it is not ordered. */
+    public abstract Comparator<? super Term[]> getComparator();
+
+    public abstract Iterable<Term[]> getAll();
+
     public void clear() {
-      s.clear();
+      clearTuples();
       cnt.set(0);
     }
 
-    public boolean isEmpty() {
-      return s.isEmpty();
-    }
+    protected abstract void clearTuples();
 
-    private IndexedFactSet(NavigableSet<Term[]> s, List<Integer> comparatorOrder) {
-      this.s = s;
+    public abstract boolean isEmpty();
+
+    protected IndexedFactSet(List<Integer> comparatorOrder) {
       this.comparatorOrder = comparatorOrder;
       this.id = idCnt.getAndIncrement();
     }
@@ -563,8 +908,10 @@ public class SortedIndexedFactDb implements IndexedFactDb {
       return id;
     }
 
+    protected abstract boolean addTuple(Term[] tup);
+
     public boolean add(Term[] arr) {
-      boolean modified = s.add(arr);
+      boolean modified = addTuple(arr);
       if (modified) {
         cnt.incrementAndGet();
       }
@@ -572,18 +919,22 @@ public class SortedIndexedFactDb implements IndexedFactDb {
     }
 
     public boolean addAll(Iterable<Term[]> tups) {
-      boolean modified = false;
+      int delta = addTuples(tups);
+      if (delta > 0) {
+        cnt.addAndGet(delta);
+        return true;
+      }
+      return false;
+    }
+
+    protected int addTuples(Iterable<Term[]> tups) {
       int delta = 0;
       for (Term[] tup : tups) {
-        if (s.add(tup)) {
-          modified = true;
+        if (addTuple(tup)) {
           delta++;
         }
       }
-      if (modified) {
-        cnt.addAndGet(delta);
-      }
-      return modified;
+      return delta;
     }
 
     public int count() {
@@ -602,18 +953,18 @@ public class SortedIndexedFactDb implements IndexedFactDb {
           upper[i] = Terms.maxTerm;
         }
       }
-      return s.subSet(lower, true, upper, true);
+      return lookup(lower, upper, pat);
     }
 
-    public boolean contains(Term[] tup) {
-      return s.contains(tup);
-    }
+    public abstract Iterable<Term[]> lookup(Term[] lower, Term[] upper, BindingType[] pat);
+
+    public abstract boolean contains(Term[] tup);
 
     @Override
     public String toString() {
       String str = "[\n\t";
       str += "\t#" + id + " " + comparatorOrder + "\n";
-      for (Term[] tup : s) {
+      for (Term[] tup : getAll()) {
         str += "\n\t";
         str += Arrays.toString(tup);
       }
@@ -621,6 +972,332 @@ public class SortedIndexedFactDb implements IndexedFactDb {
     }
   }
 
+  private static class SkipListFactSet extends IndexedFactSet {
+
+    private final NavigableSet<Term[]> s;
+
+    public SkipListFactSet(int[] order, List<Integer> comparatorOrder) {
+      super(comparatorOrder);
+      s = new ConcurrentSkipListSet<>(makeComparator(order));
+    }
+
+    @Override
+    public Comparator<? super Term[]> getComparator() {
+      return s.comparator();
+    }
+
+    @Override
+    public Iterable<Term[]> getAll() {
+      return s;
+    }
+
+    @Override
+    protected void clearTuples() {
+      s.clear();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return s.isEmpty();
+    }
+
+    @Override
+    protected boolean addTuple(Term[] tup) {
+      return s.add(tup);
+    }
+
+    @Override
+    public Iterable<Term[]> lookup(Term[] lower, Term[] upper, BindingType[] pat) {
+      return s.subSet(lower, true, upper, true);
+    }
+
+    @Override
+    public boolean contains(Term[] tup) {
+      return s.contains(tup);
+    }
+  }
+
+  private static class BTreeFactSet extends IndexedFactSet {
+
+    private final Comparator<Term[]> cmp;
+    private final ConcurrentBTreeSet<Term[]> s;
+
+    public BTreeFactSet(int[] order, List<Integer> comparatorOrder) {
+      super(comparatorOrder);
+      cmp = makeComparator(order);
+      s = new ConcurrentBTreeSet<>(cmp);
+    }
+
+    @Override
+    public Comparator<? super Term[]> getComparator() {
+      return cmp;
+    }
+
+    @Override
+    public Iterable<Term[]> getAll() {
+      return s;
+    }
+
+    @Override
+    protected void clearTuples() {
+      s.clear();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return s.isEmpty();
+    }
+
+    @Override
+    protected boolean addTuple(Term[] tup) {
+      return s.add(tup);
+    }
+
+    @Override
+    protected int addTuples(Iterable<Term[]> tups) {
+      // Batches usually come from another index and are therefore mostly sorted, so successive
+      // insertions tend to land in the same leaf.
+      ConcurrentBTreeSet.Hint hint = new ConcurrentBTreeSet.Hint();
+      int delta = 0;
+      for (Term[] tup : tups) {
+        if (s.add(tup, hint)) {
+          delta++;
+        }
+      }
+      return delta;
+    }
+
+    @Override
+    public Iterable<Term[]> lookup(Term[] lower, Term[] upper, BindingType[] pat) {
+      return s.range(lower, upper);
+    }
+
+    @Override
+    public boolean contains(Term[] tup) {
+      return s.contains(tup);
+    }
+  }
+
+  private static class HashFactSet extends IndexedFactSet {
+
+    private final ConcurrentHashTupleSet s;
+
+    public HashFactSet(List<Integer> key) {
+      super(key);
+      int[] a = new int[key.size()];
+      for (int i = 0; i < a.length; ++i) {
+        a[i] = key.get(i);
+      }
+      s = new ConcurrentHashTupleSet(a);
+    }
+
+    @Override
+    public Comparator<? super Term[]> getComparator() {
+      return null;
+    }
+
+    @Override
+    public Iterable<Term[]> getAll() {
+      return s;
+    }
+
+    @Override
+    protected void clearTuples() {
+      s.clear();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return s.isEmpty();
+    }
+
+    @Override
+    protected boolean addTuple(Term[] tup) {
+      return s.add(tup);
+    }
+
+    @Override
+    public IndexedFactSet freeze() {
+      // Lookups in a sorted array would take logarithmic instead of constant time.
+      return this;
+    }
+
+    @Override
+    public IndexedFactSet freeze(Iterable<Term[]> contents) {
+      activate();
+      addAll(contents);
+      return this;
+    }
+
+    @Override
+    public Iterable<Term[]> lookup(Term[] tup, BindingType[] pat) {
+      Term[] found = s.get(tup);
+      return found == null ? Collections.emptyList() : Collections.singletonList(found);
+    }
+
+    @Override
+    public Iterable<Term[]> lookup(Term[] lower, Term[] upper, BindingType[] pat) {
+      return lookup(lower, pat);
+    }
+
+    @Override
+    public boolean contains(Term[] tup) {
+      return s.contains(tup);
+    }
+  }
+
+  private static class PackedFactSet extends IndexedFactSet {
+
+    private final PackedTupleSet s;
+
+    public PackedFactSet(PackedTupleSet s, List<Integer> comparatorOrder) {
+      super(comparatorOrder);
+      this.s = s;
+    }
+
+    @Override
+    public Comparator<? super Term[]> getComparator() {
+      // Rows are ordered by dictionary code (or raw value), not by term id.
+      return null;
+    }
+
+    @Override
+    public IndexedFactSet freeze() {
+      s.freeze();
+      return this;
+    }
+
+    @Override
+    public IndexedFactSet freeze(Iterable<Term[]> contents) {
+      activate();
+      addAll(contents);
+      return freeze();
+    }
+
+    @Override
+    public Iterable<Term[]> getAll() {
+      return s;
+    }
+
+    @Override
+    protected void clearTuples() {
+      s.clear();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return s.isEmpty();
+    }
+
+    @Override
+    protected boolean addTuple(Term[] tup) {
+      return s.add(tup);
+    }
+
+    @Override
+    public Iterable<Term[]> lookup(Term[] tup, BindingType[] pat) {
+      return s.lookup(tup, pat);
+    }
+
+    @Override
+    public Iterable<Term[]> lookup(Term[] lower, Term[] upper, BindingType[] pat) {
+      return s.lookup(lower, pat);
+    }
+
+    @Override
+    public boolean contains(Term[] tup) {
+      return s.contains(tup);
+    }
+  }
+
+  private static class FrozenFactSet extends IndexedFactSet {
+
+    private static final Term[][] empty = new Term[0][];
+
+    private final Comparator<Term[]> cmp;
+    private Term[][] tups;
+
+    public FrozenFactSet(int[] order, List<Integer> comparatorOrder, Iterable<Term[]> contents) {
+      super(comparatorOrder);
+      cmp = makeComparator(order);
+      List<Term[]> l = new ArrayList<>();
+      for (Term[] tup : contents) {
+        l.add(tup);
+      }
+      tups = l.toArray(empty);
+      // The contents of skip list and B-tree indices are already sorted, in which case this is a
+      // single linear pass.
+      Arrays.sort(tups, cmp);
+    }
+
+    @Override
+    public IndexedFactSet freeze() {
+      return this;
+    }
+
+    @Override
+    public Comparator<? super Term[]> getComparator() {
+      return cmp;
+    }
+
+    @Override
+    public Iterable<Term[]> getAll() {
+      return Arrays.asList(tups);
+    }
+
+    @Override
+    protected void clearTuples() {
+      tups = empty;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return tups.length == 0;
+    }
+
+    @Override
+    public int count() {
+      return tups.length;
+    }
+
+    @Override
+    protected boolean addTuple(Term[] tup) {
+      throw new UnsupportedOperationException("Cannot add to a frozen relation");
+    }
+
+    @Override
+    public Iterable<Term[]> lookup(Term[] lower, Term[] upper, BindingType[] pat) {
+      Term[][] a = tups;
+      int lo = search(a, lower, false);
+      int hi = search(a, upper, true);
+      return Arrays.asList(a).subList(lo, Math.max(lo, hi));
+    }
+
+    /**
+     * Returns the index of the first tuple that is greater than or equal to the key (or greater
+     * than it, if strict is set).
+     */
+    private int search(Term[][] a, Term[] key, boolean strict) {
+      int lo = 0;
+      int hi = a.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        int c = cmp.compare(a[mid], key);
+        if (c < 0 || (strict && c == 0)) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    @Override
+    public boolean contains(Term[] tup) {
+      return Arrays.binarySearch(tups, tup, cmp) >= 0;
+    }
+  }
+
   private static class TermArrayComparator implements Comparator<Term[]> {
 
     private final int[] pat;
@@ -633,8 +1310,8 @@ public class SortedIndexedFactDb implements IndexedFactDb {
     public int compare(Term[] o1, Term[] o2) {
       for (int i = 0; i < pat.length; i++) {
         int j = pat[i];
-        int x = o1[j].getId();
-        int y = o2[j].getId();
+        long x = o1[j].getId();
+        long y = o2[j].getId();
         if (x < y) {
           return -1;
         } else if (x > y) {
@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.db;
+
+import edu.harvard.seas.pl.formulog.ast.Term;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class assigns dense integer codes to the (ground, hash-consed) terms that are stored in
+ * packed fact sets, and maps codes back to terms. Codes are handed out in order starting from zero,
+ * so the reverse mapping can be stored in a chunked array instead of a map. A term is given a code
+ * the first time it is stored in a packed fact set that uses the dictionary, and keeps it until the
+ * dictionary is cleared. Each database has its own dictionary, so that the terms of a database that
+ * is cleared every round (like a delta database) do not stay reachable.
+ */
+public final class TermDictionary {
+
+  private static final int CHUNK_BITS = 12;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private final Map<Term, Integer> codes = new ConcurrentHashMap<>();
+  private volatile Term[][] chunks = new Term[16][];
+  private int nextCode;
+
+  /**
+   * Returns the code for the given term, assigning it a fresh one if it does not already have one.
+   */
+  public int encode(Term t) {
+    Integer code = codes.get(t);
+    if (code == null) {
+      code = codes.computeIfAbsent(t, this::register);
+    }
+    return code;
+  }
+
+  /** Returns the code for the given term, or -1 if it has not been assigned one. */
+  public int lookup(Term t) {
+    Integer code = codes.get(t);
+    return code == null ? -1 : code;
+  }
+
+  /** Returns the term with the given code. */
+  public Term decode(int code) {
+    return chunks[code >>> CHUNK_BITS][code & CHUNK_MASK];
+  }
+
+  public int size() {
+    return codes.size();
+  }
+
+  /**
+   * Forgets every code. This must only be called once every set that uses the dictionary has been
+   * cleared, and not concurrently with any other operation on the dictionary.
+   */
+  public synchronized void clear() {
+    codes.clear();
+    chunks = new Term[16][];
+    nextCode = 0;
+  }
+
+  private synchronized int register(Term t) {
+    int code = nextCode;
+    if (code == Integer.MAX_VALUE) {
+      throw new IllegalStateException("Term dictionary is full");
+    }
+    nextCode++;
+    int chunk = code >>> CHUNK_BITS;
+    Term[][] cs = chunks;
+    if (chunk == cs.length) {
+      cs = Arrays.copyOf(cs, cs.length * 2);
+    }
+    if (cs[chunk] == null) {
+      cs[chunk] = new Term[CHUNK_SIZE];
+    }
+    cs[chunk][code & CHUNK_MASK] = t;
+    // Writing the volatile field publishes the new entry to threads that later read the code.
+    chunks = cs;
+    return code;
+  }
+}
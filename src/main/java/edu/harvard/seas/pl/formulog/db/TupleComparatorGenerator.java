@@ -32,12 +32,12 @@ import org.apache.bcel.generic.ASTORE;
 import org.apache.bcel.generic.ArrayType;
 import org.apache.bcel.generic.BranchInstruction;
 import org.apache.bcel.generic.ClassGen;
-import org.apache.bcel.generic.ILOAD;
-import org.apache.bcel.generic.ISTORE;
 import org.apache.bcel.generic.InstructionConst;
 import org.apache.bcel.generic.InstructionFactory;
 import org.apache.bcel.generic.InstructionHandle;
 import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LLOAD;
+import org.apache.bcel.generic.LSTORE;
 import org.apache.bcel.generic.MethodGen;
 import org.apache.bcel.generic.ObjectType;
 import org.apache.bcel.generic.PUSH;
@@ -162,20 +162,20 @@ public class TupleComparatorGenerator extends ClassLoader {
         f.createInvoke(
             "edu.harvard.seas.pl.formulog.ast.Term",
             "getId",
-            Type.INT,
+            Type.LONG,
             new Type[] {},
             Const.INVOKEINTERFACE));
-    il.append(new ISTORE(argn + 2));
+    il.append(new LSTORE(argn == 1 ? 3 : 5));
     return il;
   }
 
   private Pair<InstructionList, BranchInstruction> genICmp(InstructionFactory f, boolean firstCmp) {
     InstructionList il = new InstructionList();
-    il.append(new ILOAD(3));
-    il.append(new ILOAD(4));
+    il.append(new LLOAD(3));
+    il.append(new LLOAD(5));
+    il.append(InstructionConst.LCMP);
     BranchInstruction br =
-        InstructionFactory.createBranchInstruction(
-            firstCmp ? Const.IF_ICMPGE : Const.IF_ICMPLE, null);
+        InstructionFactory.createBranchInstruction(firstCmp ? Const.IFGE : Const.IFLE, null);
     il.append(br);
     il.append(new PUSH(f.getConstantPool(), firstCmp ? -1 : 1));
     il.append(InstructionConst.IRETURN);
@@ -22,6 +22,7 @@ package edu.harvard.seas.pl.formulog.eval;
 import edu.harvard.seas.pl.formulog.Configuration;
 import edu.harvard.seas.pl.formulog.ast.BindingType;
 import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Terms;
 import edu.harvard.seas.pl.formulog.ast.Var;
 import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
 import edu.harvard.seas.pl.formulog.unification.OverwriteSubstitution;
@@ -35,6 +36,8 @@ import edu.harvard.seas.pl.formulog.validating.ast.Check;
 import edu.harvard.seas.pl.formulog.validating.ast.Destructor;
 import edu.harvard.seas.pl.formulog.validating.ast.SimpleLiteral;
 import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -55,14 +58,22 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
   protected final Map<RelationSymbol, Set<IndexedRule>> laterRoundRules = new HashMap<>();
   protected final Map<IndexedRule, boolean[]> splitPositions = new HashMap<>();
   protected final Map<IndexedRule, Integer> checkPosition = new HashMap<>();
+  protected final Map<IndexedRule, CompiledRuleBody> compiledBodies = new HashMap<>();
   protected final CountingFJP exec;
 
-  public AbstractStratumEvaluator(Iterable<IndexedRule> rules, CountingFJP exec) {
-    processRules(rules);
+  private static final RuleBodyGenerator gen = new RuleBodyGenerator();
+
+  /**
+   * Creates an evaluator for the given rules; if {@code genRuleBodies} is set, the rule bodies are
+   * compiled to bytecode instead of being interpreted.
+   */
+  public AbstractStratumEvaluator(
+      Iterable<IndexedRule> rules, CountingFJP exec, boolean genRuleBodies) {
+    processRules(rules, genRuleBodies);
     this.exec = exec;
   }
 
-  private void processRules(Iterable<IndexedRule> rules) {
+  private void processRules(Iterable<IndexedRule> rules, boolean genRuleBodies) {
     SmtCallFinder scf = new SmtCallFinder();
     for (IndexedRule rule : rules) {
       RelationSymbol delta = EvalUtil.findDelta(rule);
@@ -73,7 +84,24 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
       }
       boolean[] positions = findSplitPositions(rule, scf);
       splitPositions.put(rule, positions);
-      checkPosition.put(rule, findCheckPosition(rule));
+      int checkPos = findCheckPosition(rule);
+      checkPosition.put(rule, checkPos);
+      if (genRuleBodies) {
+        compiledBodies.put(rule, compile(rule, checkPos));
+      }
+    }
+  }
+
+  private static CompiledRuleBody compile(IndexedRule rule, int checkPos) {
+    try {
+      return gen.generate(rule, checkPos);
+    } catch (InstantiationException
+        | IllegalAccessException
+        | IllegalArgumentException
+        | InvocationTargetException
+        | NoSuchMethodException
+        | SecurityException e) {
+      throw new AssertionError(e);
     }
   }
 
@@ -111,21 +139,97 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
   protected abstract boolean checkFact(
       RelationSymbol sym, Term[] args, Substitution s, Term[] scratch) throws EvaluationException;
 
-  protected abstract Iterable<Iterable<Term[]>> lookup(
-      IndexedRule r, int pos, OverwriteSubstitution s, boolean split) throws EvaluationException;
+  /**
+   * Looks up the tuples matching the predicate at the given position of the rule. The bound
+   * arguments of the predicate are normalized into the given buffer, which backs the result: the
+   * buffer must not be reused while the result is still being iterated over.
+   */
+  protected abstract Iterable<Term[]> lookup(
+      IndexedRule r, int pos, OverwriteSubstitution s, ProbeBuffer buf) throws EvaluationException;
 
   protected static final boolean recordRuleDiagnostics = Configuration.recordRuleDiagnostics;
+  protected static final int taskSize = Configuration.taskSize;
+  protected static final int smtTaskSize = Configuration.smtTaskSize;
+
+  /**
+   * The lower and upper bounds of an index lookup. Positions that the predicate does not bind are
+   * filled in with the minimum and maximum terms once, so that the buffer can be reused across
+   * lookups for the same predicate without any further allocation.
+   */
+  protected static final class ProbeBuffer {
+
+    final Term[] lower;
+    final Term[] upper;
+
+    ProbeBuffer(SimplePredicate pred) {
+      int arity = pred.getArgs().length;
+      lower = new Term[arity];
+      upper = new Term[arity];
+      Arrays.fill(lower, Terms.minTerm);
+      Arrays.fill(upper, Terms.maxTerm);
+    }
+
+    void fill(SimplePredicate pred, Substitution s) throws EvaluationException {
+      Term[] args = pred.getArgs();
+      BindingType[] pat = pred.getBindingPattern();
+      for (int i = 0; i < args.length; ++i) {
+        if (pat[i].isBound()) {
+          Term t = args[i].normalize(s);
+          lower[i] = t;
+          upper[i] = t;
+        }
+      }
+    }
+  }
+
+  /** A reusable iterator over a bounded chunk of lookup results. */
+  private static final class Chunk implements Iterator<Term[]> {
+
+    final Term[][] tups;
+    int size;
+    int next;
+
+    Chunk(int capacity) {
+      tups = new Term[capacity][];
+    }
+
+    void fill(Iterator<Term[]> it) {
+      int n = 0;
+      while (n < tups.length && it.hasNext()) {
+        tups[n++] = it.next();
+      }
+      size = n;
+      next = 0;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < size;
+    }
+
+    @Override
+    public Term[] next() {
+      Term[] tup = tups[next];
+      tups[next++] = null;
+      return tup;
+    }
+  }
 
   @SuppressWarnings("serial")
-  protected class RuleSuffixEvaluator extends AbstractFJPTask {
+  protected class RuleSuffixEvaluator extends AbstractFJPTask implements CompiledRuleBody.Context {
 
     final IndexedRule rule;
     final SimplePredicate head;
     final SimpleLiteral[] body;
     final int startPos;
     final OverwriteSubstitution s;
-    final Iterator<Iterable<Term[]>> it;
+    final Iterator<Term[]> it;
     final Term[] scratch;
+    // Per-task scratch space, reused across all the tuples this task processes.
+    final Iterator<Term[]>[] stack;
+    final ProbeBuffer[] probes;
+    final Chunk[] chunks;
+    final CompiledRuleBody compiled;
 
     protected RuleSuffixEvaluator(
         IndexedRule rule,
@@ -133,7 +237,7 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
         SimpleLiteral[] body,
         int pos,
         OverwriteSubstitution s,
-        Iterator<Iterable<Term[]>> it,
+        Iterator<Term[]> it,
         Term[] scratch) {
       super(exec);
       this.rule = rule;
@@ -143,17 +247,17 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
       this.s = s;
       this.it = it;
       this.scratch = scratch;
+      this.stack = newStack(body.length);
+      this.probes = new ProbeBuffer[body.length];
+      this.chunks = new Chunk[body.length];
+      this.compiled = compiledBodies.get(rule);
       if (Configuration.recordDetailedWork) {
         Configuration.workItems.increment();
       }
     }
 
     protected RuleSuffixEvaluator(
-        IndexedRule rule,
-        int pos,
-        OverwriteSubstitution s,
-        Iterator<Iterable<Term[]>> it,
-        Term[] scratch) {
+        IndexedRule rule, int pos, OverwriteSubstitution s, Iterator<Term[]> it, Term[] scratch) {
       super(exec);
       this.rule = rule;
       this.head = rule.getHead();
@@ -166,27 +270,61 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
       this.s = s;
       this.it = it;
       this.scratch = scratch;
+      this.stack = newStack(bd.length);
+      this.probes = new ProbeBuffer[bd.length];
+      this.chunks = new Chunk[bd.length];
+      this.compiled = compiledBodies.get(rule);
       if (Configuration.recordDetailedWork) {
         Configuration.workItems.increment();
       }
     }
 
+    @SuppressWarnings("unchecked")
+    private Iterator<Term[]>[] newStack(int len) {
+      return new Iterator[len];
+    }
+
+    private Chunk chunk(int pos) {
+      Chunk c = chunks[pos];
+      if (c == null) {
+        c = new Chunk(splitPositions.get(rule)[pos] ? smtTaskSize : taskSize);
+        chunks[pos] = c;
+      }
+      return c;
+    }
+
+    private ProbeBuffer probe(int pos) {
+      ProbeBuffer buf = probes[pos];
+      if (buf == null) {
+        buf = new ProbeBuffer((SimplePredicate) body[pos]);
+        probes[pos] = buf;
+      }
+      return buf;
+    }
+
     @Override
     public void doTask() throws EvaluationException {
       long start = 0;
       if (recordRuleDiagnostics) {
         start = System.currentTimeMillis();
       }
-      Iterable<Term[]> tups = it.next();
+      Chunk tups = chunk(startPos);
+      tups.fill(it);
       if (it.hasNext()) {
         exec.recursivelyAddTask(
             new RuleSuffixEvaluator(rule, head, body, startPos, s.copy(), it, scratch.clone()));
       }
       try {
-        for (Term[] tup : tups) {
-          evaluate(tup);
+        if (compiled != null) {
+          while (tups.hasNext()) {
+            compiled.evaluate(startPos, tups.next(), this, s);
+          }
+        } else {
+          while (tups.hasNext()) {
+            evaluate(tups.next());
+          }
         }
-      } catch (UncheckedEvaluationException e) {
+      } catch (EvaluationException | UncheckedEvaluationException e) {
         throw new EvaluationException(
             "Exception raised while evaluating the rule: " + rule + "\n\n" + e.getMessage());
       }
@@ -200,8 +338,7 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
       SimplePredicate p = (SimplePredicate) body[startPos];
       updateBinding(p, ans);
       int pos = startPos + 1;
-      @SuppressWarnings("unchecked")
-      Iterator<Term[]>[] stack = new Iterator[rule.getBodySize()];
+      // Every slot of the stack is null again by the time this method returns.
       boolean movingRight = true;
       var checkPos = checkPosition.get(rule);
       while (pos > startPos) {
@@ -245,23 +382,17 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
                 }
                 break;
               case PREDICATE:
-                Iterator<Iterable<Term[]>> tups =
-                    lookup(rule, pos, s, Configuration.parallelizeInnerLoops).iterator();
                 if (((SimplePredicate) l).isNegated()) {
-                  if (!tups.hasNext()) {
+                  if (!exists(pos)) {
                     pos++;
                   } else {
                     pos--;
                     movingRight = false;
                   }
                 } else {
+                  Iterator<Term[]> tups = scan(pos);
                   if (tups.hasNext()) {
-                    stack[pos] = tups.next().iterator();
-                    if (tups.hasNext()) {
-                      exec.recursivelyAddTask(
-                          new RuleSuffixEvaluator(
-                              rule, head, body, pos, s.copy(), tups, scratch.clone()));
-                    }
+                    stack[pos] = tups;
                     // No need to do anything else: we'll hit the right case on the next iteration.
                   } else {
                     pos--;
@@ -289,6 +420,43 @@ public abstract class AbstractStratumEvaluator implements StratumEvaluator {
       }
     }
 
+    @Override
+    public Iterator<Term[]> scan(int pos) throws EvaluationException {
+      Iterator<Term[]> tups = lookup(rule, pos, s, probe(pos)).iterator();
+      if (!Configuration.parallelizeInnerLoops || !tups.hasNext()) {
+        return tups;
+      }
+      Chunk c = chunk(pos);
+      c.fill(tups);
+      if (tups.hasNext()) {
+        exec.recursivelyAddTask(
+            new RuleSuffixEvaluator(rule, head, body, pos, s.copy(), tups, scratch.clone()));
+        // The remaining tuples are still bounded by the probe buffer.
+        probes[pos] = null;
+      }
+      return c;
+    }
+
+    @Override
+    public boolean exists(int pos) throws EvaluationException {
+      return lookup(rule, pos, s, probe(pos)).iterator().hasNext();
+    }
+
+    @Override
+    public boolean checkHead() throws EvaluationException {
+      return checkFact(head.getSymbol(), head.getArgs(), s, scratch);
+    }
+
+    @Override
+    public void reportHead() {
+      reportFact(head.getSymbol(), scratch);
+    }
+
+    @Override
+    public void bind(int pos, Term[] ans) {
+      updateBinding((SimplePredicate) body[pos], ans);
+    }
+
     private void updateBinding(SimplePredicate p, Term[] ans) {
       if (Configuration.recordWork) {
         Configuration.work.increment();
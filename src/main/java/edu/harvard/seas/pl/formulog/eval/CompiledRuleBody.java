@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.eval;
+
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Var;
+import edu.harvard.seas.pl.formulog.unification.OverwriteSubstitution;
+import edu.harvard.seas.pl.formulog.validating.ast.Assignment;
+import edu.harvard.seas.pl.formulog.validating.ast.Check;
+import edu.harvard.seas.pl.formulog.validating.ast.Destructor;
+import edu.harvard.seas.pl.formulog.validating.ast.SimpleLiteral;
+import java.util.Iterator;
+
+/**
+ * The superclass of the classes generated by {@link RuleBodyGenerator}. A generated class evaluates
+ * the suffix of a particular rule starting from a given positive predicate, in place of the generic
+ * literal-by-literal interpretation in {@link AbstractStratumEvaluator}. The literals of the rule
+ * are stored here so that generated code can refer to them by body position.
+ */
+public abstract class CompiledRuleBody {
+
+  public final Var[] defs;
+  public final Term[] lhs;
+  public final Term[] rhs;
+  public final Destructor[] dtors;
+
+  protected CompiledRuleBody(IndexedRule rule) {
+    int len = rule.getBodySize();
+    defs = new Var[len];
+    lhs = new Term[len];
+    rhs = new Term[len];
+    dtors = new Destructor[len];
+    for (int i = 0; i < len; ++i) {
+      SimpleLiteral l = rule.getBody(i);
+      switch (l.getTag()) {
+        case ASSIGNMENT:
+          defs[i] = ((Assignment) l).getDef();
+          rhs[i] = ((Assignment) l).getVal();
+          break;
+        case CHECK:
+          lhs[i] = ((Check) l).getLhs();
+          rhs[i] = ((Check) l).getRhs();
+          break;
+        case DESTRUCTOR:
+          dtors[i] = (Destructor) l;
+          break;
+        case PREDICATE:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Evaluates the rule from just after the positive predicate at the given position, which has been
+   * matched to the given tuple.
+   */
+  public abstract void evaluate(int startPos, Term[] ans, Context ctx, OverwriteSubstitution s)
+      throws EvaluationException;
+
+  /** The operations that generated code delegates back to the evaluator. */
+  public interface Context {
+
+    void bind(int pos, Term[] ans);
+
+    Iterator<Term[]> scan(int pos) throws EvaluationException;
+
+    boolean exists(int pos) throws EvaluationException;
+
+    boolean checkHead() throws EvaluationException;
+
+    void reportHead();
+  }
+}
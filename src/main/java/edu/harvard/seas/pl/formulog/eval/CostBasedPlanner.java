@@ -0,0 +1,337 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.eval;
+
+import edu.harvard.seas.pl.formulog.ast.BasicRule;
+import edu.harvard.seas.pl.formulog.ast.ComplexLiteral;
+import edu.harvard.seas.pl.formulog.ast.ComplexLiterals.ComplexLiteralVisitor;
+import edu.harvard.seas.pl.formulog.ast.FunctionCallFactory;
+import edu.harvard.seas.pl.formulog.ast.Rule;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.UnificationPredicate;
+import edu.harvard.seas.pl.formulog.ast.UserPredicate;
+import edu.harvard.seas.pl.formulog.ast.Var;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
+import edu.harvard.seas.pl.formulog.eval.SemiNaiveRule.DeltaSymbol;
+import edu.harvard.seas.pl.formulog.symbols.BuiltInTypeSymbol;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.symbols.TypeSymbol;
+import edu.harvard.seas.pl.formulog.types.Types.AlgebraicDataType;
+import edu.harvard.seas.pl.formulog.types.Types.Type;
+import edu.harvard.seas.pl.formulog.unification.Unification;
+import edu.harvard.seas.pl.formulog.util.Pair;
+import edu.harvard.seas.pl.formulog.util.Util;
+import edu.harvard.seas.pl.formulog.validating.InvalidProgramException;
+import edu.harvard.seas.pl.formulog.validating.Stratum;
+import edu.harvard.seas.pl.formulog.validating.ValidRule;
+import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
+import edu.harvard.seas.pl.formulog.validating.ast.SimpleRule;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class reorders the bodies of rules based on the current contents of the database. It is
+ * meant to be run at the start of each stratum, when the relations computed in earlier strata are
+ * complete and their sizes are known.
+ *
+ * <p>Literals are ordered greedily, starting from the order chosen when the rule was first
+ * validated: among the literals that can be evaluated next, filters (unifications and negated
+ * atoms) come first, then the delta atom, and then the atom that is estimated to produce the fewest
+ * tuples per binding of the variables bound so far. The estimate assumes that columns are
+ * independent and uses the number of distinct values in each column, which is computed from a
+ * sample of the relation.
+ */
+class CostBasedPlanner {
+
+  private static final int SAMPLE_SIZE = 1 << 14;
+
+  private final SortedIndexedFactDb db;
+  private final SortedIndexedFactDb deltaDb;
+  private final SortedIndexedFactDb nextDeltaDb;
+  private final FunctionCallFactory funcFactory;
+  private final Map<IndexedRule, Rule<UserPredicate, ComplexLiteral>> sources;
+  private final Map<RelationSymbol, Pair<Integer, double[]>> stats = new HashMap<>();
+
+  public CostBasedPlanner(
+      SortedIndexedFactDb db,
+      SortedIndexedFactDb deltaDb,
+      SortedIndexedFactDb nextDeltaDb,
+      FunctionCallFactory funcFactory,
+      Map<IndexedRule, Rule<UserPredicate, ComplexLiteral>> sources) {
+    this.db = db;
+    this.deltaDb = deltaDb;
+    this.nextDeltaDb = nextDeltaDb;
+    this.funcFactory = funcFactory;
+    this.sources = sources;
+  }
+
+  public List<IndexedRule> plan(List<IndexedRule> rules, Stratum stratum) {
+    List<IndexedRule> l = new ArrayList<>();
+    for (IndexedRule r : rules) {
+      Rule<UserPredicate, ComplexLiteral> src = sources.get(r);
+      IndexedRule planned = r;
+      if (src != null) {
+        try {
+          planned = plan(src, stratum.getPredicateSyms());
+        } catch (InvalidProgramException e) {
+          // Every ordering we pick is also considered by the static planner, so this should not
+          // happen; if it does, just keep the original plan.
+          if (SemiNaiveEvaluation.debugPlans) {
+            System.err.println(
+                "[PLAN] keeping original plan for rule:\n" + src + "\n" + e.getMessage());
+          }
+        }
+      }
+      if (SemiNaiveEvaluation.debugPlans) {
+        System.err.println("[PLAN] stratum " + stratum.getRank() + ":\n" + planned);
+      }
+      l.add(planned);
+    }
+    return l;
+  }
+
+  IndexedRule plan(Rule<UserPredicate, ComplexLiteral> src, Set<RelationSymbol> stratumSyms)
+      throws InvalidProgramException {
+    List<ComplexLiteral> body = Util.iterableToList(src);
+    double maxSize = 1;
+    for (ComplexLiteral l : body) {
+      if (l instanceof UserPredicate) {
+        maxSize = Math.max(maxSize, db.countDistinct(baseSymbol((UserPredicate) l)));
+      }
+    }
+    Map<Var, Integer> varCounts = src.countVariables();
+    Set<Var> boundVars = new HashSet<>();
+    boolean[] placed = new boolean[body.size()];
+    List<ComplexLiteral> newBody = new ArrayList<>();
+    while (newBody.size() < body.size()) {
+      int best = -1;
+      double bestScore = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < body.size(); ++i) {
+        ComplexLiteral l = body.get(i);
+        if (placed[i] || !mayPlace(body, placed, i)) {
+          continue;
+        }
+        if (Unification.canBindVars(l, boundVars, varCounts)) {
+          double score = score(l, boundVars, stratumSyms, maxSize);
+          if (best < 0 || score > bestScore) {
+            best = i;
+            bestScore = score;
+          }
+        }
+      }
+      if (best < 0) {
+        throw new InvalidProgramException("Literals do not admit an evaluable reordering");
+      }
+      ComplexLiteral l = body.get(best);
+      placed[best] = true;
+      newBody.add(l);
+      boundVars.addAll(l.varSet());
+    }
+    // The new body is already in an evaluable order, which the static planner preserves.
+    ValidRule vr =
+        ValidRule.make(BasicRule.make(src.getHead(), newBody), SemiNaiveEvaluation::score0);
+    SimpleRule sr = SimpleRule.make(vr, funcFactory);
+    return IndexedRule.make(sr, this::makeIndex);
+  }
+
+  /**
+   * Atoms with SMT-typed columns cannot be moved ahead of the atoms that came before them: a
+   * variable might then be bound to a formula where the rest of the rule expects a plain value (see
+   * issue #74).
+   */
+  private static boolean mayPlace(List<ComplexLiteral> body, boolean[] placed, int i) {
+    ComplexLiteral l = body.get(i);
+    if (!(l instanceof UserPredicate)) {
+      return true;
+    }
+    UserPredicate pred = (UserPredicate) l;
+    if (pred.isNegated() || !hasSmtColumn(pred.getSymbol())) {
+      return true;
+    }
+    for (int j = 0; j < i; ++j) {
+      if (!placed[j] && body.get(j) instanceof UserPredicate) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean hasSmtColumn(RelationSymbol sym) {
+    if (!sym.hasCompileTimeType()) {
+      return true;
+    }
+    for (Type t : sym.getCompileTimeType().getArgTypes()) {
+      if (mentionsSmt(t)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean mentionsSmt(Type t) {
+    if (!(t instanceof AlgebraicDataType)) {
+      return false;
+    }
+    AlgebraicDataType adt = (AlgebraicDataType) t;
+    TypeSymbol sym = adt.getSymbol();
+    if (sym.equals(BuiltInTypeSymbol.SMT_TYPE) || sym.equals(BuiltInTypeSymbol.SYM_TYPE)) {
+      return true;
+    }
+    for (Type arg : adt.getTypeArgs()) {
+      if (mentionsSmt(arg)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int makeIndex(SimplePredicate p) {
+    RelationSymbol sym = p.getSymbol();
+    if (sym instanceof DeltaSymbol) {
+      sym = ((DeltaSymbol) sym).getBaseSymbol();
+      int idx = deltaDb.makeIndex(sym, p.getBindingPattern());
+      int idx2 = nextDeltaDb.makeIndex(sym, p.getBindingPattern());
+      assert idx == idx2;
+      return idx;
+    }
+    return db.makeIndex(sym, p.getBindingPattern());
+  }
+
+  private static RelationSymbol baseSymbol(UserPredicate p) {
+    RelationSymbol sym = p.getSymbol();
+    if (sym instanceof DeltaSymbol) {
+      return ((DeltaSymbol) sym).getBaseSymbol();
+    }
+    return sym;
+  }
+
+  /** Returns how attractive it is to evaluate the literal next (higher is better). */
+  private double score(
+      ComplexLiteral l, Set<Var> boundVars, Set<RelationSymbol> stratumSyms, double maxSize) {
+    return l.accept(
+        new ComplexLiteralVisitor<Void, Double>() {
+
+          @Override
+          public Double visit(UnificationPredicate unificationPredicate, Void input) {
+            return Double.POSITIVE_INFINITY;
+          }
+
+          @Override
+          public Double visit(UserPredicate pred, Void input) {
+            if (pred.isNegated()) {
+              return Double.POSITIVE_INFINITY;
+            }
+            if (pred.getSymbol() instanceof DeltaSymbol) {
+              return Double.MAX_VALUE;
+            }
+            return -estimateFanout(pred, boundVars, stratumSyms, maxSize);
+          }
+        },
+        null);
+  }
+
+  /**
+   * Estimates how many tuples a lookup for the predicate will return, given the set of variables
+   * that are already bound.
+   */
+  private double estimateFanout(
+      UserPredicate pred, Set<Var> boundVars, Set<RelationSymbol> stratumSyms, double maxSize) {
+    RelationSymbol sym = pred.getSymbol();
+    Term[] args = pred.getArgs();
+    boolean[] bound = new boolean[args.length];
+    int numBound = 0;
+    for (int i = 0; i < args.length; ++i) {
+      if (boundVars.containsAll(args[i].varSet())) {
+        bound[i] = true;
+        numBound++;
+      }
+    }
+    double size = db.countDistinct(sym);
+    double fanout;
+    if (stratumSyms.contains(sym)) {
+      // The relation is still being computed, so all we can guess is that it will be about as big
+      // as the relations it is computed from.
+      size = Math.max(size, maxSize);
+      fanout = Math.pow(size, 1 - (double) numBound / Math.max(1, args.length));
+    } else if (size == 0) {
+      fanout = 0;
+    } else {
+      double[] distinct = columnStats(sym);
+      fanout = size;
+      for (int i = 0; i < args.length; ++i) {
+        if (bound[i]) {
+          fanout /= distinct[i];
+        }
+      }
+    }
+    if (numBound == args.length) {
+      fanout = Math.min(fanout, 1);
+    }
+    return fanout;
+  }
+
+  /**
+   * Returns an estimate of the number of distinct values in each column of the relation. The
+   * estimate is computed from an evenly spaced sample of the relation's tuples, using the GEE
+   * estimator of Charikar et al.
+   */
+  private double[] columnStats(RelationSymbol sym) {
+    int n = db.countDistinct(sym);
+    Pair<Integer, double[]> cached = stats.get(sym);
+    if (cached != null && cached.fst() == n) {
+      return cached.snd();
+    }
+    int arity = sym.getArity();
+    List<Map<Term, Integer>> freqs = new ArrayList<>();
+    for (int i = 0; i < arity; ++i) {
+      freqs.add(new HashMap<>());
+    }
+    int stride = Math.max(1, n / SAMPLE_SIZE);
+    int sampled = 0;
+    int pos = 0;
+    for (Term[] tup : db.getAll(sym)) {
+      if (pos++ % stride != 0) {
+        continue;
+      }
+      sampled++;
+      for (int i = 0; i < arity; ++i) {
+        freqs.get(i).merge(tup[i], 1, Integer::sum);
+      }
+    }
+    double scale = Math.sqrt((double) n / Math.max(1, sampled));
+    double[] distinct = new double[arity];
+    for (int i = 0; i < arity; ++i) {
+      int singletons = 0;
+      for (int f : freqs.get(i).values()) {
+        if (f == 1) {
+          singletons++;
+        }
+      }
+      int others = freqs.get(i).size() - singletons;
+      distinct[i] = Math.max(1, Math.min(n, scale * singletons + others));
+    }
+    stats.put(sym, new Pair<>(n, distinct));
+    return distinct;
+  }
+}
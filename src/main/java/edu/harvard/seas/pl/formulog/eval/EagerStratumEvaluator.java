@@ -38,7 +38,6 @@ import edu.harvard.seas.pl.formulog.validating.ast.Check;
 import edu.harvard.seas.pl.formulog.validating.ast.Destructor;
 import edu.harvard.seas.pl.formulog.validating.ast.SimpleLiteral;
 import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -55,15 +54,13 @@ public final class EagerStratumEvaluator extends AbstractStratumEvaluator {
   private final SortedIndexedFactDb db;
   private final Set<RelationSymbol> trackedRelations;
 
-  static final int taskSize = Configuration.taskSize;
-  static final int smtTaskSize = Configuration.smtTaskSize;
-
   public EagerStratumEvaluator(
       SortedIndexedFactDb db,
       Iterable<IndexedRule> rules,
       CountingFJP exec,
-      Set<RelationSymbol> trackedRelations) {
-    super(rules, exec);
+      Set<RelationSymbol> trackedRelations,
+      boolean genRuleBodies) {
+    super(rules, exec, genRuleBodies);
     this.db = db;
     this.trackedRelations = trackedRelations;
   }
@@ -110,32 +107,14 @@ public final class EagerStratumEvaluator extends AbstractStratumEvaluator {
   }
 
   @Override
-  protected Iterable<Iterable<Term[]>> lookup(
-      IndexedRule r, int pos, OverwriteSubstitution s, boolean split) throws EvaluationException {
+  protected Iterable<Term[]> lookup(
+      IndexedRule r, int pos, OverwriteSubstitution s, ProbeBuffer buf) throws EvaluationException {
     SimplePredicate predicate = (SimplePredicate) r.getBody(pos);
     int idx = r.getDbIndex(pos);
-    Term[] args = predicate.getArgs();
-    Term[] key = new Term[args.length];
-    BindingType[] pat = predicate.getBindingPattern();
-    for (int i = 0; i < args.length; ++i) {
-      if (pat[i].isBound()) {
-        key[i] = args[i].normalize(s);
-      } else {
-        key[i] = args[i];
-      }
-    }
+    buf.fill(predicate, s);
     RelationSymbol sym = predicate.getSymbol();
     assert !(sym instanceof DeltaSymbol);
-    Iterable<Term[]> ans = db.get(sym, key, idx);
-    if (split) {
-      boolean smtSplit = splitPositions.get(r)[pos];
-      int targetSize = smtSplit ? smtTaskSize : taskSize;
-      return Util.splitIterable(ans, targetSize);
-    } else if (ans.iterator().hasNext()) {
-      return Collections.singletonList(ans);
-    } else {
-      return Collections.emptyList();
-    }
+    return db.get(sym, buf.lower, buf.upper, idx);
   }
 
   @SuppressWarnings("serial")
@@ -200,7 +179,7 @@ public final class EagerStratumEvaluator extends AbstractStratumEvaluator {
     private void evaluate() throws EvaluationException {
       int len = rule.getBodySize();
       int pos = 0;
-      OverwriteSubstitution s = new OverwriteSubstitution();
+      OverwriteSubstitution s = new OverwriteSubstitution(rule.getNumSlots());
       SimplePredicate head = rule.getHead();
       var scratch = new Term[head.getSymbol().getArity()];
       var checkPos = checkPosition.get(rule);
@@ -233,7 +212,7 @@ public final class EagerStratumEvaluator extends AbstractStratumEvaluator {
             case PREDICATE:
               SimplePredicate p = (SimplePredicate) l;
               if (p.isNegated()) {
-                if (lookup(rule, pos, s, false).iterator().hasNext()) {
+                if (lookup(rule, pos, s, new ProbeBuffer(p)).iterator().hasNext()) {
                   return;
                 }
               } else {
@@ -252,7 +231,8 @@ public final class EagerStratumEvaluator extends AbstractStratumEvaluator {
               "Exception raised while evaluating the literal: " + l + "\n\n" + e.getMessage());
         }
       }
-      Iterator<Iterable<Term[]>> tups = lookup(rule, pos, s, true).iterator();
+      SimplePredicate p = (SimplePredicate) rule.getBody(pos);
+      Iterator<Term[]> tups = lookup(rule, pos, s, new ProbeBuffer(p)).iterator();
       if (tups.hasNext()) {
         new RuleSuffixEvaluator(rule, pos, s, tups, scratch.clone()).doTask();
       }
@@ -20,6 +20,7 @@
 package edu.harvard.seas.pl.formulog.eval;
 
 import edu.harvard.seas.pl.formulog.ast.Rule;
+import edu.harvard.seas.pl.formulog.ast.Var;
 import edu.harvard.seas.pl.formulog.util.Util;
 import edu.harvard.seas.pl.formulog.validating.ast.Assignment;
 import edu.harvard.seas.pl.formulog.validating.ast.Check;
@@ -30,6 +31,7 @@ import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
 
 public class IndexedRule implements Rule<SimplePredicate, SimpleLiteral> {
@@ -37,12 +39,14 @@ public class IndexedRule implements Rule<SimplePredicate, SimpleLiteral> {
   private final SimplePredicate head;
   private final List<SimpleLiteral> body;
   private final List<Integer> idxs;
+  private final int numSlots;
 
   private IndexedRule(
       Rule<SimplePredicate, SimpleLiteral> rule, Function<SimplePredicate, Integer> makeIndex) {
     head = rule.getHead();
     body = Util.iterableToList(rule);
     idxs = createIndexes(makeIndex);
+    numSlots = countSlots();
   }
 
   public static IndexedRule make(
@@ -101,6 +105,23 @@ public class IndexedRule implements Rule<SimplePredicate, SimpleLiteral> {
     return idxs.get(idx);
   }
 
+  /** Returns the number of substitution slots needed to evaluate this rule. */
+  public int getNumSlots() {
+    return numSlots;
+  }
+
+  private int countSlots() {
+    Set<Var> vars = head.varSet();
+    for (SimpleLiteral l : body) {
+      l.varSet(vars);
+    }
+    int max = -1;
+    for (Var x : vars) {
+      max = Math.max(max, x.getSlot());
+    }
+    return max + 1;
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
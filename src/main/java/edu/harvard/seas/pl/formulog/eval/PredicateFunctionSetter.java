@@ -53,7 +53,10 @@ import edu.harvard.seas.pl.formulog.symbols.PredicateFunctionSymbol;
 import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
 import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
 import edu.harvard.seas.pl.formulog.types.FunctorType;
+import edu.harvard.seas.pl.formulog.util.Util;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class PredicateFunctionSetter {
@@ -62,6 +65,7 @@ public class PredicateFunctionSetter {
   private final IndexedFactDbBuilder<?> dbb;
   private IndexedFactDb db;
   Set<FunctionSymbol> visitedFunctions = new HashSet<>();
+  private final Map<RelationSymbol, Set<Integer>> indices = new HashMap<>();
 
   public PredicateFunctionSetter(FunctionDefManager funcs, IndexedFactDbBuilder<?> dbb) {
     this.defs = funcs;
@@ -74,6 +78,11 @@ public class PredicateFunctionSetter {
     }
   }
 
+  /** Returns the indices that predicate functions probe, which can be used at any time. */
+  public Map<RelationSymbol, Set<Integer>> getIndices() {
+    return indices;
+  }
+
   public void setDb(IndexedFactDb db) {
     assert this.db == null;
     this.db = db;
@@ -177,6 +186,7 @@ public class PredicateFunctionSetter {
     assert bindings != null;
     BindingType[] bindingsForIndex = turnIgnoredToFree(bindings);
     int idx = dbb.makeIndex(sym.getPredicateSymbol(), bindingsForIndex);
+    Util.lookupOrCreate(indices, sym.getPredicateSymbol(), HashSet::new).add(idx);
     FunctorType type = sym.getCompileTimeType();
     Term[] paddedArgs = padArgs(sym);
     FunctionDef innerDef;
@@ -20,7 +20,6 @@
 package edu.harvard.seas.pl.formulog.eval;
 
 import edu.harvard.seas.pl.formulog.Configuration;
-import edu.harvard.seas.pl.formulog.ast.BindingType;
 import edu.harvard.seas.pl.formulog.ast.Term;
 import edu.harvard.seas.pl.formulog.ast.UserPredicate;
 import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
@@ -30,15 +29,15 @@ import edu.harvard.seas.pl.formulog.unification.OverwriteSubstitution;
 import edu.harvard.seas.pl.formulog.unification.Substitution;
 import edu.harvard.seas.pl.formulog.util.AbstractFJPTask;
 import edu.harvard.seas.pl.formulog.util.CountingFJP;
-import edu.harvard.seas.pl.formulog.util.Util;
 import edu.harvard.seas.pl.formulog.validating.ast.Assignment;
 import edu.harvard.seas.pl.formulog.validating.ast.Check;
 import edu.harvard.seas.pl.formulog.validating.ast.Destructor;
 import edu.harvard.seas.pl.formulog.validating.ast.SimpleLiteral;
 import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
 import java.time.LocalDateTime;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import org.apache.commons.lang3.time.StopWatch;
 
@@ -60,9 +59,6 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
   private final Set<RelationSymbol> trackedRelations;
   private volatile boolean changed;
 
-  private static final int taskSize = Configuration.taskSize;
-  private static final int smtTaskSize = Configuration.smtTaskSize;
-
   public RoundBasedStratumEvaluator(
       int stratumNum,
       SortedIndexedFactDb db,
@@ -70,8 +66,9 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
       SortedIndexedFactDb nextDeltaDb,
       Iterable<IndexedRule> rules,
       CountingFJP exec,
-      Set<RelationSymbol> trackedRelations) {
-    super(rules, exec);
+      Set<RelationSymbol> trackedRelations,
+      boolean genRuleBodies) {
+    super(rules, exec, genRuleBodies);
     this.stratumNum = stratumNum;
     this.db = db;
     this.deltaDb = deltaDb;
@@ -146,8 +143,7 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
       if (nextDeltaDb.isEmpty(sym)) {
         continue;
       }
-      Iterable<Iterable<Term[]>> answers = Util.splitIterable(nextDeltaDb.getAll(sym), taskSize);
-      exec.externallyAddTask(new UpdateDbTask(sym, answers.iterator()));
+      exec.externallyAddTask(new UpdateDbTask(sym));
     }
     exec.blockUntilFinished();
     SortedIndexedFactDb tmp = deltaDb;
@@ -157,58 +153,76 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
     recordDbUpdateEnd(watch);
   }
 
+  // The facts in nextDeltaDb are new with respect to db, so rather than inserting them into all
+  // the indices of db one at a time, each index sorts its own copy of the delta (if it is ordered
+  // by term) and merges it in slices; all the indices of a relation are processed concurrently.
+  private static final int mergeSliceSize = 4096;
+
   @SuppressWarnings("serial")
   private class UpdateDbTask extends AbstractFJPTask {
 
     final RelationSymbol sym;
-    final Iterator<Iterable<Term[]>> it;
 
-    protected UpdateDbTask(RelationSymbol sym, Iterator<Iterable<Term[]>> it) {
+    protected UpdateDbTask(RelationSymbol sym) {
       super(exec);
       this.sym = sym;
-      this.it = it;
     }
 
     @Override
     public void doTask() throws EvaluationException {
-      Iterable<Term[]> tups = it.next();
-      if (it.hasNext()) {
-        exec.recursivelyAddTask(new UpdateDbTask(sym, it));
+      List<Term[]> delta = new ArrayList<>(nextDeltaDb.countDistinct(sym));
+      for (Term[] tup : nextDeltaDb.getAll(sym)) {
+        delta.add(tup);
+      }
+      Term[][] tups = delta.toArray(new Term[0][]);
+      for (SortedIndexedFactDb.IndexMerge m : db.prepareMerge(sym, tups)) {
+        exec.recursivelyAddTask(new MergeTask(m, 0, tups.length, true));
       }
-      db.addAll(sym, tups);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private class MergeTask extends AbstractFJPTask {
+
+    final SortedIndexedFactDb.IndexMerge m;
+    final int from;
+    final int to;
+    final boolean sort;
+
+    protected MergeTask(SortedIndexedFactDb.IndexMerge m, int from, int to, boolean sort) {
+      super(exec);
+      this.m = m;
+      this.from = from;
+      this.to = to;
+      this.sort = sort;
+    }
+
+    @Override
+    public void doTask() throws EvaluationException {
+      if (sort) {
+        m.sort();
+      }
+      int end = to;
+      while (end - from > mergeSliceSize) {
+        int mid = (from + end) >>> 1;
+        exec.recursivelyAddTask(new MergeTask(m, mid, end, false));
+        end = mid;
+      }
+      m.merge(from, end);
     }
   }
 
   @Override
-  protected final Iterable<Iterable<Term[]>> lookup(
-      IndexedRule r, int pos, OverwriteSubstitution s, boolean split) throws EvaluationException {
+  protected final Iterable<Term[]> lookup(
+      IndexedRule r, int pos, OverwriteSubstitution s, ProbeBuffer buf) throws EvaluationException {
     SimplePredicate predicate = (SimplePredicate) r.getBody(pos);
     int idx = r.getDbIndex(pos);
-    Term[] args = predicate.getArgs();
-    Term[] key = new Term[args.length];
-    BindingType[] pat = predicate.getBindingPattern();
-    for (int i = 0; i < args.length; ++i) {
-      if (pat[i].isBound()) {
-        key[i] = args[i].normalize(s);
-      } else {
-        key[i] = args[i];
-      }
-    }
+    buf.fill(predicate, s);
     RelationSymbol sym = predicate.getSymbol();
-    Iterable<Term[]> ans;
     if (sym instanceof DeltaSymbol) {
-      ans = deltaDb.get(((DeltaSymbol) sym).getBaseSymbol(), key, idx);
-    } else {
-      ans = db.get(sym, key, idx);
-    }
-    if (split) {
-      boolean smtSplit = splitPositions.get(r)[pos];
-      int targetSize = smtSplit ? smtTaskSize : taskSize;
-      return Util.splitIterable(ans, targetSize);
-    } else if (ans.iterator().hasNext()) {
-      return Collections.singletonList(ans);
+      return deltaDb.get(((DeltaSymbol) sym).getBaseSymbol(), buf.lower, buf.upper, idx);
     } else {
-      return Collections.emptyList();
+      return db.get(sym, buf.lower, buf.upper, idx);
     }
   }
 
@@ -246,7 +260,7 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
     private void evaluate() throws EvaluationException {
       int len = rule.getBodySize();
       int pos = 0;
-      OverwriteSubstitution s = new OverwriteSubstitution();
+      OverwriteSubstitution s = new OverwriteSubstitution(rule.getNumSlots());
       SimplePredicate head = rule.getHead();
       Term[] scratch = new Term[head.getSymbol().getArity()];
       int checkPos = checkPosition.get(rule);
@@ -279,7 +293,7 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
             case PREDICATE:
               SimplePredicate p = (SimplePredicate) l;
               if (p.isNegated()) {
-                if (lookup(rule, pos, s, false).iterator().hasNext()) {
+                if (lookup(rule, pos, s, new ProbeBuffer(p)).iterator().hasNext()) {
                   return;
                 }
               } else {
@@ -293,7 +307,8 @@ public final class RoundBasedStratumEvaluator extends AbstractStratumEvaluator {
               "Exception raised while evaluating the literal: " + l + "\n\n" + e.getMessage());
         }
       }
-      Iterator<Iterable<Term[]>> tups = lookup(rule, pos, s, true).iterator();
+      SimplePredicate p = (SimplePredicate) rule.getBody(pos);
+      Iterator<Term[]> tups = lookup(rule, pos, s, new ProbeBuffer(p)).iterator();
       if (tups.hasNext()) {
         new RuleSuffixEvaluator(rule, pos, s, tups, scratch.clone()).doTask();
       }
@@ -0,0 +1,293 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.eval;
+
+import edu.harvard.seas.pl.formulog.validating.ast.Check;
+import edu.harvard.seas.pl.formulog.validating.ast.SimpleLiteral;
+import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bcel.Const;
+import org.apache.bcel.generic.ALOAD;
+import org.apache.bcel.generic.ASTORE;
+import org.apache.bcel.generic.ArrayType;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.GOTO;
+import org.apache.bcel.generic.InstructionConst;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LOOKUPSWITCH;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.ObjectType;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.Type;
+
+/**
+ * Generates a subclass of {@link CompiledRuleBody} for a rule. The generated code unrolls the body
+ * of the rule: for each positive predicate that evaluation can start from, it contains a copy of
+ * the rest of the body in which the nested loops over lookups are straight-line code with backwards
+ * jumps, assignments and checks are inlined, and the iterators for each lookup are kept in local
+ * variables.
+ */
+public class RuleBodyGenerator extends ClassLoader {
+
+  private static final String baseName = CompiledRuleBody.class.getName();
+  private static final String ctxName = CompiledRuleBody.Context.class.getName();
+  private static final String termName = "edu.harvard.seas.pl.formulog.ast.Term";
+  private static final String substName = "edu.harvard.seas.pl.formulog.unification.Substitution";
+  private static final String overwriteSubstName =
+      "edu.harvard.seas.pl.formulog.unification.OverwriteSubstitution";
+
+  private static final Type termType = new ObjectType(termName);
+  private static final Type termArrayType = new ArrayType(termType, 1);
+  private static final Type varType = new ObjectType("edu.harvard.seas.pl.formulog.ast.Var");
+  private static final Type substType = new ObjectType(substName);
+  private static final Type iteratorType = new ObjectType("java.util.Iterator");
+  private static final Type ctxType = new ObjectType(ctxName);
+  private static final String dtorName = "edu.harvard.seas.pl.formulog.validating.ast.Destructor";
+  private static final Type dtorType = new ObjectType(dtorName);
+
+  // Local variables of the generated evaluate method.
+  private static final int startPosArg = 1;
+  private static final int ansArg = 2;
+  private static final int ctxArg = 3;
+  private static final int substArg = 4;
+  private static final int firstIterator = 5;
+
+  private final AtomicInteger cnt = new AtomicInteger();
+
+  public RuleBodyGenerator() {
+    super(RuleBodyGenerator.class.getClassLoader());
+  }
+
+  public CompiledRuleBody generate(IndexedRule rule, int checkPos)
+      throws InstantiationException,
+          IllegalAccessException,
+          IllegalArgumentException,
+          InvocationTargetException,
+          NoSuchMethodException,
+          SecurityException {
+    String className = "edu.harvard.seas.pl.formulog.eval.CompiledRule" + cnt.getAndIncrement();
+    ClassGen classGen =
+        new ClassGen(className, baseName, "", Const.ACC_PUBLIC | Const.ACC_SUPER, new String[] {});
+    addConstructor(classGen);
+    addEvaluateMethod(classGen, rule, checkPos);
+    byte[] data = classGen.getJavaClass().getBytes();
+    Class<?> c = defineClass(className, data, 0, data.length);
+    return (CompiledRuleBody) c.getDeclaredConstructor(IndexedRule.class).newInstance(rule);
+  }
+
+  private void addConstructor(ClassGen cg) {
+    InstructionFactory f = new InstructionFactory(cg);
+    InstructionList il = new InstructionList();
+    il.append(InstructionConst.ALOAD_0);
+    il.append(InstructionConst.ALOAD_1);
+    il.append(
+        f.createInvoke(
+            baseName,
+            "<init>",
+            Type.VOID,
+            new Type[] {new ObjectType(IndexedRule.class.getName())},
+            Const.INVOKESPECIAL));
+    il.append(InstructionConst.RETURN);
+    MethodGen mg =
+        new MethodGen(
+            Const.ACC_PUBLIC,
+            Type.VOID,
+            new Type[] {new ObjectType(IndexedRule.class.getName())},
+            new String[] {"rule"},
+            "<init>",
+            cg.getClassName(),
+            il,
+            cg.getConstantPool());
+    mg.setMaxStack();
+    mg.setMaxLocals();
+    cg.addMethod(mg.getMethod());
+  }
+
+  private void addEvaluateMethod(ClassGen cg, IndexedRule rule, int checkPos) {
+    InstructionFactory f = new InstructionFactory(cg);
+    InstructionList il = new InstructionList();
+    InstructionHandle ret = il.append(InstructionConst.RETURN);
+    List<Integer> starts = new ArrayList<>();
+    List<InstructionHandle> entries = new ArrayList<>();
+    for (int i = 0; i < rule.getBodySize(); ++i) {
+      SimpleLiteral l = rule.getBody(i);
+      if (l instanceof SimplePredicate && !((SimplePredicate) l).isNegated()) {
+        starts.add(i);
+        entries.add(genSuffix(f, il, rule, checkPos, i, ret));
+      }
+    }
+    int[] match = new int[starts.size()];
+    for (int i = 0; i < match.length; ++i) {
+      match[i] = starts.get(i);
+    }
+    InstructionList dispatch = new InstructionList();
+    dispatch.append(InstructionFactory.createLoad(Type.INT, startPosArg));
+    dispatch.append(new LOOKUPSWITCH(match, entries.toArray(new InstructionHandle[0]), ret));
+    il.insert(dispatch);
+    MethodGen mg =
+        new MethodGen(
+            Const.ACC_PUBLIC,
+            Type.VOID,
+            new Type[] {Type.INT, termArrayType, ctxType, new ObjectType(overwriteSubstName)},
+            new String[] {"startPos", "ans", "ctx", "s"},
+            "evaluate",
+            cg.getClassName(),
+            il,
+            cg.getConstantPool());
+    mg.addException(EvaluationException.class.getName());
+    mg.setMaxStack();
+    mg.setMaxLocals();
+    cg.addMethod(mg.getMethod());
+  }
+
+  /**
+   * Appends the code evaluating the rule from just after the positive predicate at position start,
+   * and returns its entry point. Whenever a literal fails, the code jumps back to the most recent
+   * lookup that might still have results, or to the given return instruction if there is none.
+   */
+  private InstructionHandle genSuffix(
+      InstructionFactory f,
+      InstructionList il,
+      IndexedRule rule,
+      int checkPos,
+      int start,
+      InstructionHandle ret) {
+    InstructionHandle entry = il.append(new ALOAD(ctxArg));
+    il.append(new PUSH(f.getConstantPool(), start));
+    il.append(new ALOAD(ansArg));
+    il.append(genCtxCall(f, "bind", Type.VOID, Type.INT, termArrayType));
+    InstructionHandle back = ret;
+    int len = rule.getBodySize();
+    for (int pos = start + 1; pos <= len; ++pos) {
+      if (pos == checkPos) {
+        il.append(new ALOAD(ctxArg));
+        il.append(genCtxCall(f, "checkHead", Type.BOOLEAN));
+        il.append(InstructionFactory.createBranchInstruction(Const.IFEQ, back));
+      }
+      if (pos == len) {
+        il.append(new ALOAD(ctxArg));
+        il.append(genCtxCall(f, "reportHead", Type.VOID));
+        il.append(new GOTO(back));
+        break;
+      }
+      SimpleLiteral l = rule.getBody(pos);
+      switch (l.getTag()) {
+        case ASSIGNMENT:
+          il.append(new ALOAD(substArg));
+          il.append(genConstant(f, "defs", varType, pos));
+          il.append(genNormalize(f, "rhs", pos));
+          il.append(
+              f.createInvoke(
+                  overwriteSubstName,
+                  "put",
+                  Type.VOID,
+                  new Type[] {varType, termType},
+                  Const.INVOKEVIRTUAL));
+          break;
+        case CHECK:
+          il.append(genNormalize(f, "lhs", pos));
+          il.append(genNormalize(f, "rhs", pos));
+          il.append(
+              f.createInvoke(
+                  "java.lang.Object",
+                  "equals",
+                  Type.BOOLEAN,
+                  new Type[] {Type.OBJECT},
+                  Const.INVOKEVIRTUAL));
+          il.append(
+              InstructionFactory.createBranchInstruction(
+                  ((Check) l).isNegated() ? Const.IFNE : Const.IFEQ, back));
+          break;
+        case DESTRUCTOR:
+          il.append(genConstant(f, "dtors", dtorType, pos));
+          il.append(new ALOAD(substArg));
+          il.append(
+              f.createInvoke(
+                  dtorName, "destruct", Type.BOOLEAN, new Type[] {substType}, Const.INVOKEVIRTUAL));
+          il.append(InstructionFactory.createBranchInstruction(Const.IFEQ, back));
+          break;
+        case PREDICATE:
+          il.append(new ALOAD(ctxArg));
+          il.append(new PUSH(f.getConstantPool(), pos));
+          if (((SimplePredicate) l).isNegated()) {
+            il.append(genCtxCall(f, "exists", Type.BOOLEAN, Type.INT));
+            il.append(InstructionFactory.createBranchInstruction(Const.IFNE, back));
+          } else {
+            int local = firstIterator + pos;
+            il.append(genCtxCall(f, "scan", iteratorType, Type.INT));
+            il.append(new ASTORE(local));
+            InstructionHandle next = il.append(new ALOAD(local));
+            il.append(
+                f.createInvoke(
+                    "java.util.Iterator",
+                    "hasNext",
+                    Type.BOOLEAN,
+                    new Type[] {},
+                    Const.INVOKEINTERFACE));
+            il.append(InstructionFactory.createBranchInstruction(Const.IFEQ, back));
+            il.append(new ALOAD(ctxArg));
+            il.append(new PUSH(f.getConstantPool(), pos));
+            il.append(new ALOAD(local));
+            il.append(
+                f.createInvoke(
+                    "java.util.Iterator",
+                    "next",
+                    Type.OBJECT,
+                    new Type[] {},
+                    Const.INVOKEINTERFACE));
+            il.append(f.createCast(Type.OBJECT, termArrayType));
+            il.append(genCtxCall(f, "bind", Type.VOID, Type.INT, termArrayType));
+            back = next;
+          }
+          break;
+      }
+    }
+    return entry;
+  }
+
+  private InstructionList genConstant(InstructionFactory f, String field, Type elt, int pos) {
+    InstructionList il = new InstructionList();
+    il.append(InstructionConst.ALOAD_0);
+    il.append(f.createGetField(baseName, field, new ArrayType(elt, 1)));
+    il.append(new PUSH(f.getConstantPool(), pos));
+    il.append(InstructionConst.AALOAD);
+    return il;
+  }
+
+  private InstructionList genNormalize(InstructionFactory f, String field, int pos) {
+    InstructionList il = genConstant(f, field, termType, pos);
+    il.append(new ALOAD(substArg));
+    il.append(
+        f.createInvoke(
+            termName, "normalize", termType, new Type[] {substType}, Const.INVOKEINTERFACE));
+    return il;
+  }
+
+  private InstructionList genCtxCall(InstructionFactory f, String name, Type ret, Type... args) {
+    InstructionList il = new InstructionList();
+    il.append(f.createInvoke(ctxName, name, ret, args, Const.INVOKEINTERFACE));
+    return il;
+  }
+}
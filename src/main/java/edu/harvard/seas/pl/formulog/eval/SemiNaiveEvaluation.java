@@ -25,6 +25,7 @@ import edu.harvard.seas.pl.formulog.ast.BasicProgram;
 import edu.harvard.seas.pl.formulog.ast.BasicRule;
 import edu.harvard.seas.pl.formulog.ast.ComplexLiteral;
 import edu.harvard.seas.pl.formulog.ast.ComplexLiterals.ComplexLiteralVisitor;
+import edu.harvard.seas.pl.formulog.ast.FunctionCallFactory;
 import edu.harvard.seas.pl.formulog.ast.Rule;
 import edu.harvard.seas.pl.formulog.ast.Term;
 import edu.harvard.seas.pl.formulog.ast.Terms;
@@ -41,8 +42,12 @@ import edu.harvard.seas.pl.formulog.smt.BestMatchSmtManager;
 import edu.harvard.seas.pl.formulog.smt.CallAndResetSolver;
 import edu.harvard.seas.pl.formulog.smt.CheckSatAssumingSolver;
 import edu.harvard.seas.pl.formulog.smt.DoubleCheckingSolver;
+import edu.harvard.seas.pl.formulog.smt.ElasticSmtManager;
 import edu.harvard.seas.pl.formulog.smt.NotThreadSafeQueueSmtManager;
 import edu.harvard.seas.pl.formulog.smt.PerThreadSmtManager;
+import edu.harvard.seas.pl.formulog.smt.PersistentSmtCache;
+import edu.harvard.seas.pl.formulog.smt.PortfolioSmtManager;
+import edu.harvard.seas.pl.formulog.smt.PrefixTrieSmtManager;
 import edu.harvard.seas.pl.formulog.smt.PushPopNaiveSolver;
 import edu.harvard.seas.pl.formulog.smt.PushPopSolver;
 import edu.harvard.seas.pl.formulog.smt.QueueSmtManager;
@@ -65,7 +70,10 @@ import edu.harvard.seas.pl.formulog.validating.InvalidProgramException;
 import edu.harvard.seas.pl.formulog.validating.Stratifier;
 import edu.harvard.seas.pl.formulog.validating.Stratum;
 import edu.harvard.seas.pl.formulog.validating.ValidRule;
+import edu.harvard.seas.pl.formulog.validating.ast.SimpleLiteral;
+import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
 import edu.harvard.seas.pl.formulog.validating.ast.SimpleRule;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -88,13 +96,23 @@ public class SemiNaiveEvaluation implements Evaluation {
   private final WellTypedProgram inputProgram;
   private final Map<RelationSymbol, Set<IndexedRule>> rules;
   private final boolean eagerEval;
+  private final boolean genRuleBodies;
+  private final CostBasedPlanner planner;
+  private final PersistentSmtCache smtCache;
 
   static final boolean sequential = System.getProperty("sequential") != null;
   static final boolean debugRounds = Configuration.debugRounds;
+  static final boolean debugPlans = Configuration.debugPlans;
 
-  @SuppressWarnings("serial")
   public static SemiNaiveEvaluation setup(WellTypedProgram prog, int parallelism, boolean eagerEval)
       throws InvalidProgramException {
+    return setup(prog, parallelism, eagerEval, Configuration.genRuleBodies);
+  }
+
+  @SuppressWarnings("serial")
+  static SemiNaiveEvaluation setup(
+      WellTypedProgram prog, int parallelism, boolean eagerEval, boolean genRuleBodies)
+      throws InvalidProgramException {
     FunctionDefValidation.validate(prog);
     MagicSetTransformer mst = new MagicSetTransformer(prog);
     BasicProgram magicProg =
@@ -109,6 +127,8 @@ public class SemiNaiveEvaluation implements Evaluation {
         new PredicateFunctionSetter(magicProg.getFunctionCallFactory().getDefManager(), dbb);
 
     Map<RelationSymbol, Set<IndexedRule>> rules = new HashMap<>();
+    Map<IndexedRule, Rule<UserPredicate, ComplexLiteral>> sources = new HashMap<>();
+    boolean costBased = Configuration.costBasedPlanning && !eagerEval;
     List<Stratum> strata = new Stratifier(magicProg).stratify();
     for (Stratum stratum : strata) {
       if (stratum.hasRecursiveNegationOrAggregation()) {
@@ -138,6 +158,9 @@ public class SemiNaiveEvaluation implements Evaluation {
                       }
                     });
             rs.add(ir);
+            if (costBased) {
+              sources.put(ir, vr);
+            }
             if (Configuration.printFinalRules) {
               System.err.println("[FINAL RULE]:\n" + ir);
             }
@@ -148,6 +171,9 @@ public class SemiNaiveEvaluation implements Evaluation {
     }
     SortedIndexedFactDb db = dbb.build();
     predFuncs.setDb(db);
+    for (Map.Entry<RelationSymbol, Set<Integer>> e : predFuncs.getIndices().entrySet()) {
+      db.pinIndices(e.getKey(), e.getValue());
+    }
 
     SmtLibSolver smt = getSmtManager();
     try {
@@ -156,13 +182,17 @@ public class SemiNaiveEvaluation implements Evaluation {
       throw new InvalidProgramException("Problem initializing SMT shims: " + e.getMessage());
     }
     FunctionDefManager defManager = magicProg.getFunctionCallFactory().getDefManager();
-    defManager.loadBuiltInFunctions(smt);
+    PersistentSmtCache smtCache = null;
+    if (Configuration.smtCacheFile != null) {
+      smtCache = PersistentSmtCache.open(Paths.get(Configuration.smtCacheFile), magicProg);
+    }
+    defManager.loadBuiltInFunctions(smt, smtCache);
 
     CountingFJP exec;
     if (sequential) {
       exec = new MockCountingFJP();
     } else {
-      exec = new CountingFJPImpl(parallelism);
+      exec = new CountingFJPImpl(parallelism, getSmtSpareWorkers());
     }
 
     for (RelationSymbol sym : magicProg.getFactSymbols()) {
@@ -189,6 +219,9 @@ public class SemiNaiveEvaluation implements Evaluation {
     exec.blockUntilFinished();
     if (exec.hasFailed()) {
       exec.shutdown();
+      if (smtCache != null) {
+        smtCache.close();
+      }
       throw new InvalidProgramException(exec.getFailureCause());
     }
     return new SemiNaiveEvaluation(
@@ -196,11 +229,15 @@ public class SemiNaiveEvaluation implements Evaluation {
         db,
         deltaDbb,
         rules,
+        costBased ? sources : null,
+        magicProg.getFunctionCallFactory(),
         magicProg.getQuery(),
         strata,
         exec,
         getTrackedRelations(magicProg.getSymbolManager()),
-        eagerEval);
+        eagerEval,
+        genRuleBodies,
+        smtCache);
   }
 
   private static Rule<UserPredicate, ComplexLiteral> tweakDeltaAtom(
@@ -270,6 +307,26 @@ public class SemiNaiveEvaluation implements Evaluation {
     return Configuration.smtUseSingleShotSolver ? new SingleShotSolver() : new CallAndResetSolver();
   }
 
+  // While workers are blocked on a shared pool of solvers, spare workers keep evaluating other
+  // rules. There is no point in having more spares than solvers; strategies with per-thread
+  // solvers get none, as each new worker would start its own solvers.
+  private static int getSmtSpareWorkers() {
+    if (!Configuration.smtManagedBlocking) {
+      return 0;
+    }
+    SmtStrategy strategy = Main.smtStrategy;
+    switch (strategy.getTag()) {
+      case QUEUE:
+      case BEST_MATCH:
+      case PORTFOLIO:
+      case ELASTIC:
+      case PREFIX_TRIE:
+        return (int) strategy.getMetadata();
+      default:
+        return 0;
+    }
+  }
+
   private static SmtLibSolver getSmtManager() {
     SmtStrategy strategy = Main.smtStrategy;
     switch (strategy.getTag()) {
@@ -279,6 +336,18 @@ public class SemiNaiveEvaluation implements Evaluation {
           return new QueueSmtManager(
               size, () -> maybeDoubleCheckSolver(new CheckSatAssumingSolver()));
         }
+      case ELASTIC:
+        {
+          int size = (int) strategy.getMetadata();
+          return new ElasticSmtManager(size, () -> new CheckSatAssumingSolver());
+        }
+      case PORTFOLIO:
+        {
+          int size = (int) strategy.getMetadata();
+          return new QueueSmtManager(
+              size,
+              () -> maybeDoubleCheckSolver(new PortfolioSmtManager(Configuration.smtPortfolio)));
+        }
       case NAIVE:
         return maybeDoubleCheckSolver(makeNaiveSolver());
       case PUSH_POP:
@@ -290,6 +359,11 @@ public class SemiNaiveEvaluation implements Evaluation {
           int size = (int) strategy.getMetadata();
           return maybeDoubleCheckSolver(new BestMatchSmtManager(size));
         }
+      case PREFIX_TRIE:
+        {
+          int size = (int) strategy.getMetadata();
+          return maybeDoubleCheckSolver(new PrefixTrieSmtManager(size));
+        }
       case PER_THREAD_QUEUE:
         {
           int size = (int) strategy.getMetadata();
@@ -513,11 +587,15 @@ public class SemiNaiveEvaluation implements Evaluation {
       SortedIndexedFactDb db,
       IndexedFactDbBuilder<SortedIndexedFactDb> deltaDbb,
       Map<RelationSymbol, Set<IndexedRule>> rules,
+      Map<IndexedRule, Rule<UserPredicate, ComplexLiteral>> sources,
+      FunctionCallFactory funcFactory,
       UserPredicate query,
       List<Stratum> strata,
       CountingFJP exec,
       Set<RelationSymbol> trackedRelations,
-      boolean eagerEval) {
+      boolean eagerEval,
+      boolean genRuleBodies,
+      PersistentSmtCache smtCache) {
     this.inputProgram = inputProgram;
     this.db = db;
     this.query = query;
@@ -528,6 +606,13 @@ public class SemiNaiveEvaluation implements Evaluation {
     this.nextDeltaDb = deltaDbb.build();
     this.rules = rules;
     this.eagerEval = eagerEval;
+    this.genRuleBodies = genRuleBodies;
+    this.smtCache = smtCache;
+    if (sources != null) {
+      planner = new CostBasedPlanner(db, deltaDb, nextDeltaDb, funcFactory, sources);
+    } else {
+      planner = null;
+    }
   }
 
   @Override
@@ -588,23 +673,88 @@ public class SemiNaiveEvaluation implements Evaluation {
                 }
               });
     }
-    for (Stratum stratum : strata) {
-      evaluateStratum(stratum);
+    // For each stratum, the indices that the rules of later strata probe.
+    List<Map<RelationSymbol, Set<Integer>>> laterProbes = new ArrayList<>();
+    Map<RelationSymbol, Set<Integer>> acc = new HashMap<>();
+    for (int i = strata.size() - 1; i >= 0; --i) {
+      laterProbes.add(0, acc);
+      acc = new HashMap<>(acc);
+      acc.replaceAll((sym, idxs) -> new HashSet<>(idxs));
+      for (Map.Entry<RelationSymbol, Set<Integer>> e :
+          findProbes(getRules(strata.get(i))).entrySet()) {
+        Util.lookupOrCreate(acc, e.getKey(), HashSet::new).addAll(e.getValue());
+      }
+    }
+    try {
+      for (int i = 0; i < strata.size(); ++i) {
+        evaluateStratum(strata.get(i), laterProbes.get(i));
+      }
+    } finally {
+      // No more SMT queries are made once evaluation is over.
+      if (smtCache != null) {
+        smtCache.close();
+      }
     }
   }
 
-  private void evaluateStratum(Stratum stratum) throws EvaluationException {
+  private List<IndexedRule> getRules(Stratum stratum) {
     List<IndexedRule> l = new ArrayList<>();
     for (RelationSymbol sym : stratum.getPredicateSyms()) {
       l.addAll(rules.get(sym));
     }
+    return l;
+  }
+
+  private static Map<RelationSymbol, Set<Integer>> findProbes(List<IndexedRule> rules) {
+    Map<RelationSymbol, Set<Integer>> m = new HashMap<>();
+    for (IndexedRule r : rules) {
+      for (int i = 0; i < r.getBodySize(); ++i) {
+        SimpleLiteral l = r.getBody(i);
+        if (l instanceof SimplePredicate) {
+          RelationSymbol sym = ((SimplePredicate) l).getSymbol();
+          if (!(sym instanceof DeltaSymbol)) {
+            Util.lookupOrCreate(m, sym, HashSet::new).add(r.getDbIndex(i));
+          }
+        }
+      }
+    }
+    return m;
+  }
+
+  private void evaluateStratum(Stratum stratum, Map<RelationSymbol, Set<Integer>> laterProbes)
+      throws EvaluationException {
+    List<IndexedRule> l = getRules(stratum);
+    if (planner != null) {
+      l = planner.plan(l, stratum);
+    }
+    if (Configuration.lazyIndices) {
+      Map<RelationSymbol, Set<Integer>> probes = findProbes(l);
+      // There is no point in keeping an index up to date while the relations of this stratum grow
+      // if neither this stratum nor a later one probes it.
+      for (RelationSymbol sym : db.getSymbols()) {
+        Set<Integer> live = new HashSet<>(probes.getOrDefault(sym, Collections.emptySet()));
+        live.addAll(laterProbes.getOrDefault(sym, Collections.emptySet()));
+        db.retainIndices(sym, live);
+      }
+      for (Map.Entry<RelationSymbol, Set<Integer>> e : probes.entrySet()) {
+        db.activateIndices(e.getKey(), e.getValue());
+      }
+    }
     if (eagerEval) {
-      new EagerStratumEvaluator(db, l, exec, trackedRelations).evaluate();
+      new EagerStratumEvaluator(db, l, exec, trackedRelations, genRuleBodies).evaluate();
     } else {
       new RoundBasedStratumEvaluator(
-              stratum.getRank(), db, deltaDb, nextDeltaDb, l, exec, trackedRelations)
+              stratum.getRank(), db, deltaDb, nextDeltaDb, l, exec, trackedRelations, genRuleBodies)
           .evaluate();
     }
+    if (Configuration.freezeRelations) {
+      // The relations of a finished stratum are read-only from now on.
+      for (RelationSymbol sym : stratum.getPredicateSyms()) {
+        db.freeze(sym);
+        deltaDb.freeze(sym);
+        nextDeltaDb.freeze(sym);
+      }
+    }
   }
 
   @Override
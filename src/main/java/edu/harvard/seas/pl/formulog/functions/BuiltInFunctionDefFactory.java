@@ -24,18 +24,22 @@ import edu.harvard.seas.pl.formulog.Main;
 import edu.harvard.seas.pl.formulog.ast.*;
 import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
 import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import edu.harvard.seas.pl.formulog.smt.CanonicalQuery;
+import edu.harvard.seas.pl.formulog.smt.PersistentSmtCache;
 import edu.harvard.seas.pl.formulog.smt.SmtLibSolver;
 import edu.harvard.seas.pl.formulog.smt.SmtResult;
 import edu.harvard.seas.pl.formulog.smt.SmtStatus;
+import edu.harvard.seas.pl.formulog.smt.SubsumptionSmtCache;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInFunctionSymbol;
 import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
+import edu.harvard.seas.pl.formulog.util.BoundedCache;
+import edu.harvard.seas.pl.formulog.util.ManagedCall;
 import edu.harvard.seas.pl.formulog.util.Pair;
 import edu.harvard.seas.pl.formulog.util.Triple;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.function.BiFunction;
@@ -43,9 +47,15 @@ import java.util.function.BiFunction;
 public final class BuiltInFunctionDefFactory {
 
   private final SmtLibSolver smt;
+  private final PersistentSmtCache smtCache;
 
   public BuiltInFunctionDefFactory(SmtLibSolver smt) {
+    this(smt, null);
+  }
+
+  public BuiltInFunctionDefFactory(SmtLibSolver smt, PersistentSmtCache smtCache) {
     this.smt = smt;
+    this.smtCache = smtCache;
   }
 
   public FunctionDef get(BuiltInFunctionSymbol sym) {
@@ -1518,8 +1528,23 @@ public final class BuiltInFunctionDefFactory {
         }
       };
 
-  private final Map<Triple<Set<SmtLibTerm>, Boolean, Integer>, Future<SmtResult>> smtMemo =
-      new ConcurrentHashMap<>();
+  private final BoundedCache<
+          Triple<Object, Boolean, Integer>, Future<Pair<CanonicalQuery, SmtResult>>>
+      smtMemo =
+          new BoundedCache<>(
+              Configuration.smtMemoSize,
+              Configuration.smtMemoEviction,
+              (k, v) -> {
+                if (Main.smtStats) {
+                  Configuration.smtMemoEvictions.increment();
+                }
+              });
+
+  private final SubsumptionSmtCache subsumptionCache =
+      Configuration.smtSubsumption
+          ? new SubsumptionSmtCache(
+              Configuration.smtSubsumptionCacheSize, Configuration.smtSubsumptionReuseModels)
+          : null;
 
   private Pair<SmtStatus, Model> querySmt(SmtLibTerm assertions, boolean getModel)
       throws EvaluationException {
@@ -1606,11 +1631,30 @@ public final class BuiltInFunctionDefFactory {
         Model m = getModel ? Model.make(Collections.emptyMap()) : null;
         return new Pair<>(SmtStatus.SATISFIABLE, m);
       }
+      if (subsumptionCache != null) {
+        SmtResult res = subsumptionCache.lookup(set, getModel);
+        if (Main.smtStats) {
+          (res == null ? Configuration.smtSubsumptionMisses : Configuration.smtSubsumptionHits)
+              .increment();
+        }
+        if (res != null) {
+          return new Pair<>(res.status, res.model);
+        }
+      }
+      // The normal form is only used to look up cached results; the solver is given the original
+      // conjuncts, so that it can reuse the terms (and indicator variables) of earlier queries.
+      CanonicalQuery canon = null;
+      if (Configuration.smtCanonicalize && (Configuration.smtMemoize || smtCache != null)) {
+        canon = CanonicalQuery.make(set);
+      }
       SmtResult res;
       if (Configuration.smtMemoize) {
-        res = querySmtWithMemo(set, getModel, timeout);
+        res = querySmtWithMemo(set, canon, getModel, timeout);
       } else {
-        res = smt.check(set, getModel, timeout);
+        res = check(set, canon, getModel, timeout);
+      }
+      if (subsumptionCache != null) {
+        subsumptionCache.record(set, res.status, res.model, res.unsatCore);
       }
       return new Pair<>(res.status, res.model);
     } finally {
@@ -1618,23 +1662,47 @@ public final class BuiltInFunctionDefFactory {
     }
   }
 
-  private SmtResult querySmtWithMemo(Set<SmtLibTerm> assertions, boolean getModel, int timeout)
+  /**
+   * Looks up the query in the memo, which is keyed by the normal form of the query (if there is
+   * one) and holds each result together with the query it was computed for.
+   */
+  private SmtResult querySmtWithMemo(
+      Set<SmtLibTerm> assertions, CanonicalQuery canon, boolean getModel, int timeout)
       throws EvaluationException {
-    Triple<Set<SmtLibTerm>, Boolean, Integer> key = new Triple<>(assertions, getModel, timeout);
-    CompletableFuture<SmtResult> completableFut = new CompletableFuture<>();
-    Future<SmtResult> fut = smtMemo.putIfAbsent(key, completableFut);
+    Object canonical = canon == null ? assertions : canon.getKey();
+    Triple<Object, Boolean, Integer> key = new Triple<>(canonical, getModel, timeout);
+    CompletableFuture<Pair<CanonicalQuery, SmtResult>> completableFut = new CompletableFuture<>();
+    Future<Pair<CanonicalQuery, SmtResult>> fut = smtMemo.putIfAbsent(key, completableFut);
+    if (Main.smtStats) {
+      (fut == null ? Configuration.smtMemoMisses : Configuration.smtMemoHits).increment();
+    }
     if (fut == null) {
-      completableFut.complete(smt.check(assertions, getModel, timeout));
-      fut = completableFut;
+      try {
+        SmtResult res = check(assertions, canon, getModel, timeout);
+        completableFut.complete(new Pair<>(canon, res));
+        return res;
+      } catch (EvaluationException | RuntimeException e) {
+        // Do not leave other threads waiting on this query forever, and let later ones retry it.
+        smtMemo.remove(key, completableFut);
+        completableFut.completeExceptionally(e);
+        throw e;
+      }
     }
+    // The result might have been computed for a query that uses other variable names.
+    Pair<CanonicalQuery, SmtResult> p = waitForResult(fut);
+    return canon == null ? p.snd() : canon.translate(p.snd(), p.fst());
+  }
+
+  private <T> T waitForResult(Future<T> fut) throws EvaluationException {
     long waitStart = 0;
     if (Configuration.timeSmt || Main.smtStats) {
       waitStart = System.nanoTime();
     }
     try {
-      return fut.get();
-    } catch (InterruptedException | ExecutionException e) {
-      throw new EvaluationException(e);
+      if (Configuration.smtManagedBlocking && !fut.isDone()) {
+        return ManagedCall.run(() -> getResult(fut));
+      }
+      return getResult(fut);
     } finally {
       if (Configuration.timeSmt || Main.smtStats) {
         Configuration.recordSmtWaitTime(System.nanoTime() - waitStart);
@@ -1642,6 +1710,52 @@ public final class BuiltInFunctionDefFactory {
     }
   }
 
+  /**
+   * Solves the query, first consulting the on-disk cache (if there is one) under the normal form of
+   * the query, if there is one.
+   */
+  private SmtResult check(
+      Set<SmtLibTerm> assertions, CanonicalQuery canon, boolean getModel, int timeout)
+      throws EvaluationException {
+    if (smtCache == null) {
+      return checkWithSolver(assertions, getModel, timeout);
+    }
+    SmtStatus status =
+        canon == null
+            ? smtCache.lookup(assertions, getModel, timeout)
+            : smtCache.lookup(canon, getModel, timeout);
+    if (Main.smtStats) {
+      (status == null ? Configuration.smtDiskCacheMisses : Configuration.smtDiskCacheHits)
+          .increment();
+    }
+    if (status != null) {
+      return new SmtResult(status, null, -1, -1);
+    }
+    SmtResult res = checkWithSolver(assertions, getModel, timeout);
+    if (canon == null) {
+      smtCache.record(assertions, getModel, timeout, res.status);
+    } else {
+      smtCache.record(canon, getModel, timeout, res.status);
+    }
+    return res;
+  }
+
+  private static <T> T getResult(Future<T> fut) throws EvaluationException {
+    try {
+      return fut.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new EvaluationException(e);
+    }
+  }
+
+  private SmtResult checkWithSolver(Set<SmtLibTerm> assertions, boolean getModel, int timeout)
+      throws EvaluationException {
+    if (Configuration.smtManagedBlocking) {
+      return ManagedCall.run(() -> smt.check(assertions, getModel, timeout));
+    }
+    return smt.check(assertions, getModel, timeout);
+  }
+
   private final FunctionDef isSat =
       new FunctionDef() {
 
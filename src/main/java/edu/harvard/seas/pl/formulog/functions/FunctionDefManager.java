@@ -19,6 +19,7 @@
  */
 package edu.harvard.seas.pl.formulog.functions;
 
+import edu.harvard.seas.pl.formulog.smt.PersistentSmtCache;
 import edu.harvard.seas.pl.formulog.smt.SmtLibSolver;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInFunctionSymbol;
 import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
@@ -31,6 +32,17 @@ import java.util.Set;
 public class FunctionDefManager {
 
   private final Map<FunctionSymbol, FunctionDef> memo = new HashMap<>();
+  private final Map<FunctionSymbol, MemoPolicy> memoPolicies = new HashMap<>();
+
+  /** Whether calls to a function should have their results cached. */
+  public enum MemoPolicy {
+    /** Cache results according to the global memoization threshold. */
+    DEFAULT,
+    /** Always cache results, whatever the threshold. */
+    ALWAYS,
+    /** Never cache results. */
+    NEVER
+  }
 
   public FunctionDefManager() {
     for (BuiltInFunctionSymbol sym : BuiltInFunctionSymbol.values()) {
@@ -60,6 +72,14 @@ public class FunctionDefManager {
     return def;
   }
 
+  public void setMemoPolicy(FunctionSymbol sym, MemoPolicy policy) {
+    memoPolicies.put(sym, policy);
+  }
+
+  public MemoPolicy getMemoPolicy(FunctionSymbol sym) {
+    return memoPolicies.getOrDefault(sym, MemoPolicy.DEFAULT);
+  }
+
   public boolean hasDefinition(FunctionSymbol sym) {
     return memo.containsKey(sym);
   }
@@ -69,7 +89,11 @@ public class FunctionDefManager {
   }
 
   public void loadBuiltInFunctions(SmtLibSolver smt) {
-    BuiltInFunctionDefFactory builtIns = new BuiltInFunctionDefFactory(smt);
+    loadBuiltInFunctions(smt, null);
+  }
+
+  public void loadBuiltInFunctions(SmtLibSolver smt, PersistentSmtCache smtCache) {
+    BuiltInFunctionDefFactory builtIns = new BuiltInFunctionDefFactory(smt, smtCache);
     for (BuiltInFunctionSymbol sym : BuiltInFunctionSymbol.values()) {
       memo.put(sym, builtIns.get(sym));
     }
@@ -70,6 +70,11 @@ class AdornedSymbol implements WrappedRelationSymbol<RelationSymbol> {
     return baseSymbol.getCompileTimeType();
   }
 
+  @Override
+  public boolean hasCompileTimeType() {
+    return baseSymbol.hasCompileTimeType();
+  }
+
   @Override
   public int getArity() {
     return baseSymbol.getArity();
@@ -150,6 +150,11 @@ public class MagicSetTransformer {
             return oldSym.getCompileTimeType();
           }
 
+          @Override
+          public boolean hasCompileTimeType() {
+            return oldSym.hasCompileTimeType();
+          }
+
           @Override
           public int getArity() {
             return oldSym.getArity();
@@ -600,6 +605,11 @@ public class MagicSetTransformer {
       throw new UnsupportedOperationException();
     }
 
+    @Override
+    public boolean hasCompileTimeType() {
+      return false;
+    }
+
     @Override
     public boolean isIdbSymbol() {
       return true;
@@ -649,6 +659,11 @@ public class MagicSetTransformer {
       throw new UnsupportedOperationException();
     }
 
+    @Override
+    public boolean hasCompileTimeType() {
+      return false;
+    }
+
     @Override
     public boolean isBottomUp() {
       throw new UnsupportedOperationException();
@@ -758,6 +773,11 @@ public class MagicSetTransformer {
       throw new UnsupportedOperationException();
     }
 
+    @Override
+    public boolean hasCompileTimeType() {
+      return false;
+    }
+
     @Override
     public boolean isBottomUp() {
       throw new UnsupportedOperationException();
@@ -32,6 +32,7 @@ import edu.harvard.seas.pl.formulog.ast.UnificationPredicate;
 import edu.harvard.seas.pl.formulog.ast.UserPredicate;
 import edu.harvard.seas.pl.formulog.ast.Var;
 import edu.harvard.seas.pl.formulog.functions.FunctionDef;
+import edu.harvard.seas.pl.formulog.functions.FunctionDefManager.MemoPolicy;
 import edu.harvard.seas.pl.formulog.functions.RecordAccessor;
 import edu.harvard.seas.pl.formulog.functions.UserFunctionDef;
 import edu.harvard.seas.pl.formulog.parsing.generated.FormulogBaseVisitor;
@@ -121,6 +122,21 @@ class TopLevelParser {
             "Cannot declare a function with 'const' if it takes arguments (use 'fun' instead): "
                 + ps.get(0).fst());
       }
+      MemoPolicy policy = MemoPolicy.DEFAULT;
+      for (AnnotationContext actx : ctx.annotation()) {
+        switch (actx.getText()) {
+          case "@memo":
+            policy = MemoPolicy.ALWAYS;
+            break;
+          case "@nomemo":
+            policy = MemoPolicy.NEVER;
+            break;
+          default:
+            throw new UncheckedParseException(
+                ctx.start.getLine(),
+                "Unrecognized annotation for function " + ps.get(0).fst() + ": " + actx.getText());
+        }
+      }
       Iterator<TermContext> bodies = ctx.topLevelFunDefs().term().iterator();
       for (Pair<FunctionSymbol, List<Var>> p : ps) {
         FunctionSymbol sym = p.fst();
@@ -131,6 +147,7 @@ class TopLevelParser {
         try {
           Term newBody = varChecker.checkFunction(args, body);
           pc.functionDefManager().register(UserFunctionDef.get(sym, args, newBody));
+          pc.functionDefManager().setMemoPolicy(sym, policy);
         } catch (VariableCheckPassException e) {
           throw new UncheckedParseException(
               ctx.start.getLine(),
@@ -48,38 +48,45 @@ public abstract class AbstractSmtLibSolver implements SmtLibSolver {
   protected static final Pair<Collection<SolverVariable>, Collection<SolverVariable>>
       emptyCollectionPair = new Pair<>(Collections.emptyList(), Collections.emptyList());
 
-  private static final ExternalSolverProcessFactory solverFactory;
-
-  static {
-    switch (Configuration.smtSolver) {
+  private static ExternalSolverProcessFactory getSolverFactory(String solver) {
+    switch (solver) {
       case "z3":
-        solverFactory = Z3ProcessFactory.get();
-        break;
+        return Z3ProcessFactory.get();
       case "cvc4":
-        solverFactory = Cvc4ProcessFactory.get();
-        break;
+        return Cvc4ProcessFactory.get();
       case "yices":
-        solverFactory = YicesProcessFactory.get();
-        break;
+        return YicesProcessFactory.get();
       case "boolector":
-        solverFactory = BoolectorProcessFactory.get();
-        break;
+        return BoolectorProcessFactory.get();
       default:
-        throw new AssertionError("impossible");
+        throw new IllegalArgumentException("Unrecognized solver: " + solver);
     }
   }
 
+  private final String solverName;
+  private final ExternalSolverProcessFactory solverFactory;
+
   private static final AtomicInteger solverCnt = new AtomicInteger();
 
   protected final int solverId = solverCnt.getAndIncrement();
 
   protected SmtLibShim shim;
-  protected Process solver;
+  protected volatile Process solver;
   private final PrintWriter log;
 
   protected static int taskCnt;
 
   public AbstractSmtLibSolver() {
+    this(Configuration.smtSolver);
+  }
+
+  public AbstractSmtLibSolver(String solver) {
+    this(solver, getSolverFactory(solver));
+  }
+
+  protected AbstractSmtLibSolver(String solver, ExternalSolverProcessFactory solverFactory) {
+    solverName = solver;
+    this.solverFactory = solverFactory;
     PrintWriter w = null;
     if (Configuration.debugSmt) {
       try {
@@ -106,7 +113,7 @@ public abstract class AbstractSmtLibSolver implements SmtLibSolver {
     }
     BufferedReader reader = new BufferedReader(new InputStreamReader(solver.getInputStream()));
     PrintWriter writer = new PrintWriter(solver.getOutputStream());
-    shim = new SmtLibShim(reader, writer, log);
+    shim = new SmtLibShim(reader, writer, log, solverName);
     shim.initialize(prog, Configuration.smtDeclareAdts);
     start();
   }
@@ -122,6 +129,24 @@ public abstract class AbstractSmtLibSolver implements SmtLibSolver {
         e.printStackTrace();
       }
     }
+    instances.remove(this);
+  }
+
+  /**
+   * Forcibly stops the solver process, making any check currently in progress fail; the solver
+   * cannot be used afterwards. Unlike the other methods, this does not wait for a check to finish.
+   */
+  public void kill() {
+    Process p = solver;
+    if (p != null) {
+      p.destroyForcibly();
+    }
+  }
+
+  /** Returns whether the solver process has been started and has not exited. */
+  public boolean isAlive() {
+    Process p = solver;
+    return p != null && p.isAlive();
   }
 
   private static final Set<AbstractSmtLibSolver> instances = Util.concurrentSet();
@@ -145,9 +170,22 @@ public abstract class AbstractSmtLibSolver implements SmtLibSolver {
 
   protected abstract void cleanup() throws EvaluationException;
 
+  /**
+   * Returns the conjuncts of the last (unsatisfiable) query that the solver reported as an unsat
+   * core, or null if the solver does not track them.
+   */
+  protected Set<SmtLibTerm> getUnsatCore() throws EvaluationException {
+    return null;
+  }
+
   private SmtResult makeResult(SmtStatus status, Map<SolverVariable, Term> m, int taskId) {
+    return makeResult(status, m, null, taskId);
+  }
+
+  private SmtResult makeResult(
+      SmtStatus status, Map<SolverVariable, Term> m, Set<SmtLibTerm> core, int taskId) {
     Model model = m == null ? null : Model.make(m);
-    return new SmtResult(status, model, solverId, taskId);
+    return new SmtResult(status, model, solverId, taskId, core);
   }
 
   @Override
@@ -188,9 +226,13 @@ public abstract class AbstractSmtLibSolver implements SmtLibSolver {
       if (status.equals(SmtStatus.SATISFIABLE) && getModel) {
         m = shim.getModel();
       }
+      Set<SmtLibTerm> core = null;
+      if (status.equals(SmtStatus.UNSATISFIABLE) && Configuration.smtSubsumption) {
+        core = getUnsatCore();
+      }
       cleanup();
       shim.printComment("*** END CALL " + taskName + " ***\n");
-      return makeResult(status, m, taskId);
+      return makeResult(status, m, core, taskId);
     } catch (EvaluationException e) {
       throw new EvaluationException("Problem with solver " + solverId + ":\n" + e.getMessage());
     }
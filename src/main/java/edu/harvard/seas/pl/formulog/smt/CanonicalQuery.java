@@ -0,0 +1,197 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import edu.harvard.seas.pl.formulog.ast.Constructor;
+import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
+import edu.harvard.seas.pl.formulog.ast.Model;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of SMT conjuncts put into a normal form, so that queries that differ only in the names of
+ * their solver variables (or in the order of their conjuncts) usually get the same key. Conjuncts
+ * are sorted by a hash of their structure that ignores variable names, and variables are then
+ * numbered in order of first occurrence. Since conjuncts with the same structural hash keep their
+ * original order, this is not a complete normal form for alpha-equivalence.
+ *
+ * <p>The key is a string that writes out the sorted conjuncts with variables replaced by their
+ * numbers (and repeated subterms replaced by back references), so computing it does not create any
+ * terms. Queries with equal keys are the same up to the renaming of variables, and a result of one
+ * can be translated into a result of the other by matching variables and conjuncts by position.
+ */
+public class CanonicalQuery {
+
+  private final String key;
+  private final List<SolverVariable> vars;
+  private final Map<SolverVariable, Integer> varIds;
+  private final List<SmtLibTerm> conjuncts;
+  private final Map<SmtLibTerm, Integer> conjunctIds;
+
+  private CanonicalQuery(
+      String key,
+      List<SolverVariable> vars,
+      Map<SolverVariable, Integer> varIds,
+      List<SmtLibTerm> conjuncts,
+      Map<SmtLibTerm, Integer> conjunctIds) {
+    this.key = key;
+    this.vars = vars;
+    this.varIds = varIds;
+    this.conjuncts = conjuncts;
+    this.conjunctIds = conjunctIds;
+  }
+
+  public static CanonicalQuery make(Collection<SmtLibTerm> conjuncts) {
+    return new Canonicalizer().go(conjuncts);
+  }
+
+  /**
+   * Returns the normal form of the query. It does not depend on any per-run state (such as term
+   * ids), so it can also be used to identify the query across runs.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * Translates a result of another query with the same key into a result of this one, by mapping
+   * each variable and conjunct of the other query to the one in the same position here.
+   */
+  public SmtResult translate(SmtResult res, CanonicalQuery other) {
+    assert key.equals(other.key);
+    if (other == this) {
+      return res;
+    }
+    return new SmtResult(
+        res.status,
+        translateModel(res.model, other),
+        res.solverId,
+        res.taskId,
+        translateConjuncts(res.unsatCore, other));
+  }
+
+  private Model translateModel(Model m, CanonicalQuery other) {
+    if (m == null) {
+      return null;
+    }
+    Map<SolverVariable, Term> translated = new HashMap<>();
+    for (Map.Entry<SolverVariable, Term> e : m.getVal().entrySet()) {
+      Integer id = other.varIds.get(e.getKey());
+      // The solver might also report values for variables that are not part of the query.
+      if (id != null) {
+        translated.put(vars.get(id), e.getValue());
+      }
+    }
+    return Model.make(translated);
+  }
+
+  private Set<SmtLibTerm> translateConjuncts(Set<SmtLibTerm> core, CanonicalQuery other) {
+    if (core == null) {
+      return null;
+    }
+    Set<SmtLibTerm> translated = new HashSet<>();
+    for (SmtLibTerm conjunct : core) {
+      translated.add(conjuncts.get(other.conjunctIds.get(conjunct)));
+    }
+    return translated;
+  }
+
+  private static class Canonicalizer {
+
+    private final Map<Term, Integer> shapes = new IdentityHashMap<>();
+    private final Map<Term, Integer> written = new IdentityHashMap<>();
+    private final List<SolverVariable> vars = new ArrayList<>();
+    private final Map<SolverVariable, Integer> varIds = new HashMap<>();
+    private final StringBuilder sb = new StringBuilder();
+
+    public CanonicalQuery go(Collection<SmtLibTerm> conjuncts) {
+      List<SmtLibTerm> sorted = new ArrayList<>(conjuncts);
+      // A stable sort, so conjuncts of the same shape stay in their original order.
+      sorted.sort(Comparator.comparingInt(this::shape));
+      Map<SmtLibTerm, Integer> conjunctIds = new HashMap<>();
+      for (SmtLibTerm t : sorted) {
+        conjunctIds.put(t, conjunctIds.size());
+        write(t);
+        sb.append('\0');
+      }
+      return new CanonicalQuery(sb.toString(), vars, varIds, sorted, conjunctIds);
+    }
+
+    // Symbols are hashed by name, so that the order of conjuncts (and thus the key) is the same in
+    // every run.
+    private int shape(Term t) {
+      Integer h = shapes.get(t);
+      if (h != null) {
+        return h;
+      }
+      if (t instanceof SolverVariable) {
+        h = ((SolverVariable) t).getSymbol().getArgs().get(1).toString().hashCode();
+      } else if (t instanceof Constructor) {
+        Constructor c = (Constructor) t;
+        h = c.getSymbol().toString().hashCode();
+        for (Term arg : c.getArgs()) {
+          h = 31 * h + shape(arg);
+        }
+      } else {
+        h = t.hashCode();
+      }
+      shapes.put(t, h);
+      return h;
+    }
+
+    // A subterm that has already been written is replaced by its index in the order in which
+    // subterms were finished, which keeps the key linear in the size of the query DAG.
+    private void write(Term t) {
+      Integer id = written.get(t);
+      if (id != null) {
+        sb.append('@').append(id);
+      } else if (t instanceof SolverVariable) {
+        SolverVariable x = (SolverVariable) t;
+        Integer v = varIds.get(x);
+        if (v == null) {
+          v = vars.size();
+          vars.add(x);
+          varIds.put(x, v);
+        }
+        sb.append('#').append(v).append(':').append(x.getSymbol().getArgs().get(1));
+      } else if (t instanceof Constructor) {
+        Constructor c = (Constructor) t;
+        sb.append('(').append(c.getSymbol());
+        for (Term arg : c.getArgs()) {
+          sb.append(' ');
+          write(arg);
+        }
+        sb.append(')');
+        written.put(t, written.size());
+      } else {
+        sb.append(t.getClass().getSimpleName()).append(':').append(t);
+      }
+    }
+  }
+}
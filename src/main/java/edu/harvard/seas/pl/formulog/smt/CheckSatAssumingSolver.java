@@ -45,9 +45,18 @@ import java.util.stream.Collectors;
 
 public class CheckSatAssumingSolver extends AbstractSmtLibSolver {
 
+  private static volatile boolean warnedAboutCores;
+
   private final Map<SmtLibTerm, SolverVariable> indicatorVars = new HashMap<>();
+  private final Map<SolverVariable, SmtLibTerm> indicatedConjuncts = new HashMap<>();
   private int nextVarId;
 
+  public CheckSatAssumingSolver() {}
+
+  public CheckSatAssumingSolver(String solver) {
+    super(solver);
+  }
+
   private void clearCache() throws EvaluationException {
     if (Configuration.timeSmt) {
       Configuration.recordCsaCacheClear(solverId);
@@ -56,6 +65,7 @@ public class CheckSatAssumingSolver extends AbstractSmtLibSolver {
       Configuration.smtCacheClears.increment();
     }
     indicatorVars.clear();
+    indicatedConjuncts.clear();
     nextVarId = 0;
     if (Configuration.smtCacheHardResets) {
       shim.reset();
@@ -85,6 +95,7 @@ public class CheckSatAssumingSolver extends AbstractSmtLibSolver {
         misses++;
         x = makeIndicatorVar(conjunct);
         indicatorVars.put(conjunct, x);
+        indicatedConjuncts.put(x, conjunct);
         SmtLibTerm imp = makeImp(x, conjunct);
         shim.makeAssertion(imp);
       }
@@ -130,8 +141,33 @@ public class CheckSatAssumingSolver extends AbstractSmtLibSolver {
     }
   }
 
+  @Override
+  protected Set<SmtLibTerm> getUnsatCore() throws EvaluationException {
+    Set<SolverVariable> vars;
+    try {
+      vars = shim.getUnsatCore();
+    } catch (EvaluationException e) {
+      if (!warnedAboutCores) {
+        warnedAboutCores = true;
+        System.err.println("WARNING: could not get unsat core from solver:\n" + e.getMessage());
+      }
+      return null;
+    }
+    Set<SmtLibTerm> core = new HashSet<>();
+    for (SolverVariable x : vars) {
+      SmtLibTerm conjunct = indicatedConjuncts.get(x);
+      if (conjunct != null) {
+        core.add(conjunct);
+      }
+    }
+    return core;
+  }
+
   @Override
   protected void start() throws EvaluationException {
+    if (Configuration.smtSubsumption) {
+      shim.setOption(":produce-unsat-cores", "true");
+    }
     shim.setLogic(Configuration.smtLogic);
     shim.makeDeclarations();
     if (!Configuration.smtCacheHardResets) {
@@ -0,0 +1,368 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.Main;
+import edu.harvard.seas.pl.formulog.ast.Program;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A pool of solvers that starts a new solver when a query has waited {@link
+ * Configuration#smtPoolGrowDelay} milliseconds for one (up to a maximum), and stops solvers that
+ * have been idle for a while (down to a minimum). The delay is a per-query threshold; {@link
+ * Configuration#smtWaitTime} only accumulates the time spent waiting for results, and so cannot
+ * tell whether queries are waiting right now. Solvers whose process dies are replaced by fresh ones
+ * (which redo their declarations), and the query is retried; a watchdog kills solvers that have
+ * been working on a single query for too long, in which case the query's result is unknown. Other
+ * unknown results (except for timeouts) are double checked on a dedicated solver outside the pool.
+ */
+public class ElasticSmtManager implements SmtLibSolver {
+
+  private final int minSize;
+  private final int maxSize;
+  private final Supplier<AbstractSmtLibSolver> maker;
+  private final int growDelay;
+  private final int idleTimeout;
+  private final int hangTimeout;
+  private final int retries;
+  private final boolean doubleCheckUnknowns;
+
+  private final Deque<Pooled> idle = new ArrayDeque<>();
+  private final Set<Pooled> busy = new HashSet<>();
+  // Includes solvers that are still starting up.
+  private int live;
+
+  // Guarded by checkerLock; it is only in busy while it is double checking a query.
+  private final Object checkerLock = new Object();
+  private Pooled checker;
+
+  private Program<?, ?> prog;
+  private ScheduledExecutorService watchdog;
+
+  public ElasticSmtManager(int maxSize, Supplier<AbstractSmtLibSolver> maker) {
+    this(
+        Configuration.smtPoolMin,
+        maxSize,
+        maker,
+        Configuration.smtPoolGrowDelay,
+        Configuration.smtPoolIdleTimeout,
+        Configuration.smtHangTimeout,
+        Configuration.smtRetries,
+        Configuration.smtDoubleCheckUnknowns);
+  }
+
+  ElasticSmtManager(
+      int minSize,
+      int maxSize,
+      Supplier<AbstractSmtLibSolver> maker,
+      int growDelay,
+      int idleTimeout,
+      int hangTimeout,
+      int retries,
+      boolean doubleCheckUnknowns) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Cannot have non-positive number of solvers.");
+    }
+    this.maxSize = maxSize;
+    this.minSize = Math.max(1, Math.min(minSize, maxSize));
+    this.maker = maker;
+    this.growDelay = growDelay;
+    this.idleTimeout = idleTimeout;
+    this.hangTimeout = hangTimeout;
+    this.retries = retries;
+    this.doubleCheckUnknowns = doubleCheckUnknowns;
+  }
+
+  @Override
+  public SmtResult check(Collection<SmtLibTerm> conjuncts, boolean getModel, int timeout)
+      throws EvaluationException {
+    boolean fresh = false;
+    for (int failures = 0; ; ) {
+      Pooled p = acquire(fresh);
+      long start = System.currentTimeMillis();
+      SmtResult res;
+      boolean ok = false;
+      try {
+        res = p.solver.check(conjuncts, getModel, timeout);
+        ok = true;
+      } catch (EvaluationException e) {
+        if (p.hung) {
+          System.err.println(
+              "WARNING: killed SMT solver after "
+                  + hangTimeout
+                  + "ms on a single query; treating the result as unknown");
+          return new SmtResult(SmtStatus.UNKNOWN, null, -1, -1);
+        }
+        if (failures++ >= retries) {
+          throw e;
+        }
+        System.err.println("WARNING: restarting SMT solver after error:\n" + e.getMessage());
+        // Retry on a freshly started solver, since the idle ones might be in the same state as the
+        // one that just failed.
+        fresh = true;
+        continue;
+      } finally {
+        // Whatever went wrong, the solver might be in a bad state, so it is not reused.
+        if (ok) {
+          release(p);
+        } else {
+          discard(p);
+        }
+      }
+      // Running into the timeout again is all that a double check could do for a timeout.
+      boolean timedOut = timeout >= 0 && System.currentTimeMillis() - start >= timeout;
+      if (res.status.equals(SmtStatus.UNKNOWN) && doubleCheckUnknowns && !timedOut) {
+        return doubleCheck(conjuncts, getModel, timeout, res);
+      }
+      return res;
+    }
+  }
+
+  /**
+   * Plays the role of DoubleCheckingSolver: a solver that has not seen the same queries as the one
+   * that gave up might be able to settle the query after all. The checker is kept outside the pool,
+   * so that double checks neither wait for nor replace the warm solvers in it. If the double check
+   * fails, the original result stands.
+   */
+  private SmtResult doubleCheck(
+      Collection<SmtLibTerm> conjuncts, boolean getModel, int timeout, SmtResult unknown)
+      throws EvaluationException {
+    SmtResult res = null;
+    synchronized (checkerLock) {
+      try {
+        if (checker != null && !checker.solver.isAlive()) {
+          checker.solver.destroy();
+          checker = null;
+        }
+        if (checker == null) {
+          AbstractSmtLibSolver solver = maker.get();
+          try {
+            solver.start(prog);
+          } catch (EvaluationException | RuntimeException e) {
+            solver.destroy();
+            throw e;
+          }
+          checker = new Pooled(solver);
+        }
+        synchronized (this) {
+          markBusy(checker);
+        }
+        res = checker.solver.check(conjuncts, getModel, timeout);
+      } catch (EvaluationException e) {
+        System.err.println("WARNING: could not double check SMT query:\n" + e.getMessage());
+      } finally {
+        if (checker != null) {
+          synchronized (this) {
+            busy.remove(checker);
+          }
+          if (res == null) {
+            checker.solver.destroy();
+            checker = null;
+          }
+        }
+      }
+    }
+    if (Configuration.timeSmt) {
+      Configuration.recordSmtDoubleCheck(res != null && !res.status.equals(SmtStatus.UNKNOWN));
+    }
+    return res == null ? unknown : res;
+  }
+
+  private Pooled acquire(boolean fresh) throws EvaluationException {
+    AbstractSmtLibSolver retired = null;
+    synchronized (this) {
+      long deadline = System.currentTimeMillis() + growDelay;
+      while (true) {
+        Pooled p = fresh ? null : idle.pollLast();
+        if (p != null) {
+          if (!p.solver.isAlive()) {
+            live--;
+            p.solver.destroy();
+            continue;
+          }
+          markBusy(p);
+          return p;
+        }
+        long now = System.currentTimeMillis();
+        if (fresh && live >= maxSize && !idle.isEmpty()) {
+          retired = idle.pollFirst().solver;
+          live--;
+        }
+        if (live < maxSize && (fresh || now >= deadline)) {
+          live++;
+          break;
+        }
+        try {
+          wait(live < maxSize ? deadline - now : 0);
+        } catch (InterruptedException e) {
+          throw new EvaluationException(e);
+        }
+      }
+    }
+    if (retired != null) {
+      retired.destroy();
+    }
+    Pooled p = startSolver();
+    synchronized (this) {
+      markBusy(p);
+    }
+    return p;
+  }
+
+  private Pooled startSolver() throws EvaluationException {
+    AbstractSmtLibSolver solver = maker.get();
+    try {
+      solver.start(prog);
+    } catch (EvaluationException | RuntimeException e) {
+      solver.destroy();
+      synchronized (this) {
+        live--;
+        notifyAll();
+      }
+      throw e;
+    }
+    if (Main.smtStats) {
+      Configuration.smtSolverStarts.increment();
+    }
+    return new Pooled(solver);
+  }
+
+  private void markBusy(Pooled p) {
+    p.hung = false;
+    p.busySince = System.currentTimeMillis();
+    busy.add(p);
+  }
+
+  private synchronized void release(Pooled p) {
+    busy.remove(p);
+    p.idleSince = System.currentTimeMillis();
+    // Recently used solvers are reused first, so that the others can go idle long enough to stop.
+    idle.addLast(p);
+    notifyAll();
+  }
+
+  private void discard(Pooled p) {
+    synchronized (this) {
+      busy.remove(p);
+      live--;
+      notifyAll();
+    }
+    p.solver.destroy();
+  }
+
+  // Package-private so that tests do not have to wait for the watchdog.
+  void checkSolvers() {
+    List<Pooled> stale = new ArrayList<>();
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      if (hangTimeout > 0) {
+        for (Pooled p : busy) {
+          if (!p.hung && now - p.busySince > hangTimeout) {
+            p.hung = true;
+            p.solver.kill();
+          }
+        }
+      }
+      idle.removeIf(
+          p -> {
+            if (!p.solver.isAlive() || (live > minSize && now - p.idleSince > idleTimeout)) {
+              live--;
+              stale.add(p);
+              return true;
+            }
+            return false;
+          });
+      if (!stale.isEmpty()) {
+        notifyAll();
+      }
+    }
+    for (Pooled p : stale) {
+      p.solver.destroy();
+    }
+  }
+
+  @Override
+  public void start(Program<?, ?> prog) throws EvaluationException {
+    this.prog = prog;
+    for (int i = 0; i < minSize; ++i) {
+      synchronized (this) {
+        live++;
+      }
+      release(startSolver());
+    }
+    watchdog =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "smt-watchdog");
+              t.setDaemon(true);
+              return t;
+            });
+    watchdog.scheduleWithFixedDelay(this::checkSolvers, 1, 1, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void destroy() {
+    if (watchdog != null) {
+      watchdog.shutdownNow();
+    }
+    List<Pooled> all;
+    synchronized (this) {
+      all = new ArrayList<>(idle);
+      all.addAll(busy);
+      idle.clear();
+      busy.clear();
+      live = 0;
+    }
+    for (Pooled p : all) {
+      p.solver.destroy();
+    }
+    synchronized (checkerLock) {
+      if (checker != null) {
+        checker.solver.destroy();
+        checker = null;
+      }
+    }
+  }
+
+  private static class Pooled {
+
+    private final AbstractSmtLibSolver solver;
+    private long busySince;
+    private long idleSince;
+    private volatile boolean hung;
+
+    public Pooled(AbstractSmtLibSolver solver) {
+      this.solver = solver;
+    }
+  }
+}
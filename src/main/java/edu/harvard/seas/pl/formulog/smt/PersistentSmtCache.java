@@ -0,0 +1,289 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.Constructor;
+import edu.harvard.seas.pl.formulog.ast.Primitive;
+import edu.harvard.seas.pl.formulog.ast.Program;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An on-disk cache of SMT query results that can be shared across runs (and by concurrent runs).
+ * The file is an append-only log of fixed-size records, each holding the SHA-256 digest of a query
+ * and the status the solver returned for it; it is memory-mapped and read in full when opened.
+ *
+ * <p>Queries are identified by a serialization of their conjuncts that does not depend on any
+ * per-run state (such as term ids), together with the solver, the logic, whether a model was
+ * requested, and the timeout. Only results that can be replayed without a model are stored: the
+ * status of queries that do not ask for a model, and unsatisfiable results of queries that do.
+ */
+public class PersistentSmtCache {
+
+  private static final byte[] MAGIC = "FLGSMT1\n".getBytes(StandardCharsets.US_ASCII);
+  private static final int DIGEST_LEN = 32;
+  private static final int RECORD_LEN = DIGEST_LEN + 1;
+
+  private final FileChannel channel;
+  private final byte[] context;
+  private final Map<Key, SmtStatus> entries = new ConcurrentHashMap<>();
+
+  private PersistentSmtCache(FileChannel channel, String context) {
+    this.channel = channel;
+    this.context = context.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Opens (creating if necessary) the cache at the given path. Only entries that were recorded with
+   * the same solver, logic, and SMT declarations for the program's types and uninterpreted
+   * functions will be found.
+   */
+  public static PersistentSmtCache open(Path path, Program<?, ?> prog) {
+    StringWriter decls = new StringWriter();
+    SmtLibShim shim = new SmtLibShim(null, decls);
+    shim.initialize(prog, Configuration.smtDeclareAdts);
+    shim.makeDeclarations();
+    shim.flush();
+    // Declarations are gathered from sets, so their order can vary from run to run.
+    List<String> lines = new ArrayList<>(Arrays.asList(decls.toString().split("\n")));
+    Collections.sort(lines);
+    String context =
+        Configuration.smtSolver + "\0" + Configuration.smtLogic + "\0" + String.join("\n", lines);
+    return open(path, context);
+  }
+
+  static PersistentSmtCache open(Path path, String context) {
+    try {
+      FileChannel channel =
+          FileChannel.open(
+              path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      PersistentSmtCache cache = new PersistentSmtCache(channel, context);
+      try {
+        cache.load(path);
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+      return cache;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not open SMT cache " + path, e);
+    }
+  }
+
+  // Other runs might be appending to the file, so it is locked while it is read.
+  private void load(Path path) throws IOException {
+    try (FileLock lock = channel.lock()) {
+      loadLocked(path);
+    }
+  }
+
+  private void loadLocked(Path path) throws IOException {
+    long size = channel.size();
+    if (size == 0) {
+      channel.write(ByteBuffer.wrap(MAGIC), 0);
+      return;
+    }
+    MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    byte[] magic = new byte[MAGIC.length];
+    if (size < MAGIC.length || !Arrays.equals(MAGIC, getBytes(buf, magic))) {
+      throw new IllegalArgumentException("Not an SMT cache file: " + path);
+    }
+    SmtStatus[] statuses = SmtStatus.values();
+    while (buf.remaining() >= RECORD_LEN) {
+      byte[] digest = getBytes(buf, new byte[DIGEST_LEN]);
+      int status = buf.get();
+      if (status >= 0 && status < statuses.length) {
+        entries.put(new Key(digest), statuses[status]);
+      }
+    }
+    // Drop a record that was only partially written (e.g., because a run was killed), so that new
+    // records stay aligned.
+    if (buf.hasRemaining()) {
+      channel.truncate(buf.position());
+    }
+  }
+
+  private static byte[] getBytes(ByteBuffer buf, byte[] dst) {
+    buf.get(dst);
+    return dst;
+  }
+
+  /**
+   * Returns the cached status of the query, or null if there is none. A non-null status can stand
+   * in for a result without a model.
+   */
+  public SmtStatus lookup(Collection<SmtLibTerm> assertions, boolean getModel, int timeout) {
+    return entries.get(makeKey(assertions, getModel, timeout));
+  }
+
+  /** Like {@link #lookup(Collection, boolean, int)}, but for a query in normal form. */
+  public SmtStatus lookup(CanonicalQuery query, boolean getModel, int timeout) {
+    return entries.get(makeKey(query, getModel, timeout));
+  }
+
+  /** Records the result of the query, if it is one that can be replayed from its status alone. */
+  public void record(
+      Collection<SmtLibTerm> assertions, boolean getModel, int timeout, SmtStatus status) {
+    if (isReplayable(getModel, status)) {
+      record(makeKey(assertions, getModel, timeout), status);
+    }
+  }
+
+  /** Like {@link #record(Collection, boolean, int, SmtStatus)}, but for a query in normal form. */
+  public void record(CanonicalQuery query, boolean getModel, int timeout, SmtStatus status) {
+    if (isReplayable(getModel, status)) {
+      record(makeKey(query, getModel, timeout), status);
+    }
+  }
+
+  private static boolean isReplayable(boolean getModel, SmtStatus status) {
+    return status != SmtStatus.UNKNOWN && (!getModel || status == SmtStatus.UNSATISFIABLE);
+  }
+
+  private void record(Key key, SmtStatus status) {
+    if (entries.putIfAbsent(key, status) != null) {
+      return;
+    }
+    ByteBuffer buf = ByteBuffer.allocate(RECORD_LEN);
+    buf.put(key.digest).put((byte) status.ordinal()).flip();
+    // The file lock keeps other runs from appending between the size check and the write; it is
+    // held by the whole JVM, so threads of this run still need to synchronize among themselves.
+    synchronized (channel) {
+      try (FileLock lock = channel.lock()) {
+        long pos = channel.size();
+        while (buf.hasRemaining()) {
+          pos += channel.write(buf, pos);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not write to SMT cache", e);
+      }
+    }
+  }
+
+  public void close() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Key makeKey(Collection<SmtLibTerm> assertions, boolean getModel, int timeout) {
+    List<String> conjuncts = new ArrayList<>(assertions.size());
+    for (SmtLibTerm t : assertions) {
+      StringBuilder sb = new StringBuilder();
+      serialize(t, sb, new IdentityHashMap<>());
+      conjuncts.add(sb.toString());
+    }
+    // The order of conjuncts does not matter to the solver.
+    Collections.sort(conjuncts);
+    MessageDigest md = startDigest(getModel, timeout);
+    for (String s : conjuncts) {
+      md.update((byte) 0);
+      md.update(s.getBytes(StandardCharsets.UTF_8));
+    }
+    return new Key(md.digest());
+  }
+
+  // Keys of queries in normal form are tagged, so that they cannot collide with the keys of plain
+  // queries.
+  private Key makeKey(CanonicalQuery query, boolean getModel, int timeout) {
+    MessageDigest md = startDigest(getModel, timeout);
+    md.update((byte) 1);
+    md.update(query.getKey().getBytes(StandardCharsets.UTF_8));
+    return new Key(md.digest());
+  }
+
+  private MessageDigest startDigest(boolean getModel, int timeout) {
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+    md.update(context);
+    md.update((getModel + "\0" + timeout).getBytes(StandardCharsets.UTF_8));
+    return md;
+  }
+
+  // A subterm that has already been written is replaced by its index in the order in which
+  // subterms were finished, so that the output is linear in the size of the term DAG.
+  private static void serialize(Term t, StringBuilder sb, Map<Term, Integer> written) {
+    Integer id = written.get(t);
+    if (id != null) {
+      sb.append('@').append(id);
+    } else if (t instanceof Constructor) {
+      Constructor c = (Constructor) t;
+      sb.append('(').append(c.getSymbol());
+      for (Term arg : c.getArgs()) {
+        sb.append(' ');
+        serialize(arg, sb, written);
+      }
+      sb.append(')');
+      written.put(t, written.size());
+    } else if (t instanceof Primitive) {
+      sb.append(t.getClass().getSimpleName()).append(':').append(t);
+    } else {
+      throw new IllegalArgumentException("Cannot serialize non-ground SMT term: " + t);
+    }
+  }
+
+  private static class Key {
+
+    private final byte[] digest;
+    private final int hash;
+
+    public Key(byte[] digest) {
+      this.digest = digest;
+      this.hash = Arrays.hashCode(digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof Key && Arrays.equals(digest, ((Key) obj).digest);
+    }
+  }
+}
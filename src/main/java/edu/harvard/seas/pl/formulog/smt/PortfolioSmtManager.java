@@ -0,0 +1,206 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import edu.harvard.seas.pl.formulog.ast.Program;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Races each query across several solver backends (e.g., z3, cvc4 and yices) and returns the first
+ * definitive answer. Solvers that are still working on a query once it has been answered are killed
+ * and replaced by fresh ones, and solvers that have not started on it yet skip it. Queries are
+ * handled one at a time.
+ */
+public class PortfolioSmtManager implements SmtLibSolver {
+
+  private final List<Member> members = new ArrayList<>();
+  private final Function<String, AbstractSmtLibSolver> maker;
+  private Program<?, ?> prog;
+  private int queries;
+
+  public PortfolioSmtManager(List<String> solvers) {
+    this(solvers, CheckSatAssumingSolver::new);
+  }
+
+  PortfolioSmtManager(List<String> solvers, Function<String, AbstractSmtLibSolver> maker) {
+    if (solvers.isEmpty()) {
+      throw new IllegalArgumentException("Cannot have an empty portfolio of solvers.");
+    }
+    this.maker = maker;
+    for (String solver : solvers) {
+      members.add(new Member(solver));
+    }
+  }
+
+  @Override
+  public synchronized SmtResult check(
+      Collection<SmtLibTerm> conjuncts, boolean getModel, int timeout) throws EvaluationException {
+    int query = ++queries;
+    BlockingQueue<Future<SmtResult>> finished = new LinkedBlockingQueue<>();
+    Map<Future<SmtResult>, Member> running = new HashMap<>();
+    for (Member m : members) {
+      Future<SmtResult> fut =
+          new ExecutorCompletionService<SmtResult>(m.exec, finished)
+              .submit(() -> m.check(query, conjuncts, getModel, timeout));
+      running.put(fut, m);
+    }
+    SmtResult unknown = null;
+    EvaluationException exn = null;
+    try {
+      for (int i = 0; i < members.size(); ++i) {
+        Future<SmtResult> fut = finished.take();
+        running.remove(fut);
+        try {
+          SmtResult res = fut.get();
+          if (res.status != SmtStatus.UNKNOWN) {
+            return res;
+          }
+          unknown = res;
+        } catch (ExecutionException e) {
+          if (exn == null) {
+            exn = new EvaluationException(e.getCause());
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new EvaluationException(e);
+    } finally {
+      for (Map.Entry<Future<SmtResult>, Member> e : running.entrySet()) {
+        // A member might still be busy replacing a solver killed during an earlier query, in which
+        // case this query has not reached it yet and is simply dropped from its queue.
+        e.getKey().cancel(false);
+        e.getValue().kill(query);
+      }
+    }
+    if (unknown != null) {
+      return unknown;
+    }
+    throw exn;
+  }
+
+  @Override
+  public synchronized void start(Program<?, ?> prog) throws EvaluationException {
+    this.prog = prog;
+    for (Member m : members) {
+      m.solver.start(prog);
+    }
+  }
+
+  @Override
+  public synchronized void destroy() {
+    for (Member m : members) {
+      m.exec.shutdownNow();
+      m.solver.destroy();
+    }
+  }
+
+  private class Member {
+
+    private final String solverName;
+    private final ExecutorService exec;
+    private volatile AbstractSmtLibSolver solver;
+    // The query this member is working on (or 0), and the latest query it has been told to drop.
+    private int current;
+    private int cancelled;
+    private boolean killed;
+    // Whether the solver still has to be replaced because restarting it failed (only accessed from
+    // this member's thread).
+    private boolean broken;
+
+    public Member(String solverName) {
+      this.solverName = solverName;
+      exec =
+          Executors.newSingleThreadExecutor(
+              r -> {
+                Thread t = new Thread(r, "portfolio-" + solverName);
+                t.setDaemon(true);
+                return t;
+              });
+      solver = maker.apply(solverName);
+    }
+
+    // Only called from this member's thread, so a replacement solver is always in place before the
+    // next query reaches it.
+    public SmtResult check(
+        int query, Collection<SmtLibTerm> conjuncts, boolean getModel, int timeout)
+        throws EvaluationException {
+      synchronized (this) {
+        if (query <= cancelled) {
+          // The query was answered by another member while this task was starting.
+          throw new CancellationException();
+        }
+        current = query;
+      }
+      if (broken) {
+        restart();
+        broken = false;
+      }
+      try {
+        return solver.check(conjuncts, getModel, timeout);
+      } finally {
+        boolean replace;
+        synchronized (this) {
+          current = 0;
+          replace = killed;
+          killed = false;
+        }
+        if (replace) {
+          // A failed restart must not replace the outcome of this query; it is retried before the
+          // next one.
+          try {
+            restart();
+          } catch (EvaluationException | RuntimeException e) {
+            System.err.println("WARNING: could not restart SMT solver:\n" + e.getMessage());
+            broken = true;
+          }
+        }
+      }
+    }
+
+    private void restart() throws EvaluationException {
+      solver.destroy();
+      solver = maker.apply(solverName);
+      solver.start(prog);
+    }
+
+    public synchronized void kill(int query) {
+      cancelled = query;
+      if (current == query) {
+        killed = true;
+        solver.kill();
+      }
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import edu.harvard.seas.pl.formulog.ast.Program;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * A pool of push-pop solvers whose assertion stacks are tracked in a shared prefix trie. Each query
+ * goes to the idle solver that needs the fewest pops plus pushes to reach it. Conjuncts are put in
+ * the order in which they were first seen, so that queries that extend earlier ones share a prefix
+ * with them no matter the order their conjuncts arrive in.
+ */
+public class PrefixTrieSmtManager implements SmtLibSolver {
+
+  private final Supplier<SmtLibSolver> maker;
+  private final SmtLibSolver[] solvers;
+  private final Node[] positions;
+  private final boolean[] busy;
+  private final Node root = new Node(null, null);
+  // Only holds conjuncts that appear in the trie, so that it stays bounded.
+  private final Map<SmtLibTerm, Order> order = new HashMap<>();
+  private long nextId;
+
+  public PrefixTrieSmtManager(int size) {
+    this(size, PushPopSolver::new);
+  }
+
+  PrefixTrieSmtManager(int size, Supplier<SmtLibSolver> maker) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Cannot have non-positive number of solvers.");
+    }
+    this.maker = maker;
+    solvers = new SmtLibSolver[size];
+    positions = new Node[size];
+    busy = new boolean[size];
+  }
+
+  @Override
+  public SmtResult check(Collection<SmtLibTerm> conjuncts, boolean getModel, int timeout)
+      throws EvaluationException {
+    int i;
+    List<SmtLibTerm> sorted;
+    synchronized (this) {
+      while (true) {
+        sorted = sort(conjuncts);
+        i = pickSolver(sorted);
+        if (i >= 0) {
+          break;
+        }
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new EvaluationException(e);
+        }
+      }
+      busy[i] = true;
+      // The solver skips empty queries without touching its stack
+      if (!sorted.isEmpty()) {
+        move(i, findOrCreate(sorted));
+      }
+    }
+    try {
+      return solvers[i].check(sorted, getModel, timeout);
+    } catch (EvaluationException e) {
+      // The solver's stack might not match the query; the trie is only used for routing, so it is
+      // safe to just assume the worst.
+      synchronized (this) {
+        move(i, root);
+      }
+      throw e;
+    } finally {
+      synchronized (this) {
+        busy[i] = false;
+        notifyAll();
+      }
+    }
+  }
+
+  private List<SmtLibTerm> sort(Collection<SmtLibTerm> conjuncts) {
+    List<SmtLibTerm> l = new ArrayList<>(conjuncts);
+    for (SmtLibTerm conjunct : l) {
+      if (!order.containsKey(conjunct)) {
+        order.put(conjunct, new Order(nextId++));
+      }
+    }
+    l.sort(Comparator.comparingLong(conjunct -> order.get(conjunct).id));
+    return l;
+  }
+
+  private int pickSolver(List<SmtLibTerm> sorted) {
+    Set<Node> path = new HashSet<>();
+    Node n = root;
+    path.add(n);
+    for (SmtLibTerm conjunct : sorted) {
+      n = n.children.get(conjunct);
+      if (n == null) {
+        break;
+      }
+      path.add(n);
+    }
+    int best = -1;
+    int bestCost = Integer.MAX_VALUE;
+    for (int i = 0; i < solvers.length; ++i) {
+      if (busy[i]) {
+        continue;
+      }
+      Node m = positions[i];
+      int pops = 0;
+      while (!path.contains(m)) {
+        m = m.parent;
+        pops++;
+      }
+      int cost = pops + sorted.size() - m.depth;
+      if (cost < bestCost) {
+        best = i;
+        bestCost = cost;
+      }
+    }
+    return best;
+  }
+
+  private Node findOrCreate(List<SmtLibTerm> sorted) {
+    Node n = root;
+    for (SmtLibTerm conjunct : sorted) {
+      Node child = n.children.get(conjunct);
+      if (child == null) {
+        child = new Node(n, conjunct);
+        n.children.put(conjunct, child);
+        order.get(conjunct).nodes++;
+      }
+      n = child;
+    }
+    return n;
+  }
+
+  private void move(int i, Node n) {
+    Node old = positions[i];
+    for (Node m = n; m != null; m = m.parent) {
+      m.solvers++;
+    }
+    for (Node m = old; m != null; m = m.parent) {
+      m.solvers--;
+      if (m.solvers == 0) {
+        m.parent.children.remove(m.conjunct);
+        Order o = order.get(m.conjunct);
+        if (--o.nodes == 0) {
+          order.remove(m.conjunct);
+        }
+      }
+    }
+    positions[i] = n;
+  }
+
+  @Override
+  public void start(Program<?, ?> prog) throws EvaluationException {
+    for (int i = 0; i < solvers.length; ++i) {
+      SmtLibSolver solver = maker.get();
+      solver.start(prog);
+      solvers[i] = solver;
+      positions[i] = root;
+    }
+    root.solvers = solvers.length;
+  }
+
+  /** Returns the number of nodes in the trie, not counting the root. */
+  synchronized int trieSize() {
+    int size = -1;
+    List<Node> todo = new ArrayList<>();
+    todo.add(root);
+    while (!todo.isEmpty()) {
+      size++;
+      todo.addAll(todo.remove(todo.size() - 1).children.values());
+    }
+    return size;
+  }
+
+  /** Returns the number of conjuncts whose position in the order is being remembered. */
+  synchronized int orderSize() {
+    return order.size();
+  }
+
+  @Override
+  public void destroy() {
+    for (SmtLibSolver solver : solvers) {
+      solver.destroy();
+    }
+  }
+
+  private static class Node {
+
+    private final Node parent;
+    private final SmtLibTerm conjunct;
+    private final int depth;
+    private final Map<SmtLibTerm, Node> children = new HashMap<>();
+    // The number of solvers whose stack goes through this node
+    private int solvers;
+
+    public Node(Node parent, SmtLibTerm conjunct) {
+      this.parent = parent;
+      this.conjunct = conjunct;
+      this.depth = parent == null ? 0 : parent.depth + 1;
+    }
+  }
+
+  private static class Order {
+
+    private final long id;
+    // The number of trie nodes for the conjunct
+    private int nodes;
+
+    public Order(long id) {
+      this.id = id;
+    }
+  }
+}
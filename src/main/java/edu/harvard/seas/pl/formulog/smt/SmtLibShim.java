@@ -28,17 +28,21 @@ import edu.harvard.seas.pl.formulog.ast.Primitive;
 import edu.harvard.seas.pl.formulog.ast.Program;
 import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
 import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Terms;
 import edu.harvard.seas.pl.formulog.ast.Terms.TermVisitor;
 import edu.harvard.seas.pl.formulog.ast.Terms.TermVisitorExn;
 import edu.harvard.seas.pl.formulog.ast.Var;
 import edu.harvard.seas.pl.formulog.eval.EvaluationException;
 import edu.harvard.seas.pl.formulog.smt.SmtLibParser.SmtLibParseException;
+import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.BuiltInTypeSymbol;
 import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
 import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbolType;
 import edu.harvard.seas.pl.formulog.symbols.Symbol;
 import edu.harvard.seas.pl.formulog.symbols.SymbolManager;
 import edu.harvard.seas.pl.formulog.symbols.TypeSymbol;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.BuiltInConstructorSymbolBase;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.ParameterizedConstructorSymbol;
 import edu.harvard.seas.pl.formulog.types.FunctorType;
 import edu.harvard.seas.pl.formulog.types.TypeChecker;
 import edu.harvard.seas.pl.formulog.types.Types;
@@ -81,6 +85,7 @@ public class SmtLibShim {
 
   private static final boolean recordTime = Configuration.timeSmt;
 
+  private final String solverName;
   private final BufferedReader in;
   private PrintWriter out;
   private final Map<SolverVariable, String> declaredSymbols = new HashMap<>();
@@ -91,16 +96,40 @@ public class SmtLibShim {
 
   private SymbolManager symbolManager;
   private final List<String> declarations = new ArrayList<>();
+  private final Map<SmtLibTerm, Definition> definitions = new HashMap<>();
+  private final Deque<Set<SmtLibTerm>> definitionsByStackPos = new ArrayDeque<>();
+  private int definitionCnt;
+  private final List<SolverVariable> boundVars = new ArrayList<>();
+  private final boolean shareSubterms;
+  private final int shareThreshold;
 
   public SmtLibShim(Reader in, Writer out) {
     this(in, out, null);
   }
 
   public SmtLibShim(Reader in, Writer out, Writer log) {
+    this(in, out, log, Configuration.smtSolver);
+  }
+
+  public SmtLibShim(Reader in, Writer out, Writer log, String solverName) {
+    this(in, out, log, solverName, Configuration.smtShareSubterms, Configuration.smtShareThreshold);
+  }
+
+  SmtLibShim(
+      Reader in,
+      Writer out,
+      Writer log,
+      String solverName,
+      boolean shareSubterms,
+      int shareThreshold) {
+    this.solverName = solverName;
+    this.shareSubterms = shareSubterms;
+    this.shareThreshold = shareThreshold;
     this.in = in != null ? new BufferedReader(in) : null;
     this.out = new PrintWriter(out);
     this.log = log != null ? new PrintWriter(log) : null;
     symbolsByStackPos.add(new HashSet<>());
+    definitionsByStackPos.add(new HashSet<>());
   }
 
   public void initialize(Program<?, ?> prog, boolean declareAdts) {
@@ -146,6 +175,14 @@ public class SmtLibShim {
       Configuration.recordSmtDeclTime(end - start);
       start = end;
     }
+    if (shareSubterms) {
+      defineSharedSubterms(assertion);
+      if (recordTime) {
+        end = System.nanoTime();
+        Configuration.recordSmtSerialTime(end - start);
+        start = end;
+      }
+    }
     typeAnnotations = new MiniTypeInferer().inferTypes(assertion).iterator();
     if (recordTime) {
       end = System.nanoTime();
@@ -153,7 +190,7 @@ public class SmtLibShim {
       start = end;
     }
     print("(assert ");
-    assertion.toSmtLib(this);
+    print(assertion);
     println(")");
     checkSuccess();
     if (recordTime) {
@@ -168,6 +205,9 @@ public class SmtLibShim {
     symbolLookup.clear();
     symbolsByStackPos.clear();
     symbolsByStackPos.add(new HashSet<>());
+    definitions.clear();
+    definitionsByStackPos.clear();
+    definitionsByStackPos.add(new HashSet<>());
     println("(reset)");
     checkSuccess();
   }
@@ -183,6 +223,7 @@ public class SmtLibShim {
     println("(push 1)");
     checkSuccess();
     symbolsByStackPos.addLast(new HashSet<>());
+    definitionsByStackPos.addLast(new HashSet<>());
   }
 
   public void pop() throws EvaluationException {
@@ -197,6 +238,9 @@ public class SmtLibShim {
         String s = declaredSymbols.remove(x);
         symbolLookup.remove(s);
       }
+      for (SmtLibTerm t : definitionsByStackPos.removeLast()) {
+        definitions.remove(t);
+      }
     }
   }
 
@@ -209,7 +253,7 @@ public class SmtLibShim {
       System.err.println("Warning: negative timeout provided to solver - ignored");
       timeout = Integer.MAX_VALUE;
     }
-    if (Configuration.smtSolver.equals("z3")) {
+    if (solverName.equals("z3")) {
       println("(set-option :timeout " + timeout + ")");
       checkSuccess();
     }
@@ -293,6 +337,60 @@ public class SmtLibShim {
     }
   }
 
+  public void setOption(String option, String value) throws EvaluationException {
+    println("(set-option " + option + " " + value + ")");
+    checkSuccess();
+  }
+
+  /**
+   * Returns the assumptions in the unsat core of the last check-sat-assuming call. Negated
+   * assumptions are left out: a core without them is still unsatisfiable as a set of conjuncts, as
+   * negated assumptions only switch off conjuncts.
+   */
+  public Set<SolverVariable> getUnsatCore() throws EvaluationException {
+    println("(get-unsat-core)");
+    flush();
+    StringBuilder sb = new StringBuilder();
+    try {
+      int depth = 0;
+      do {
+        String line = in.readLine();
+        if (line == null) {
+          throw new EvaluationException("Problem with evaluating solver! Unexpected end of stream");
+        }
+        sb.append(line).append(' ');
+        for (int i = 0; i < line.length(); ++i) {
+          char c = line.charAt(i);
+          if (c == '(') {
+            depth++;
+          } else if (c == ')') {
+            depth--;
+          }
+        }
+      } while (depth > 0);
+    } catch (IOException e) {
+      throw new EvaluationException("Problem with evaluating solver: " + e.getMessage());
+    }
+    String s = sb.toString().trim();
+    if (log != null) {
+      log.println("; core: " + s);
+      log.flush();
+    }
+    if (!s.startsWith("(") || s.startsWith("(error")) {
+      throw new EvaluationException("Unexpected unsat core: " + s);
+    }
+    s = s.replaceAll("\\(not\\s+[^()\\s]+\\)", " ");
+    s = s.substring(1, s.lastIndexOf(')'));
+    Set<SolverVariable> core = new HashSet<>();
+    for (String name : s.trim().split("\\s+")) {
+      SolverVariable x = symbolLookup.get(name);
+      if (x != null) {
+        core.add(x);
+      }
+    }
+    return core;
+  }
+
   public void setLogic(String logic) throws EvaluationException {
     println("(set-logic " + logic + ")");
     checkSuccess();
@@ -322,6 +420,41 @@ public class SmtLibShim {
     print(s);
   }
 
+  /**
+   * Prints a subterm of an assertion, or the name it has been defined under (see {@link
+   * Configuration#smtShareSubterms}).
+   */
+  public void print(SmtLibTerm t) {
+    if (!shareSubterms) {
+      t.toSmtLib(this);
+      return;
+    }
+    Definition def = lookupDefinition(t, boundVars);
+    if (def != null) {
+      print(def.name);
+      return;
+    }
+    int n = boundVars.size();
+    boundVars.addAll(getBoundVars(t));
+    try {
+      t.toSmtLib(this);
+    } finally {
+      boundVars.subList(n, boundVars.size()).clear();
+    }
+  }
+
+  /**
+   * A definition can only stand in for a term if none of its variables are captured by an enclosing
+   * binder (the names of solver variables are reused across queries).
+   */
+  private Definition lookupDefinition(Term t, List<SolverVariable> boundVars) {
+    Definition def = definitions.get(t);
+    if (def != null && (boundVars.isEmpty() || Collections.disjoint(def.vars, boundVars))) {
+      return def;
+    }
+    return null;
+  }
+
   public void print(Symbol sym) {
     print(stringifySymbol(sym));
   }
@@ -344,6 +477,9 @@ public class SmtLibShim {
   }
 
   private void declareSymbols(SmtLibTerm t) throws EvaluationException {
+    // Terms are hash-consed, so each shared subterm only needs to be visited once. Tracking this
+    // only pays off for the large DAGs that subterm sharing is meant for.
+    Set<Term> visited = shareSubterms ? new HashSet<>() : null;
     t.accept(
         new TermVisitorExn<Void, Void, EvaluationException>() {
 
@@ -369,6 +505,9 @@ public class SmtLibShim {
               }
               return null;
             }
+            if (visited != null && (definitions.containsKey(c) || !visited.add(c))) {
+              return null;
+            }
             for (Term arg : c.getArgs()) {
               arg.accept(this, in);
             }
@@ -388,6 +527,150 @@ public class SmtLibShim {
         null);
   }
 
+  /**
+   * Emits a define-fun for each subterm of the assertion that is either used more than once in it
+   * or has at least {@link Configuration#smtShareThreshold} nodes, so that the assertion (and later
+   * ones containing the same subterms) can refer to it by name. Subterms are only defined if their
+   * types can be inferred without looking at their context, and if they do not mention any variable
+   * that is bound within the assertion.
+   */
+  private void defineSharedSubterms(SmtLibTerm assertion) throws EvaluationException {
+    Map<Constructor, Integer> uses = new HashMap<>();
+    List<Constructor> postOrder = new ArrayList<>();
+    Set<SolverVariable> bound = new HashSet<>();
+    findCandidates(assertion, uses, postOrder, bound);
+    Map<Constructor, Integer> sizes = new HashMap<>();
+    Set<Constructor> mentionsBound = new HashSet<>();
+    for (Constructor c : postOrder) {
+      int size = 1;
+      boolean closed = true;
+      for (Term arg : c.getArgs()) {
+        Definition def = definitions.get(arg);
+        if (def != null) {
+          size++;
+          closed &= Collections.disjoint(def.vars, bound);
+        } else {
+          Integer n = sizes.get(arg);
+          size += n == null ? 1 : n;
+          closed &= !bound.contains(arg) && !mentionsBound.contains(arg);
+        }
+      }
+      // Saturate to avoid overflow on large DAGs.
+      size = Math.min(size, shareThreshold);
+      sizes.put(c, size);
+      if (!closed) {
+        mentionsBound.add(c);
+      } else if (c != assertion && (uses.get(c) > 1 || size >= shareThreshold)) {
+        define(c);
+      }
+    }
+  }
+
+  private void findCandidates(
+      Term t,
+      Map<Constructor, Integer> uses,
+      List<Constructor> postOrder,
+      Set<SolverVariable> bound) {
+    if (!(t instanceof Constructor) || t instanceof SolverVariable || definitions.containsKey(t)) {
+      return;
+    }
+    Constructor c = (Constructor) t;
+    if (c.getArgs().length == 0) {
+      return;
+    }
+    Integer n = uses.get(c);
+    if (n != null) {
+      uses.put(c, n + 1);
+      return;
+    }
+    uses.put(c, 1);
+    bound.addAll(getBoundVars(c));
+    for (Term arg : c.getArgs()) {
+      findCandidates(arg, uses, postOrder, bound);
+    }
+    postOrder.add(c);
+  }
+
+  private void define(Constructor c) throws EvaluationException {
+    MiniTypeInferer inferer = new MiniTypeInferer();
+    List<Pair<ConstructorSymbol, Type>> annotations = inferer.inferTypes(c);
+    Type type = inferer.getType();
+    if (!Types.getTypeVars(type).isEmpty()) {
+      return;
+    }
+    for (Pair<ConstructorSymbol, Type> p : annotations) {
+      if (!Types.getTypeVars(p.snd()).isEmpty()) {
+        return;
+      }
+    }
+    String sort = stringifyType(type);
+    if (sort == null) {
+      return;
+    }
+    String name = "d" + definitionCnt++;
+    typeAnnotations = annotations.iterator();
+    print("(define-fun " + name + " () " + sort + " ");
+    print((SmtLibTerm) c);
+    println(")");
+    checkSuccess();
+    assert !typeAnnotations.hasNext() : typeAnnotations.next();
+    Set<SolverVariable> vars = new HashSet<>();
+    collectVars(c, vars, new HashSet<>());
+    definitions.put((SmtLibTerm) c, new Definition(name, type, vars));
+    definitionsByStackPos.getLast().add((SmtLibTerm) c);
+  }
+
+  private void collectVars(Term t, Set<SolverVariable> vars, Set<Term> visited) {
+    if (t instanceof SolverVariable) {
+      vars.add((SolverVariable) t);
+    } else if (t instanceof Constructor && visited.add(t)) {
+      Definition def = definitions.get(t);
+      if (def != null) {
+        vars.addAll(def.vars);
+        return;
+      }
+      for (Term arg : ((Constructor) t).getArgs()) {
+        collectVars(arg, vars, visited);
+      }
+    }
+  }
+
+  private static List<SolverVariable> getBoundVars(Term t) {
+    if (!(t instanceof Constructor)) {
+      return Collections.emptyList();
+    }
+    Constructor c = (Constructor) t;
+    ConstructorSymbol sym = c.getSymbol();
+    if (sym.equals(BuiltInConstructorSymbol.SMT_FORALL)
+        || sym.equals(BuiltInConstructorSymbol.SMT_EXISTS)) {
+      List<SolverVariable> vars = new ArrayList<>();
+      for (Term wrappedVar : Terms.termToTermList(c.getArgs()[0])) {
+        vars.add((SolverVariable) ((Constructor) wrappedVar).getArgs()[0]);
+      }
+      return vars;
+    }
+    if (sym instanceof ParameterizedConstructorSymbol
+        && ((ParameterizedConstructorSymbol) sym)
+            .getBase()
+            .equals(BuiltInConstructorSymbolBase.SMT_LET)) {
+      return Collections.singletonList((SolverVariable) c.getArgs()[0]);
+    }
+    return Collections.emptyList();
+  }
+
+  private static class Definition {
+
+    private final String name;
+    private final Type type;
+    private final Set<SolverVariable> vars;
+
+    public Definition(String name, Type type, Set<SolverVariable> vars) {
+      this.name = name;
+      this.type = type;
+      this.vars = vars;
+    }
+  }
+
   public void makeDeclarations() {
     long start = 0;
     if (Configuration.timeSmt) {
@@ -705,12 +988,15 @@ public class SmtLibShim {
 
     private final Deque<Pair<Type, Type>> constraints = new ArrayDeque<>();
     private final Map<TypeVar, Type> subst = new HashMap<>();
+    private Type type;
+    private final List<SolverVariable> boundVars = new ArrayList<>();
 
     public List<Pair<ConstructorSymbol, Type>> inferTypes(Term t) {
       constraints.clear();
       subst.clear();
       List<Pair<ConstructorSymbol, Type>> types = inferTypes1(t);
       unifyConstraints();
+      type = TypeChecker.simplify(type.applySubst(subst));
       List<Pair<ConstructorSymbol, Type>> types2 = new ArrayList<>();
       for (Pair<ConstructorSymbol, Type> p : types) {
         types2.add(new Pair<>(p.fst(), TypeChecker.simplify(p.snd().applySubst(subst))));
@@ -718,44 +1004,62 @@ public class SmtLibShim {
       return types2;
     }
 
+    /** Returns the type of the term passed to the last call of {@link #inferTypes(Term)}. */
+    public Type getType() {
+      return type;
+    }
+
     private List<Pair<ConstructorSymbol, Type>> inferTypes1(Term t) {
       List<Pair<ConstructorSymbol, Type>> types = new ArrayList<>();
-      t.accept(
-          new TermVisitor<Void, Type>() {
+      type =
+          t.accept(
+              new TermVisitor<Void, Type>() {
 
-            @Override
-            public Type visit(Var t, Void in) {
-              throw new AssertionError("impossible");
-            }
+                @Override
+                public Type visit(Var t, Void in) {
+                  throw new AssertionError("impossible");
+                }
 
-            @Override
-            public Type visit(Constructor c, Void in) {
-              ConstructorSymbol sym = c.getSymbol();
-              FunctorType ft = sym.getCompileTimeType().freshen();
-              Type ty = ft.getRetType();
-              if (needsTypeAnnotation(sym)) {
-                types.add(new Pair<>(sym, ty));
-              }
-              if (!(c instanceof SolverVariable)) {
-                Iterator<Type> it = ft.getArgTypes().iterator();
-                for (Term tt : c.getArgs()) {
-                  constraints.add(new Pair<>(tt.accept(this, in), it.next()));
+                @Override
+                public Type visit(Constructor c, Void in) {
+                  // Mirror print(SmtLibTerm), which does not descend into defined subterms.
+                  if (shareSubterms) {
+                    Definition def = lookupDefinition(c, boundVars);
+                    if (def != null) {
+                      return def.type;
+                    }
+                  }
+                  ConstructorSymbol sym = c.getSymbol();
+                  FunctorType ft = sym.getCompileTimeType().freshen();
+                  Type ty = ft.getRetType();
+                  if (needsTypeAnnotation(sym)) {
+                    types.add(new Pair<>(sym, ty));
+                  }
+                  if (!(c instanceof SolverVariable)) {
+                    int n = boundVars.size();
+                    if (shareSubterms) {
+                      boundVars.addAll(getBoundVars(c));
+                    }
+                    Iterator<Type> it = ft.getArgTypes().iterator();
+                    for (Term tt : c.getArgs()) {
+                      constraints.add(new Pair<>(tt.accept(this, in), it.next()));
+                    }
+                    boundVars.subList(n, boundVars.size()).clear();
+                  }
+                  return ty;
                 }
-              }
-              return ty;
-            }
 
-            @Override
-            public Type visit(Primitive<?> p, Void in) {
-              return p.getType().freshen();
-            }
+                @Override
+                public Type visit(Primitive<?> p, Void in) {
+                  return p.getType().freshen();
+                }
 
-            @Override
-            public Type visit(Expr expr, Void in) {
-              throw new AssertionError("impossible");
-            }
-          },
-          null);
+                @Override
+                public Type visit(Expr expr, Void in) {
+                  throw new AssertionError("impossible");
+                }
+              },
+              null);
       return types;
     }
 
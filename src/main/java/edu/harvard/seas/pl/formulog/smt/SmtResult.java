@@ -20,6 +20,8 @@
 package edu.harvard.seas.pl.formulog.smt;
 
 import edu.harvard.seas.pl.formulog.ast.Model;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import java.util.Set;
 
 public class SmtResult {
 
@@ -27,12 +29,20 @@ public class SmtResult {
   public final Model model;
   public final int solverId;
   public final int taskId;
+  // The conjuncts of an unsatisfiable query that suffice for unsatisfiability (if requested).
+  public final Set<SmtLibTerm> unsatCore;
 
   public SmtResult(SmtStatus status, Model model, int solverId, int taskId) {
+    this(status, model, solverId, taskId, null);
+  }
+
+  public SmtResult(
+      SmtStatus status, Model model, int solverId, int taskId, Set<SmtLibTerm> unsatCore) {
     this.status = status;
     this.model = model;
     this.solverId = solverId;
     this.taskId = taskId;
+    this.unsatCore = unsatCore;
   }
 
   @Override
@@ -43,6 +53,7 @@ public class SmtResult {
     result = prime * result + solverId;
     result = prime * result + ((status == null) ? 0 : status.hashCode());
     result = prime * result + taskId;
+    result = prime * result + ((unsatCore == null) ? 0 : unsatCore.hashCode());
     return result;
   }
 
@@ -58,6 +69,9 @@ public class SmtResult {
     if (solverId != other.solverId) return false;
     if (status != other.status) return false;
     if (taskId != other.taskId) return false;
+    if (unsatCore == null) {
+      if (other.unsatCore != null) return false;
+    } else if (!unsatCore.equals(other.unsatCore)) return false;
     return true;
   }
 
@@ -71,6 +85,8 @@ public class SmtResult {
         + solverId
         + ", taskId="
         + taskId
+        + ", unsatCore="
+        + unsatCore
         + "]";
   }
 }
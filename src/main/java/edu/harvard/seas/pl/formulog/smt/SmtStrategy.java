@@ -41,6 +41,12 @@ public class SmtStrategy {
     PER_THREAD_NAIVE,
 
     PER_THREAD_PUSH_POP_NAIVE,
+
+    PORTFOLIO,
+
+    ELASTIC,
+
+    PREFIX_TRIE,
     ;
   }
 
@@ -0,0 +1,184 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import edu.harvard.seas.pl.formulog.ast.Model;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cache of SMT results that also answers queries it has not seen before: a query is unsatisfiable
+ * if it contains the unsat core of an earlier query, and satisfiable if it is a subset of an
+ * earlier satisfiable query (any model of which is also a model of the query). Since both kinds of
+ * answers are definitive, timeouts are ignored.
+ */
+public class SubsumptionSmtCache {
+
+  private final Index unsat;
+  private final Index sat;
+  private final boolean reuseModels;
+
+  public SubsumptionSmtCache(int capacity, boolean reuseModels) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+    }
+    unsat = new Index(capacity);
+    sat = new Index(capacity);
+    this.reuseModels = reuseModels;
+  }
+
+  /**
+   * Returns the status (and, if requested, a model) of the query if it follows from an earlier
+   * result, and null otherwise.
+   */
+  public synchronized SmtResult lookup(Set<SmtLibTerm> conjuncts, boolean getModel) {
+    if (unsat.findSubsetOf(conjuncts) != null) {
+      return new SmtResult(SmtStatus.UNSATISFIABLE, null, -1, -1);
+    }
+    if (getModel && !reuseModels) {
+      return null;
+    }
+    Entry e = sat.findSupersetOf(conjuncts, getModel);
+    if (e != null) {
+      return new SmtResult(SmtStatus.SATISFIABLE, getModel ? e.model : null, -1, -1);
+    }
+    return null;
+  }
+
+  /**
+   * Records the result of a query. For unsatisfiable queries, the unsat core (a subset of the
+   * conjuncts) is recorded if there is one, and otherwise the whole query.
+   */
+  public synchronized void record(
+      Set<SmtLibTerm> conjuncts, SmtStatus status, Model model, Set<SmtLibTerm> unsatCore) {
+    switch (status) {
+      case UNSATISFIABLE:
+        unsat.add(unsatCore == null || unsatCore.isEmpty() ? conjuncts : unsatCore, null);
+        break;
+      case SATISFIABLE:
+        sat.add(conjuncts, model);
+        break;
+      case UNKNOWN:
+        break;
+    }
+  }
+
+  private static class Entry {
+
+    private final Set<SmtLibTerm> conjuncts;
+    private final Model model;
+
+    public Entry(Set<SmtLibTerm> conjuncts, Model model) {
+      this.conjuncts = conjuncts;
+      this.model = model;
+    }
+  }
+
+  /**
+   * Conjunct sets indexed by the conjuncts they contain; the oldest ones are evicted first. Each
+   * set is stored at most once, since the same query is often recorded many times (for instance,
+   * when its result comes from another cache).
+   */
+  private static class Index {
+
+    private final int capacity;
+    private final Map<SmtLibTerm, Set<Entry>> postings = new HashMap<>();
+    private final Map<Set<SmtLibTerm>, Entry> byConjuncts = new HashMap<>();
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    public Index(int capacity) {
+      this.capacity = capacity;
+    }
+
+    public void add(Set<SmtLibTerm> conjuncts, Model model) {
+      Entry old = byConjuncts.get(conjuncts);
+      if (old != null) {
+        // Only replace the entry if that gains a model.
+        if (model == null || old.model != null) {
+          return;
+        }
+        entries.remove(old);
+        remove(old);
+      }
+      Entry e = new Entry(new HashSet<>(conjuncts), model);
+      for (SmtLibTerm conjunct : e.conjuncts) {
+        postings.computeIfAbsent(conjunct, k -> new HashSet<>()).add(e);
+      }
+      byConjuncts.put(e.conjuncts, e);
+      entries.addLast(e);
+      if (entries.size() > capacity) {
+        remove(entries.removeFirst());
+      }
+    }
+
+    private void remove(Entry e) {
+      byConjuncts.remove(e.conjuncts);
+      for (SmtLibTerm conjunct : e.conjuncts) {
+        Set<Entry> s = postings.get(conjunct);
+        s.remove(e);
+        if (s.isEmpty()) {
+          postings.remove(conjunct);
+        }
+      }
+    }
+
+    public Entry findSubsetOf(Set<SmtLibTerm> query) {
+      Map<Entry, Integer> counts = new HashMap<>();
+      for (SmtLibTerm conjunct : query) {
+        for (Entry e : postings.getOrDefault(conjunct, Collections.emptySet())) {
+          int n = counts.merge(e, 1, Integer::sum);
+          if (n == e.conjuncts.size()) {
+            return e;
+          }
+        }
+      }
+      return null;
+    }
+
+    public Entry findSupersetOf(Set<SmtLibTerm> query, boolean needModel) {
+      // Every superset of the query contains its rarest conjunct.
+      Set<Entry> candidates = null;
+      for (SmtLibTerm conjunct : query) {
+        Set<Entry> s = postings.get(conjunct);
+        if (s == null) {
+          return null;
+        }
+        if (candidates == null || s.size() < candidates.size()) {
+          candidates = s;
+        }
+      }
+      if (candidates == null) {
+        return null;
+      }
+      for (Entry e : candidates) {
+        if ((!needModel || e.model != null) && e.conjuncts.containsAll(query)) {
+          return e;
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -40,6 +40,11 @@ public abstract class AbstractWrappedRelationSymbol<R extends RelationSymbol>
     return baseSymbol.getCompileTimeType();
   }
 
+  @Override
+  public boolean hasCompileTimeType() {
+    return baseSymbol.hasCompileTimeType();
+  }
+
   @Override
   public int getArity() {
     return baseSymbol.getArity();
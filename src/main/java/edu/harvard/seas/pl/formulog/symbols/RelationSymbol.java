@@ -32,4 +32,12 @@ public interface RelationSymbol extends TypedSymbol {
   boolean isBottomUp();
 
   boolean isTopDown();
+
+  /**
+   * Returns whether {@link #getCompileTimeType()} is defined; some of the relations introduced by
+   * the magic set transformation are untyped.
+   */
+  default boolean hasCompileTimeType() {
+    return true;
+  }
 }
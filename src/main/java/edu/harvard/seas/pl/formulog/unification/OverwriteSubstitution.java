@@ -21,48 +21,94 @@ package edu.harvard.seas.pl.formulog.unification;
 
 import edu.harvard.seas.pl.formulog.ast.Term;
 import edu.harvard.seas.pl.formulog.ast.Var;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * A substitution whose bindings can be overwritten. Variables that have been assigned a slot (see
+ * {@link Var#getSlot()}) are bound in a plain array indexed by their slot; any other variables
+ * (e.g., those bound by a match expression) fall back to a hash map.
+ */
 public class OverwriteSubstitution implements Substitution {
 
-  private final Map<Var, Term> m;
+  private final Term[] slots;
+  private final Var[] keys;
+  private Map<Var, Term> m;
 
   public OverwriteSubstitution() {
-    this(new HashMap<>());
+    this(0);
+  }
+
+  public OverwriteSubstitution(int numSlots) {
+    this(new Term[numSlots], new Var[numSlots], null);
   }
 
-  private OverwriteSubstitution(Map<Var, Term> m) {
+  private OverwriteSubstitution(Term[] slots, Var[] keys, Map<Var, Term> m) {
+    this.slots = slots;
+    this.keys = keys;
     this.m = m;
   }
 
   @Override
   public void put(Var v, Term t) {
-    m.put(v, t);
+    int slot = v.getSlot();
+    if (slot >= 0 && slot < slots.length) {
+      slots[slot] = t;
+      keys[slot] = v;
+    } else {
+      if (m == null) {
+        m = new HashMap<>();
+      }
+      m.put(v, t);
+    }
   }
 
   @Override
   public Term get(Var v) {
-    assert m.containsKey(v);
+    assert containsKey(v);
+    int slot = v.getSlot();
+    if (slot >= 0 && slot < slots.length) {
+      return slots[slot];
+    }
     return m.get(v);
   }
 
   @Override
   public boolean containsKey(Var v) {
-    return m.containsKey(v);
+    int slot = v.getSlot();
+    if (slot >= 0 && slot < slots.length) {
+      return keys[slot] == v;
+    }
+    return m != null && m.containsKey(v);
   }
 
   @Override
   public Iterable<Var> iterateKeys() {
-    return m.keySet();
+    List<Var> l = new ArrayList<>();
+    for (Var x : keys) {
+      if (x != null) {
+        l.add(x);
+      }
+    }
+    if (m != null) {
+      l.addAll(m.keySet());
+    }
+    return l;
   }
 
   public OverwriteSubstitution copy() {
-    return new OverwriteSubstitution(new HashMap<>(m));
+    return new OverwriteSubstitution(
+        slots.clone(), keys.clone(), m == null ? null : new HashMap<>(m));
   }
 
   @Override
   public String toString() {
-    return m.toString();
+    Map<Var, Term> all = new HashMap<>();
+    for (Var x : iterateKeys()) {
+      all.put(x, get(x));
+    }
+    return all.toString();
   }
 }
@@ -0,0 +1,292 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * A thread-safe cache that holds at most a fixed number of entries, evicting them in
+ * least-recently-used, first-in-first-out or least-frequently-used order. Entries are spread over
+ * independently locked segments, so the bound and the eviction order are only approximate across
+ * segments.
+ */
+public class BoundedCache<K, V> {
+
+  public enum Eviction {
+    LRU,
+    FIFO,
+    LFU
+  }
+
+  private static final int NUM_SEGMENTS = 16;
+
+  private final Segment<K, V>[] segments;
+
+  public BoundedCache(int capacity, Eviction eviction) {
+    this(capacity, eviction, null);
+  }
+
+  /**
+   * Creates a cache that calls the given listener (if not null) on every entry it evicts to stay
+   * within its capacity. The listener is called while holding a segment lock.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public BoundedCache(int capacity, Eviction eviction, BiConsumer<K, V> evictionListener) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+    }
+    int n = Math.min(NUM_SEGMENTS, capacity);
+    segments = new Segment[n];
+    for (int i = 0; i < n; ++i) {
+      int segCapacity = capacity / n + (i < capacity % n ? 1 : 0);
+      switch (eviction) {
+        case LRU:
+          segments[i] = new LinkedSegment<>(segCapacity, true, evictionListener);
+          break;
+        case FIFO:
+          segments[i] = new LinkedSegment<>(segCapacity, false, evictionListener);
+          break;
+        case LFU:
+          segments[i] = new LfuSegment<>(segCapacity, evictionListener);
+          break;
+      }
+    }
+  }
+
+  private Segment<K, V> segmentFor(Object key) {
+    int h = key.hashCode();
+    h ^= h >>> 16;
+    return segments[Math.floorMod(h, segments.length)];
+  }
+
+  /** Returns the value cached for the key, or null if there is none. */
+  public V get(K key) {
+    Segment<K, V> s = segmentFor(key);
+    synchronized (s) {
+      return s.get(key);
+    }
+  }
+
+  public void put(K key, V val) {
+    Segment<K, V> s = segmentFor(key);
+    synchronized (s) {
+      s.put(key, val);
+    }
+  }
+
+  /**
+   * Caches the value for the key unless some value is already cached for it, in which case that
+   * value is returned (and counts as a use of the entry); otherwise returns null.
+   */
+  public V putIfAbsent(K key, V val) {
+    Segment<K, V> s = segmentFor(key);
+    synchronized (s) {
+      V old = s.get(key);
+      if (old == null) {
+        s.put(key, val);
+      }
+      return old;
+    }
+  }
+
+  /** Removes the entry for the key if the given value is cached for it. */
+  public boolean remove(K key, V val) {
+    Segment<K, V> s = segmentFor(key);
+    synchronized (s) {
+      V cur = s.get(key);
+      if (cur == null || !cur.equals(val)) {
+        return false;
+      }
+      s.remove(key);
+      return true;
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment<K, V> s : segments) {
+      synchronized (s) {
+        size += s.size();
+      }
+    }
+    return size;
+  }
+
+  public void clear() {
+    for (Segment<K, V> s : segments) {
+      synchronized (s) {
+        s.clear();
+      }
+    }
+  }
+
+  private interface Segment<K, V> {
+
+    V get(Object key);
+
+    V put(K key, V val);
+
+    V remove(Object key);
+
+    int size();
+
+    void clear();
+  }
+
+  private static class LinkedSegment<K, V> extends LinkedHashMap<K, V> implements Segment<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+    private final transient BiConsumer<K, V> evictionListener;
+
+    public LinkedSegment(int capacity, boolean accessOrder, BiConsumer<K, V> evictionListener) {
+      super(16, 0.75f, accessOrder);
+      this.capacity = capacity;
+      this.evictionListener = evictionListener;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      if (size() > capacity) {
+        if (evictionListener != null) {
+          evictionListener.accept(eldest.getKey(), eldest.getValue());
+        }
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Evicts the least frequently used entry, breaking ties by evicting the one that reached its
+   * frequency first; all operations take constant time.
+   */
+  private static class LfuSegment<K, V> implements Segment<K, V> {
+
+    private final int capacity;
+    private final BiConsumer<K, V> evictionListener;
+    private final Map<K, Node<V>> entries = new HashMap<>();
+    private final Map<Long, LinkedHashSet<K>> buckets = new HashMap<>();
+    private long minFreq;
+
+    public LfuSegment(int capacity, BiConsumer<K, V> evictionListener) {
+      this.capacity = capacity;
+      this.evictionListener = evictionListener;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+      Node<V> node = entries.get(key);
+      if (node == null) {
+        return null;
+      }
+      touch((K) key, node);
+      return node.val;
+    }
+
+    @Override
+    public V put(K key, V val) {
+      Node<V> node = entries.get(key);
+      if (node != null) {
+        V old = node.val;
+        node.val = val;
+        touch(key, node);
+        return old;
+      }
+      if (entries.size() >= capacity) {
+        evict();
+      }
+      entries.put(key, new Node<>(val));
+      buckets.computeIfAbsent(1L, k -> new LinkedHashSet<>()).add(key);
+      minFreq = 1;
+      return null;
+    }
+
+    private void touch(K key, Node<V> node) {
+      LinkedHashSet<K> bucket = buckets.get(node.freq);
+      bucket.remove(key);
+      if (bucket.isEmpty()) {
+        buckets.remove(node.freq);
+        if (minFreq == node.freq) {
+          minFreq++;
+        }
+      }
+      node.freq++;
+      buckets.computeIfAbsent(node.freq, k -> new LinkedHashSet<>()).add(key);
+    }
+
+    // This can leave minFreq pointing at an empty bucket, but the segment is then no longer full,
+    // so the next put resets minFreq before anything is evicted.
+    @Override
+    public V remove(Object key) {
+      Node<V> node = entries.remove(key);
+      if (node == null) {
+        return null;
+      }
+      LinkedHashSet<K> bucket = buckets.get(node.freq);
+      bucket.remove(key);
+      if (bucket.isEmpty()) {
+        buckets.remove(node.freq);
+      }
+      return node.val;
+    }
+
+    private void evict() {
+      LinkedHashSet<K> bucket = buckets.get(minFreq);
+      Iterator<K> it = bucket.iterator();
+      K key = it.next();
+      it.remove();
+      if (bucket.isEmpty()) {
+        buckets.remove(minFreq);
+      }
+      Node<V> node = entries.remove(key);
+      if (evictionListener != null) {
+        evictionListener.accept(key, node.val);
+      }
+    }
+
+    @Override
+    public int size() {
+      return entries.size();
+    }
+
+    @Override
+    public void clear() {
+      entries.clear();
+      buckets.clear();
+    }
+
+    private static class Node<V> {
+      V val;
+      long freq = 1;
+
+      Node(V val) {
+        this.val = val;
+      }
+    }
+  }
+}
@@ -34,6 +34,14 @@ public class CountingFJPImpl implements CountingFJP {
   private volatile EvaluationException failureCause;
 
   public CountingFJPImpl(int parallelism) {
+    this(parallelism, 0);
+  }
+
+  /**
+   * Creates a pool that can run up to the given number of spare workers while workers are blocked
+   * in a {@link ManagedCall}; once all spares are in use, blocked workers are not replaced.
+   */
+  public CountingFJPImpl(int parallelism, int maxSpares) {
     this.exec =
         new ForkJoinPool(
             parallelism,
@@ -45,7 +53,13 @@ public class CountingFJPImpl implements CountingFJP {
                 System.err.println(e);
               }
             },
-            false);
+            false,
+            0,
+            parallelism + maxSpares,
+            1,
+            pool -> true,
+            60,
+            TimeUnit.SECONDS);
   }
 
   public void externallyAddTask(AbstractFJPTask w) {
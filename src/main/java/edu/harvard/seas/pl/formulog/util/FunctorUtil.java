@@ -19,11 +19,15 @@
  */
 package edu.harvard.seas.pl.formulog.util;
 
+import edu.harvard.seas.pl.formulog.Configuration;
+import edu.harvard.seas.pl.formulog.ast.Functor;
 import edu.harvard.seas.pl.formulog.ast.Term;
 import edu.harvard.seas.pl.formulog.symbols.Symbol;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Supplier;
 
 public final class FunctorUtil {
@@ -71,9 +75,30 @@ public final class FunctorUtil {
   //
   // }
 
-  public static class Memoizer<T extends Term> {
+  /**
+   * A concurrent open-addressing table for hash-consing functors, keyed on their symbol and
+   * arguments. Lookups that hit do not lock or allocate; insertions are serialized. In weak mode
+   * (see {@link Configuration#weakInterning}), the table only weakly holds on to its values, and
+   * the slots of collected values are reused or dropped when the table is resized.
+   */
+  public static class Memoizer<T extends Functor<?>> {
 
-    private final Map<Key, T> memo = new ConcurrentHashMap<>();
+    private static final int initialCapacity = 1024;
+
+    private final boolean weak;
+    // Each slot holds either null, a value, or (in weak mode) a weak reference to a value.
+    private volatile AtomicReferenceArray<Object> table;
+    // The number of non-null slots; guarded by this.
+    private int used;
+
+    public Memoizer() {
+      this(Configuration.weakInterning);
+    }
+
+    public Memoizer(boolean weak) {
+      this.weak = weak;
+      table = new AtomicReferenceArray<>(initialCapacity);
+    }
 
     public T lookupOrCreate(Symbol sym, Term[] args, Supplier<T> constructor) {
       if (sym.getArity() != args.length) {
@@ -87,54 +112,121 @@ public final class FunctorUtil {
                 + " have arity "
                 + args.length);
       }
-      Key key = new Key(sym, args);
-      T f = memo.get(key);
+      int h = hash(sym, args);
+      T f = lookup(table, sym, args, h);
       if (f == null) {
-        f = constructor.get();
-        T f2 = memo.putIfAbsent(key, f);
-        if (f2 != null) {
-          f = f2;
-        }
+        f = insert(sym, args, h, constructor.get());
       }
       return f;
     }
 
-    private static class Key {
+    /** Returns the value for the given symbol and arguments, or null if there is none. */
+    public T lookup(Symbol sym, Term[] args) {
+      return lookup(table, sym, args, hash(sym, args));
+    }
 
-      private final Symbol sym;
-      private final Term[] args;
-      private final int hashCode;
+    private T lookup(AtomicReferenceArray<Object> tab, Symbol sym, Term[] args, int h) {
+      int mask = tab.length() - 1;
+      for (int i = h & mask; ; i = (i + 1) & mask) {
+        Object o = tab.get(i);
+        if (o == null) {
+          return null;
+        }
+        T f = deref(o);
+        if (f != null && matches(f, sym, args)) {
+          return f;
+        }
+      }
+    }
+
+    private synchronized T insert(Symbol sym, Term[] args, int h, T f) {
+      AtomicReferenceArray<Object> tab = table;
+      int mask = tab.length() - 1;
+      int dead = -1;
+      int i = h & mask;
+      for (Object o; (o = tab.get(i)) != null; i = (i + 1) & mask) {
+        T other = deref(o);
+        if (other == null) {
+          if (dead < 0) {
+            dead = i;
+          }
+        } else if (matches(other, sym, args)) {
+          return other;
+        }
+      }
+      Object o = weak ? new WeakReference<>(f) : f;
+      if (dead >= 0) {
+        tab.set(dead, o);
+      } else {
+        tab.set(i, o);
+        if (++used * 2 > tab.length()) {
+          resize(tab);
+        }
+      }
+      return f;
+    }
 
-      public Key(Symbol sym, Term[] args) {
-        this.sym = sym;
-        this.args = args;
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + Arrays.hashCode(args);
-        result = prime * result + ((sym == null) ? 0 : sym.hashCode());
-        hashCode = result;
+    private void resize(AtomicReferenceArray<Object> tab) {
+      List<Object> live = new ArrayList<>();
+      for (int i = 0; i < tab.length(); ++i) {
+        Object o = tab.get(i);
+        if (o != null && deref(o) != null) {
+          live.add(o);
+        }
+      }
+      int cap = initialCapacity;
+      while (cap < live.size() * 4) {
+        cap <<= 1;
+      }
+      AtomicReferenceArray<Object> newTab = new AtomicReferenceArray<>(cap);
+      int mask = cap - 1;
+      for (Object o : live) {
+        T f = deref(o);
+        if (f == null) {
+          continue;
+        }
+        int i = hash(f.getSymbol(), f.getArgs()) & mask;
+        while (newTab.get(i) != null) {
+          i = (i + 1) & mask;
+        }
+        newTab.set(i, o);
       }
+      used = live.size();
+      table = newTab;
+    }
 
-      @Override
-      public int hashCode() {
-        return hashCode;
+    @SuppressWarnings("unchecked")
+    private T deref(Object o) {
+      if (weak) {
+        return ((WeakReference<T>) o).get();
       }
+      return (T) o;
+    }
 
-      @Override
-      public boolean equals(Object obj) {
-        if (this == obj) return true;
-        if (obj == null) return false;
-        if (getClass() != obj.getClass()) return false;
-        Key other = (Key) obj;
-        if (hashCode != other.hashCode) {
+    private static boolean matches(Functor<?> f, Symbol sym, Term[] args) {
+      Symbol fsym = f.getSymbol();
+      if (fsym != sym && !fsym.equals(sym)) {
+        return false;
+      }
+      Term[] fargs = f.getArgs();
+      if (fargs.length != args.length) {
+        return false;
+      }
+      for (int i = 0; i < args.length; ++i) {
+        if (fargs[i] != args[i] && !fargs[i].equals(args[i])) {
           return false;
         }
-        if (sym == null) {
-          if (other.sym != null) return false;
-        } else if (!sym.equals(other.sym)) return false;
-        if (!Arrays.equals(args, other.args)) return false;
-        return true;
       }
+      return true;
+    }
+
+    private static int hash(Symbol sym, Term[] args) {
+      int h = sym.hashCode();
+      for (Term arg : args) {
+        h = 31 * h + arg.hashCode();
+      }
+      // Spread the bits, since the table size is a power of two.
+      return h ^ (h >>> 16);
     }
   }
 }
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.util;
+
+import edu.harvard.seas.pl.formulog.Configuration;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A thread-safe table for hash-consing values. In weak mode (see {@link
+ * Configuration#weakInterning}), a value is only weakly held by the table, and its entry is removed
+ * once the value has been collected; as long as a value is reachable, looking up its key returns
+ * that same value.
+ */
+public class InternTable<K, V> {
+
+  private final Map<K, V> strong;
+  private final Map<K, Ref<K, V>> weak;
+  private final ReferenceQueue<V> queue;
+
+  public InternTable() {
+    this(Configuration.weakInterning);
+  }
+
+  public InternTable(boolean weakValues) {
+    if (weakValues) {
+      strong = null;
+      weak = new ConcurrentHashMap<>();
+      queue = new ReferenceQueue<>();
+    } else {
+      strong = new ConcurrentHashMap<>();
+      weak = null;
+      queue = null;
+    }
+  }
+
+  public V lookupOrCreate(K key, Supplier<V> cnstr) {
+    if (strong != null) {
+      return Util.lookupOrCreate(strong, key, cnstr);
+    }
+    expunge();
+    Ref<K, V> ref = weak.get(key);
+    V v;
+    if (ref != null && (v = ref.get()) != null) {
+      return v;
+    }
+    v = cnstr.get();
+    Ref<K, V> newRef = new Ref<>(key, v, queue);
+    while (true) {
+      ref = weak.putIfAbsent(key, newRef);
+      if (ref == null) {
+        return v;
+      }
+      V other = ref.get();
+      if (other != null) {
+        return other;
+      }
+      // The previous value has been collected, so it is safe to replace it.
+      if (weak.replace(key, ref, newRef)) {
+        return v;
+      }
+    }
+  }
+
+  public int size() {
+    if (strong != null) {
+      return strong.size();
+    }
+    expunge();
+    return weak.size();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void expunge() {
+    Ref<K, V> ref;
+    while ((ref = (Ref<K, V>) queue.poll()) != null) {
+      weak.remove(ref.key, ref);
+    }
+  }
+
+  private static class Ref<K, V> extends WeakReference<V> {
+
+    private final K key;
+
+    public Ref(K key, V val, ReferenceQueue<V> queue) {
+      super(val, queue);
+      this.key = key;
+    }
+  }
+}
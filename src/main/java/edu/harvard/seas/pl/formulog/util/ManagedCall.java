@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.util;
+
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs a call that might block for a long time (such as waiting on an external solver). When run
+ * from a fork-join worker, the call tells the pool that the worker is blocked, so that the pool can
+ * activate a spare worker to keep running other tasks in the meantime.
+ */
+public final class ManagedCall {
+
+  private ManagedCall() {
+    throw new AssertionError("impossible");
+  }
+
+  @FunctionalInterface
+  public interface Call<T> {
+    T call() throws EvaluationException;
+  }
+
+  public static <T> T run(Call<T> call) throws EvaluationException {
+    if (!ForkJoinTask.inForkJoinPool()) {
+      return call.call();
+    }
+    Blocker<T> blocker = new Blocker<>(call);
+    try {
+      ForkJoinPool.managedBlock(blocker);
+    } catch (InterruptedException e) {
+      throw new EvaluationException(e);
+    }
+    if (blocker.exn != null) {
+      throw blocker.exn;
+    }
+    return blocker.result;
+  }
+
+  private static class Blocker<T> implements ForkJoinPool.ManagedBlocker {
+
+    private final Call<T> call;
+    private boolean done;
+    private T result;
+    private EvaluationException exn;
+
+    public Blocker(Call<T> call) {
+      this.call = call;
+    }
+
+    @Override
+    public boolean block() {
+      try {
+        result = call.call();
+      } catch (EvaluationException e) {
+        exn = e;
+      }
+      done = true;
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return done;
+    }
+  }
+}
@@ -56,7 +56,73 @@ public class SimpleRule extends AbstractRule<SimplePredicate, SimpleLiteral> {
     BindingType[] pat = computeBindingPattern(headArgs, boundVars, varCounts);
     SimplePredicate newHead =
         SimplePredicate.make(head.getSymbol(), head.getArgs(), pat, head.isNegated());
-    return new SimpleRule(newHead, simplifier.getConjuncts());
+    return assignSlots(newHead, simplifier.getConjuncts());
+  }
+
+  /**
+   * Renames every variable of the rule to a variable with a dense slot number, so that the
+   * substitutions used to evaluate the rule can be backed by arrays.
+   */
+  private static SimpleRule assignSlots(SimplePredicate head, List<SimpleLiteral> body) {
+    Set<Var> vars = new LinkedHashSet<>();
+    for (SimpleLiteral l : body) {
+      l.varSet(vars);
+    }
+    head.varSet(vars);
+    Substitution subst = new SimpleSubstitution();
+    int slot = 0;
+    for (Var x : vars) {
+      subst.put(x, Var.withSlot(x, slot++));
+    }
+    SimpleLiteralVisitor<Void, SimpleLiteral> renamer =
+        new SimpleLiteralVisitor<Void, SimpleLiteral>() {
+
+          @Override
+          public SimpleLiteral visit(Assignment assignment, Void input) {
+            return Assignment.make(
+                (Var) subst.get(assignment.getDef()), assignment.getVal().applySubstitution(subst));
+          }
+
+          @Override
+          public SimpleLiteral visit(Check check, Void input) {
+            return Check.make(
+                check.getLhs().applySubstitution(subst),
+                check.getRhs().applySubstitution(subst),
+                check.isNegated());
+          }
+
+          @Override
+          public SimpleLiteral visit(Destructor destructor, Void input) {
+            Var[] bindings = destructor.getBindings();
+            Var[] newBindings = new Var[bindings.length];
+            for (int i = 0; i < bindings.length; ++i) {
+              newBindings[i] = (Var) subst.get(bindings[i]);
+            }
+            return Destructor.make(
+                destructor.getScrutinee().applySubstitution(subst),
+                destructor.getSymbol(),
+                newBindings);
+          }
+
+          @Override
+          public SimpleLiteral visit(SimplePredicate predicate, Void input) {
+            Term[] args = predicate.getArgs();
+            Term[] newArgs = new Term[args.length];
+            for (int i = 0; i < args.length; ++i) {
+              newArgs[i] = args[i].applySubstitution(subst);
+            }
+            return SimplePredicate.make(
+                predicate.getSymbol(),
+                newArgs,
+                predicate.getBindingPattern(),
+                predicate.isNegated());
+          }
+        };
+    List<SimpleLiteral> newBody = new ArrayList<>();
+    for (SimpleLiteral l : body) {
+      newBody.add(l.accept(renamer, null));
+    }
+    return new SimpleRule((SimplePredicate) head.accept(renamer, null), newBody);
   }
 
   // XXX This isn't great because it doesn't check to make sure the invariants of
@@ -0,0 +1,89 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.ast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class StringArenaTest {
+
+  private static final StringArena arena = StringArena.INSTANCE;
+
+  @Test
+  public void testRoundTrip() {
+    List<String> strs = Arrays.asList("", "a", "héllo wörld", "中文", "😀", "a\"b");
+    for (String s : strs) {
+      StringTerm t = arena.intern(s);
+      assertEquals(s, t.getVal());
+      assertSame(t, arena.intern(new String(s)));
+    }
+    assertNotSame(arena.intern("x"), arena.intern("y"));
+  }
+
+  @Test
+  public void testManyAndLarge() {
+    char[] cs = new char[3 << 20];
+    Arrays.fill(cs, 'z');
+    String big = new String(cs);
+    List<StringTerm> terms = new ArrayList<>();
+    for (int i = 0; i < 20000; ++i) {
+      terms.add(arena.intern("/some/long/path/" + i));
+      if (i == 10000) {
+        assertEquals(big, arena.intern(big).getVal());
+      }
+    }
+    for (int i = 0; i < 20000; ++i) {
+      assertSame(terms.get(i), arena.intern("/some/long/path/" + i));
+      assertEquals("/some/long/path/" + i, terms.get(i).getVal());
+    }
+    assertSame(arena.intern(big), arena.intern(new String(cs)));
+  }
+
+  @Test
+  public void testConcurrentInterning() throws InterruptedException {
+    StringTerm[][] results = new StringTerm[4][5000];
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; ++t) {
+      StringTerm[] res = results[t];
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < res.length; ++i) {
+                  res[i] = arena.intern("concurrent_" + i);
+                }
+              }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread t : threads) {
+      t.join();
+    }
+    for (int t = 1; t < 4; ++t) {
+      for (int i = 0; i < 5000; ++i) {
+        assertSame(results[0][i], results[t][i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ConcurrentBTreeSetTest {
+
+  private static List<Integer> toList(Iterable<Integer> xs) {
+    List<Integer> l = new ArrayList<>();
+    for (Integer x : xs) {
+      l.add(x);
+    }
+    return l;
+  }
+
+  @Test
+  public void testAddAndRange() {
+    ConcurrentBTreeSet<Integer> s = new ConcurrentBTreeSet<>(Integer::compare);
+    TreeSet<Integer> expected = new TreeSet<>();
+    assertTrue(s.isEmpty());
+    Random r = new Random(0);
+    for (int i = 0; i < 50000; ++i) {
+      int x = r.nextInt(20000);
+      assertEquals(expected.add(x), s.add(x));
+    }
+    assertFalse(s.isEmpty());
+    assertEquals(new ArrayList<>(expected), toList(s));
+    for (int i = 0; i < 100; ++i) {
+      int lo = r.nextInt(20000);
+      int hi = lo + r.nextInt(500);
+      assertEquals(new ArrayList<>(expected.subSet(lo, true, hi, true)), toList(s.range(lo, hi)));
+      assertEquals(expected.contains(lo), s.contains(lo));
+    }
+    assertEquals(new ArrayList<>(expected.headSet(100, true)), toList(s.range(null, 100)));
+    s.clear();
+    assertTrue(s.isEmpty());
+    assertEquals(Collections.emptyList(), toList(s));
+  }
+
+  @Test
+  public void testHintedAdd() {
+    ConcurrentBTreeSet<Integer> s = new ConcurrentBTreeSet<>(Integer::compare);
+    ConcurrentBTreeSet.Hint hint = new ConcurrentBTreeSet.Hint();
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 10000; ++i) {
+      assertTrue(s.add(2 * i, hint));
+      expected.add(2 * i);
+    }
+    for (int i = 9999; i >= 0; --i) {
+      assertFalse(s.add(2 * i, hint));
+      assertTrue(s.add(2 * i + 1, hint));
+      expected.add(2 * i + 1);
+    }
+    Collections.sort(expected);
+    assertEquals(expected, toList(s));
+  }
+
+  @Test
+  public void testConcurrentAddAndIterate() throws InterruptedException {
+    ConcurrentBTreeSet<Integer> s = new ConcurrentBTreeSet<>(Integer::compare);
+    int nthreads = 4;
+    int n = 50000;
+    AtomicBoolean ok = new AtomicBoolean(true);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < nthreads; ++t) {
+      int offset = t;
+      threads.add(
+          new Thread(
+              () -> {
+                Random r = new Random(offset);
+                ConcurrentBTreeSet.Hint hint = new ConcurrentBTreeSet.Hint();
+                for (int i = 0; i < n; ++i) {
+                  int x = r.nextInt(n) * nthreads + offset;
+                  s.add(x, r.nextBoolean() ? hint : null);
+                }
+              }));
+    }
+    Thread reader =
+        new Thread(
+            () -> {
+              for (int k = 0; k < 20; ++k) {
+                Iterator<Integer> it = s.iterator();
+                Integer prev = null;
+                while (it.hasNext()) {
+                  Integer x = it.next();
+                  if (prev != null && prev >= x) {
+                    ok.set(false);
+                  }
+                  prev = x;
+                }
+              }
+            });
+    threads.forEach(Thread::start);
+    reader.start();
+    for (Thread t : threads) {
+      t.join();
+    }
+    reader.join();
+    assertTrue("Iteration out of order", ok.get());
+    TreeSet<Integer> expected = new TreeSet<>();
+    for (int t = 0; t < nthreads; ++t) {
+      Random r = new Random(t);
+      for (int i = 0; i < n; ++i) {
+        expected.add(r.nextInt(n) * nthreads + t);
+        r.nextBoolean();
+      }
+    }
+    assertEquals(new ArrayList<>(expected), toList(s));
+    for (int x : expected) {
+      assertTrue(s.contains(x));
+    }
+  }
+
+  @Test
+  public void testConcurrentAddAndContains() throws InterruptedException {
+    int nthreads = 4;
+    int n = 20000;
+    for (int trial = 0; trial < 50; ++trial) {
+      ConcurrentBTreeSet<Integer> s = new ConcurrentBTreeSet<>(Integer::compare);
+      for (int i = 0; i < n; ++i) {
+        s.add(2 * i);
+      }
+      AtomicInteger progress = new AtomicInteger();
+      AtomicBoolean done = new AtomicBoolean();
+      AtomicBoolean ok = new AtomicBoolean(true);
+      List<Thread> writers = new ArrayList<>();
+      List<Thread> readers = new ArrayList<>();
+      for (int t = 0; t < nthreads; ++t) {
+        int offset = t;
+        writers.add(
+            new Thread(
+                () -> {
+                  for (int i = offset; i < n; i += nthreads) {
+                    s.add(2 * i + 1);
+                    progress.set(i);
+                  }
+                }));
+        // The readers look for elements in the leaves that the writers are splitting.
+        readers.add(
+            new Thread(
+                () -> {
+                  Random r = new Random(offset);
+                  while (!done.get()) {
+                    int i = Math.min(n - 1, progress.get() + r.nextInt(64));
+                    if (!s.contains(2 * i)) {
+                      ok.set(false);
+                    }
+                  }
+                }));
+      }
+      readers.forEach(Thread::start);
+      writers.forEach(Thread::start);
+      for (Thread t : writers) {
+        t.join();
+      }
+      done.set(true);
+      for (Thread t : readers) {
+        t.join();
+      }
+      assertTrue("An element that was present was not found", ok.get());
+    }
+  }
+}
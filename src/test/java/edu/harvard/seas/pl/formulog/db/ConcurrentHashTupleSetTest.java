@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.db;
+
+import static edu.harvard.seas.pl.formulog.db.DbTestTuples.tup;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.formulog.ast.Term;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class ConcurrentHashTupleSetTest {
+
+  @Test
+  public void testAddAndGet() {
+    ConcurrentHashTupleSet s = new ConcurrentHashTupleSet(new int[] {0, 1});
+    assertTrue(s.isEmpty());
+    for (int i = 0; i < 1000; ++i) {
+      assertTrue(s.add(tup(i, i + 1)));
+    }
+    assertFalse(s.isEmpty());
+    for (int i = 0; i < 1000; ++i) {
+      assertFalse(s.add(tup(i, i + 1)));
+      assertTrue(s.contains(tup(i, i + 1)));
+      assertFalse(s.contains(tup(i + 1, i)));
+    }
+    Set<List<Term>> all = new HashSet<>();
+    for (Term[] t : s) {
+      all.add(Arrays.asList(t));
+    }
+    assertEquals(1000, all.size());
+    s.clear();
+    assertTrue(s.isEmpty());
+    assertFalse(s.iterator().hasNext());
+  }
+
+  @Test
+  public void testPartialKey() {
+    ConcurrentHashTupleSet s = new ConcurrentHashTupleSet(new int[] {1});
+    Term[] t = tup(1, 2, 3);
+    assertTrue(s.add(t));
+    assertFalse(s.add(tup(4, 2, 5)));
+    assertSame(t, s.get(tup(0, 2, 0)));
+    assertNull(s.get(tup(1, 3, 3)));
+  }
+
+  @Test
+  public void testConcurrentAdd() throws InterruptedException {
+    ConcurrentHashTupleSet s = new ConcurrentHashTupleSet(new int[] {0});
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; ++t) {
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < 20000; ++i) {
+                  s.add(tup(i));
+                }
+              }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread t : threads) {
+      t.join();
+    }
+    int n = 0;
+    for (@SuppressWarnings("unused") Term[] tup : s) {
+      n++;
+    }
+    assertEquals(20000, n);
+  }
+}
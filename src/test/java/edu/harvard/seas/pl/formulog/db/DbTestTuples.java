@@ -0,0 +1,54 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.db;
+
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Helpers for building and comparing the tuples used in tests. */
+final class DbTestTuples {
+
+  private DbTestTuples() {
+    throw new AssertionError();
+  }
+
+  static Term[] tup(int... xs) {
+    Term[] tup = new Term[xs.length];
+    for (int i = 0; i < xs.length; ++i) {
+      tup[i] = I32.make(xs[i]);
+    }
+    return tup;
+  }
+
+  /** Collects the tuples into a set, failing if any tuple occurs more than once. */
+  static Set<List<Term>> toSet(Iterable<Term[]> tups) {
+    Set<List<Term>> s = new HashSet<>();
+    for (Term[] tup : tups) {
+      assertTrue("Duplicate tuple " + Arrays.toString(tup), s.add(Arrays.asList(tup)));
+    }
+    return s;
+  }
+}
@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.db;
+
+import static edu.harvard.seas.pl.formulog.db.DbTestTuples.toSet;
+import static edu.harvard.seas.pl.formulog.db.DbTestTuples.tup;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.harvard.seas.pl.formulog.ast.BindingType;
+import edu.harvard.seas.pl.formulog.ast.BoolTerm;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.I64;
+import edu.harvard.seas.pl.formulog.ast.StringTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.db.PackedTupleSet.Column;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class PackedTupleSetTest {
+
+  @Test
+  public void testAddAndLookup() {
+    PackedTupleSet s = new PackedTupleSet(new int[] {1, 0, 2}, 3);
+    Set<List<Term>> expected = new HashSet<>();
+    Random r = new Random(0);
+    for (int i = 0; i < 5000; ++i) {
+      Term[] t = tup(r.nextInt(20), r.nextInt(20), r.nextInt(20));
+      assertEquals(expected.add(Arrays.asList(t)), s.add(t));
+    }
+    assertEquals(expected, toSet(s));
+    for (List<Term> t : expected) {
+      assertTrue(s.contains(t.toArray(new Term[0])));
+    }
+    assertFalse(s.contains(tup(100, 0, 0)));
+    BindingType[] pat = {BindingType.FREE, BindingType.BOUND, BindingType.FREE};
+    for (int i = 0; i < 20; ++i) {
+      Set<List<Term>> sub = new HashSet<>();
+      for (List<Term> t : expected) {
+        if (t.get(1).equals(I32.make(i))) {
+          sub.add(t);
+        }
+      }
+      assertEquals(sub, toSet(s.lookup(tup(0, i, 0), pat)));
+    }
+    assertFalse(s.lookup(tup(0, 1000, 0), pat).iterator().hasNext());
+  }
+
+  @Test
+  public void testFreeze() {
+    PackedTupleSet s = new PackedTupleSet(new int[] {1, 0}, 2);
+    Set<List<Term>> expected = new HashSet<>();
+    for (int i = 0; i < 1000; ++i) {
+      Term[] t = tup(i % 7, i);
+      s.add(t);
+      expected.add(Arrays.asList(t));
+    }
+    s.freeze();
+    assertEquals(expected, toSet(s));
+    assertTrue(s.contains(tup(3, 500)));
+    assertFalse(s.contains(tup(3, 501)));
+    BindingType[] pat = {BindingType.FREE, BindingType.BOUND};
+    assertEquals(1, toSet(s.lookup(tup(0, 42), pat)).size());
+    try {
+      s.add(tup(0, 1000));
+      fail("Added to a frozen set");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    s.clear();
+    assertTrue(s.add(tup(0, 1000)));
+  }
+
+  @Test
+  public void testIllTypedKey() {
+    Column[] cols = {Column.I32, Column.TERM};
+    PackedTupleSet s = new PackedTupleSet(new int[] {0, 1}, cols, new TermDictionary());
+    s.add(tup(1, 2));
+    Term[] key = {StringTerm.make("x"), I32.make(2)};
+    assertFalse(s.contains(key));
+    BindingType[] pat = {BindingType.BOUND, BindingType.FREE};
+    assertFalse(s.lookup(key, pat).iterator().hasNext());
+  }
+
+  @Test
+  public void testIgnoredPositions() {
+    PackedTupleSet s = new PackedTupleSet(new int[] {0}, 2);
+    assertTrue(s.add(tup(1, 2)));
+    assertFalse(s.add(tup(1, 3)));
+    assertTrue(s.add(tup(2, 3)));
+    assertEquals(2, toSet(s).size());
+  }
+
+  @Test
+  public void testConcurrentAdd() throws InterruptedException {
+    PackedTupleSet s = new PackedTupleSet(new int[] {0, 1}, 2);
+    AtomicInteger added = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 8; ++i) {
+      int seed = i;
+      threads.add(
+          new Thread(
+              () -> {
+                Random r = new Random(seed);
+                for (int j = 0; j < 20000; ++j) {
+                  if (s.add(tup(r.nextInt(300), r.nextInt(300)))) {
+                    added.incrementAndGet();
+                  }
+                  // Readers run concurrently with writers.
+                  s.lookup(
+                          tup(r.nextInt(300), 0),
+                          new BindingType[] {BindingType.BOUND, BindingType.FREE})
+                      .forEach(t -> {});
+                }
+              }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread t : threads) {
+      t.join();
+    }
+    Set<List<Term>> all = toSet(s);
+    assertEquals(added.get(), all.size());
+    Set<List<Term>> expected = new HashSet<>();
+    for (int i = 0; i < 8; ++i) {
+      Random r = new Random(i);
+      for (int j = 0; j < 20000; ++j) {
+        expected.add(Arrays.asList(tup(r.nextInt(300), r.nextInt(300))));
+        r.nextInt(300);
+      }
+    }
+    assertEquals(expected, all);
+  }
+
+  @Test
+  public void testPrimitiveColumns() {
+    Column[] cols = {Column.I64, Column.TERM, Column.BOOL, Column.I32};
+    PackedTupleSet s = new PackedTupleSet(new int[] {0, 2, 3, 1}, cols, new TermDictionary());
+    long[] longs = {Long.MIN_VALUE, -1L, 0L, 1L, 1L << 32, (1L << 32) - 1, Long.MAX_VALUE};
+    Set<List<Term>> expected = new HashSet<>();
+    for (long l : longs) {
+      for (int i = 0; i < 4; ++i) {
+        Term[] t = {I64.make(l), StringTerm.make("s" + i), BoolTerm.mk(i % 2 == 0), I32.make(-i)};
+        assertTrue(s.add(t));
+        assertFalse(s.add(t));
+        expected.add(Arrays.asList(t));
+      }
+    }
+    assertEquals(expected, toSet(s));
+    BindingType[] pat = {BindingType.BOUND, BindingType.FREE, BindingType.BOUND, BindingType.FREE};
+    for (long l : longs) {
+      Term[] key = {I64.make(l), null, BoolTerm.mkTrue(), null};
+      Set<List<Term>> sub = new HashSet<>();
+      for (List<Term> t : expected) {
+        if (t.get(0) == key[0] && t.get(2) == key[2]) {
+          sub.add(t);
+        }
+      }
+      assertEquals(2, sub.size());
+      assertEquals(sub, toSet(s.lookup(key, pat)));
+    }
+    assertTrue(
+        s.contains(
+            new Term[] {I64.make(-1L), StringTerm.make("s1"), BoolTerm.mkFalse(), I32.make(-1)}));
+    assertFalse(
+        s.contains(
+            new Term[] {I64.make(2L), StringTerm.make("s1"), BoolTerm.mkFalse(), I32.make(-1)}));
+  }
+}
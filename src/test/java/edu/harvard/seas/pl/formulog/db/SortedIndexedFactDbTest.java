@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.db;
+
+import static edu.harvard.seas.pl.formulog.db.DbTestTuples.toSet;
+import static edu.harvard.seas.pl.formulog.db.DbTestTuples.tup;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.harvard.seas.pl.formulog.ast.BindingType;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb.SortedIndexedFactDbBuilder;
+import edu.harvard.seas.pl.formulog.eval.SemiNaiveEvaluation;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+public class SortedIndexedFactDbTest {
+
+  @Test
+  public void testFrozenRelation() throws Exception {
+    RelationSymbol e =
+        (RelationSymbol)
+            new Parser()
+                .parse(new StringReader("rel e(i32, i32)"))
+                .getSymbolManager()
+                .lookupSymbol("e");
+    SortedIndexedFactDbBuilder dbb = new SortedIndexedFactDbBuilder(Collections.singleton(e));
+    BindingType[] byFst = {BindingType.BOUND, BindingType.FREE};
+    BindingType[] bySnd = {BindingType.FREE, BindingType.BOUND};
+    BindingType[] byBoth = {BindingType.BOUND, BindingType.BOUND};
+    int fst = dbb.makeIndex(e, byFst);
+    int snd = dbb.makeIndex(e, bySnd);
+    int both = dbb.makeIndex(e, byBoth);
+    SortedIndexedFactDb db = dbb.build();
+    for (int i = 0; i < 100; ++i) {
+      db.add(e, tup(i % 10, i));
+    }
+    db.freeze(e);
+    assertEquals(100, db.countDistinct(e));
+    assertTrue(db.hasFact(e, tup(3, 43)));
+    assertFalse(db.hasFact(e, tup(3, 44)));
+    assertEquals(10, toSet(db.get(e, tup(3, 0), fst)).size());
+    assertEquals(Set.of(List.of(tup(2, 42))), toSet(db.get(e, tup(0, 42), snd)));
+    assertEquals(Set.of(List.of(tup(2, 42))), toSet(db.get(e, tup(2, 42), both)));
+    assertTrue(toSet(db.get(e, tup(3, 42), both)).isEmpty());
+
+    // Dropped indices are rebuilt from the frozen master index.
+    db.retainIndices(e, Collections.singleton(fst));
+    db.activateIndices(e, List.of(snd, both));
+    assertEquals(Set.of(List.of(tup(7, 77))), toSet(db.get(e, tup(0, 77), snd)));
+    assertEquals(Set.of(List.of(tup(7, 77))), toSet(db.get(e, tup(7, 77), both)));
+    assertEquals(10, toSet(db.get(e, tup(3, 0), fst)).size());
+
+    try {
+      db.add(e, tup(0, 100));
+      fail("Expected adding to a frozen relation to fail");
+    } catch (IllegalStateException ex) {
+      assertTrue(ex.getMessage().contains(e.toString()));
+    }
+    try {
+      db.addAll(e, List.<Term[]>of(tup(0, 100)));
+      fail("Expected adding to a frozen relation to fail");
+    } catch (IllegalStateException ex) {
+      // expected
+    }
+  }
+
+  private static final int chainLength = 200;
+
+  /*
+   * Computes the transitive closure of a chain by doubling, so that later rounds have deltas of
+   * thousands of facts, and checks that every index of the relation ends up holding each fact of
+   * the closure exactly once.
+   */
+  private static void checkClosure(boolean eagerEval) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    sb.append("@edb rel edge(i32, i32).\nrel path(i32, i32).\n");
+    for (int i = 0; i + 1 < chainLength; ++i) {
+      sb.append("edge(" + i + ", " + (i + 1) + ").\n");
+    }
+    sb.append("path(X, Y) :- edge(X, Y).\n");
+    sb.append("path(X, Z) :- path(X, Y), path(Y, Z).\n");
+    SemiNaiveEvaluation eval =
+        SemiNaiveEvaluation.setup(
+            new TypeChecker(new Parser().parse(new StringReader(sb.toString()))).typeCheck(),
+            4,
+            eagerEval);
+    eval.run();
+    SortedIndexedFactDb db = eval.getDb();
+    RelationSymbol path =
+        (RelationSymbol) eval.getInputProgram().getSymbolManager().lookupSymbol("path");
+
+    Set<List<Term>> expected = new HashSet<>();
+    for (int i = 0; i < chainLength; ++i) {
+      for (int j = i + 1; j < chainLength; ++j) {
+        expected.add(Arrays.asList(tup(i, j)));
+      }
+    }
+    assertEquals(expected, toSet(db.getAll(path)));
+    assertEquals(expected.size() * db.numIndices(path), db.countDuplicates(path));
+    for (int idx = 0; idx < db.numIndices(path); ++idx) {
+      BindingType[] pat = db.getIndexInfo(path, idx).getPattern();
+      Map<List<Term>, Set<List<Term>>> byKey = new HashMap<>();
+      for (List<Term> fact : expected) {
+        List<Term> key =
+            Arrays.asList(
+                pat[0].isBound() ? fact.get(0) : I32.make(0),
+                pat[1].isBound() ? fact.get(1) : I32.make(0));
+        byKey.computeIfAbsent(key, k -> new HashSet<>()).add(fact);
+      }
+      for (Map.Entry<List<Term>, Set<List<Term>>> e : byKey.entrySet()) {
+        Term[] key = e.getKey().toArray(new Term[0]);
+        assertEquals(e.getValue(), toSet(db.get(path, key, idx)));
+      }
+    }
+  }
+
+  @Test
+  public void testRoundBasedStratum() throws Exception {
+    checkClosure(false);
+  }
+
+  @Test
+  public void testEagerStratum() throws Exception {
+    checkClosure(true);
+  }
+}
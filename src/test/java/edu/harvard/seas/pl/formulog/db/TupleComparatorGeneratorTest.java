@@ -0,0 +1,53 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Terms;
+import java.util.Comparator;
+import org.junit.Test;
+
+public class TupleComparatorGeneratorTest {
+
+  private static Term[] tup(long... ids) {
+    Term[] tup = new Term[ids.length];
+    for (int i = 0; i < ids.length; ++i) {
+      tup[i] = Terms.makeDummyTerm(ids[i]);
+    }
+    return tup;
+  }
+
+  @Test
+  public void testIdsBeyondIntRange() throws Exception {
+    Comparator<Term[]> cmp = new TupleComparatorGenerator().generate(new int[] {1, 0});
+    long big = Integer.MAX_VALUE + 1L;
+    assertTrue(cmp.compare(tup(0, 1), tup(0, big)) < 0);
+    assertTrue(cmp.compare(tup(0, big), tup(0, 1)) > 0);
+    assertTrue(cmp.compare(tup(big, 5), tup(1, 5)) > 0);
+    assertEquals(0, cmp.compare(tup(big, big), tup(big, big)));
+    Term[] min = new Term[] {Terms.minTerm, Terms.minTerm};
+    Term[] max = new Term[] {Terms.maxTerm, Terms.maxTerm};
+    assertTrue(cmp.compare(min, tup(-big, -big)) < 0);
+    assertTrue(cmp.compare(max, tup(big, big)) > 0);
+  }
+}
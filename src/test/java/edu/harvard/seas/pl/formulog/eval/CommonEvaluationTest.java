@@ -909,4 +909,9 @@ public abstract class CommonEvaluationTest<T extends Evaluation> extends Abstrac
   public void test345() {
     test("test345_ok.flg");
   }
+
+  @Test
+  public void test346() {
+    test("test346_ok.flg");
+  }
 }
@@ -0,0 +1,77 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.eval;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.formulog.ast.BasicRule;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb;
+import edu.harvard.seas.pl.formulog.db.SortedIndexedFactDb.SortedIndexedFactDbBuilder;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
+import edu.harvard.seas.pl.formulog.validating.ast.SimplePredicate;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+public class CostBasedPlannerTest {
+
+  private static final String program =
+      "rel a(i32)\n" + "rel b(i32, i32)\n" + "rel r(i32, i32)\n" + "r(X, Y) :- a(X), b(X, Y).\n";
+
+  /** Plans the rule for r after filling a and b with the given numbers of tuples. */
+  private static RelationSymbol firstAtom(int sizeA, int sizeB) throws Exception {
+    WellTypedProgram prog =
+        new TypeChecker(new Parser().parse(new StringReader(program))).typeCheck();
+    RelationSymbol a = (RelationSymbol) prog.getSymbolManager().lookupSymbol("a");
+    RelationSymbol b = (RelationSymbol) prog.getSymbolManager().lookupSymbol("b");
+    RelationSymbol r = (RelationSymbol) prog.getSymbolManager().lookupSymbol("r");
+    Set<RelationSymbol> syms = new HashSet<>();
+    syms.add(a);
+    syms.add(b);
+    syms.add(r);
+    SortedIndexedFactDb db = new SortedIndexedFactDbBuilder(syms).build();
+    SortedIndexedFactDb deltaDb = new SortedIndexedFactDbBuilder(Collections.emptySet()).build();
+    for (int i = 0; i < sizeA; ++i) {
+      db.add(a, new Term[] {I32.make(i)});
+    }
+    for (int i = 0; i < sizeB; ++i) {
+      db.add(b, new Term[] {I32.make(i), I32.make(-i)});
+    }
+    CostBasedPlanner planner =
+        new CostBasedPlanner(
+            db, deltaDb, deltaDb, prog.getFunctionCallFactory(), Collections.emptyMap());
+    BasicRule rule = prog.getRules(r).iterator().next();
+    IndexedRule planned = planner.plan(rule, Collections.singleton(r));
+    return ((SimplePredicate) planned.getBody(0)).getSymbol();
+  }
+
+  @Test
+  public void testSmallerRelationFirst() throws Exception {
+    assertEquals("a", firstAtom(3, 1000).toString());
+    assertEquals("b", firstAtom(1000, 3).toString());
+  }
+}
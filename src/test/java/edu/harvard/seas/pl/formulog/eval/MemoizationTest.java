@@ -0,0 +1,67 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.eval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.formulog.ast.BasicProgram;
+import edu.harvard.seas.pl.formulog.ast.FunctionCallFactory;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.FunctionSymbol;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.symbols.SymbolManager;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
+import java.io.InputStreamReader;
+import org.junit.Test;
+
+public class MemoizationTest {
+
+  @Test
+  public void testMemoCounters() throws Exception {
+    BasicProgram prog =
+        new Parser()
+            .parse(
+                new InputStreamReader(
+                    getClass().getClassLoader().getResourceAsStream("test346_ok.flg")));
+    WellTypedProgram wellTypedProg = new TypeChecker(prog).typeCheck();
+    SemiNaiveEvaluation eval = SemiNaiveEvaluation.setup(wellTypedProg, 1, false);
+    eval.run();
+    SymbolManager sm = eval.getInputProgram().getSymbolManager();
+    assertTrue(
+        eval.getResult().getAll((RelationSymbol) sm.lookupSymbol("ok")).iterator().hasNext());
+    FunctionCallFactory f = eval.getInputProgram().getFunctionCallFactory();
+    // Each of fib(0) to fib(30) is computed once; fib(n - 2) is then found for n >= 3.
+    FunctionSymbol fib = (FunctionSymbol) sm.lookupSymbol("fib");
+    assertEquals(31, f.getMemoMisses(fib));
+    assertEquals(28, f.getMemoHits(fib));
+    // Calls to a @nomemo function do not even look in the table.
+    FunctionSymbol inc = (FunctionSymbol) sm.lookupSymbol("inc");
+    assertEquals(0, f.getMemoMisses(inc));
+    assertEquals(0, f.getMemoHits(inc));
+    // is_even(10) computes is_odd(7) on the way down.
+    FunctionSymbol isEven = (FunctionSymbol) sm.lookupSymbol("is_even");
+    FunctionSymbol isOdd = (FunctionSymbol) sm.lookupSymbol("is_odd");
+    assertEquals(6, f.getMemoMisses(isEven));
+    assertEquals(5, f.getMemoMisses(isOdd));
+    assertEquals(1, f.getMemoHits(isOdd));
+  }
+}
@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.eval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import edu.harvard.seas.pl.formulog.ast.BasicProgram;
+import edu.harvard.seas.pl.formulog.ast.UserPredicate;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.RelationSymbol;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import edu.harvard.seas.pl.formulog.types.WellTypedProgram;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+public class RuleBodyGeneratorTest {
+
+  private static final String[] relations = {"path", "open_path", "dist", "cycle"};
+
+  // The rules cover joins, negation, function calls, assignments, and checks.
+  private static final String program =
+      String.join(
+          "\n",
+          "@edb rel edge(i32, i32).",
+          "@edb rel blocked(i32).",
+          "rel path(i32, i32).",
+          "rel open_path(i32, i32).",
+          "rel dist(i32, i32).",
+          "rel cycle(i32).",
+          "fun double(X: i32) : i32 = X * 2.",
+          "edge(1, 2). edge(2, 3). edge(3, 4). edge(4, 1). edge(4, 5). edge(5, 6).",
+          "blocked(3).",
+          "path(X, Y) :- edge(X, Y).",
+          "path(X, Z) :- path(X, Y), edge(Y, Z).",
+          "open_path(X, Y) :- path(X, Y), !blocked(Y).",
+          "dist(X, D) :- path(X, Y), D = double(Y) + 1.",
+          "cycle(X) :- path(X, Y), path(Y, X), X != Y.");
+
+  private static Map<String, Set<String>> run(boolean eagerEval, boolean genRuleBodies)
+      throws Exception {
+    BasicProgram prog = new Parser().parse(new StringReader(program));
+    WellTypedProgram wellTypedProg = new TypeChecker(prog).typeCheck();
+    SemiNaiveEvaluation eval =
+        SemiNaiveEvaluation.setup(wellTypedProg, 2, eagerEval, genRuleBodies);
+    eval.run();
+    Map<String, Set<String>> facts = new HashMap<>();
+    for (String name : relations) {
+      RelationSymbol sym =
+          (RelationSymbol) eval.getInputProgram().getSymbolManager().lookupSymbol(name);
+      Set<String> s = new HashSet<>();
+      for (UserPredicate fact : eval.getResult().getAll(sym)) {
+        s.add(fact.toString());
+      }
+      facts.put(name, s);
+    }
+    return facts;
+  }
+
+  @Test
+  public void testRoundBasedMatchesInterpreter() throws Exception {
+    Map<String, Set<String>> expected = run(false, false);
+    for (Set<String> s : expected.values()) {
+      assertFalse(s.isEmpty());
+    }
+    assertEquals(expected, run(false, true));
+  }
+
+  @Test
+  public void testEagerMatchesInterpreter() throws Exception {
+    assertEquals(run(true, false), run(true, true));
+  }
+}
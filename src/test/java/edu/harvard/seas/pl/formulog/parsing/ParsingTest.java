@@ -188,4 +188,9 @@ public class ParsingTest {
   public void test344() {
     test("test344_bd.flg");
   }
+
+  @Test
+  public void test347() {
+    test("test347_bd.flg");
+  }
 }
@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import static edu.harvard.seas.pl.formulog.smt.SmtTestTerms.and;
+import static edu.harvard.seas.pl.formulog.smt.SmtTestTerms.not;
+import static edu.harvard.seas.pl.formulog.smt.SmtTestTerms.var;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.formulog.ast.BoolTerm;
+import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
+import edu.harvard.seas.pl.formulog.ast.Model;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class CanonicalQueryTest {
+
+  @Test
+  public void testRenamingAndOrder() {
+    CanonicalQuery q1 = CanonicalQuery.make(Arrays.asList(var("x"), not(var("y"))));
+    CanonicalQuery q2 = CanonicalQuery.make(Arrays.asList(not(var("a")), var("b")));
+    assertEquals(q1.getKey(), q2.getKey());
+  }
+
+  @Test
+  public void testSharingIsPreserved() {
+    CanonicalQuery q1 = CanonicalQuery.make(Arrays.asList(and(var("x"), var("x"))));
+    CanonicalQuery q2 = CanonicalQuery.make(Arrays.asList(and(var("y"), var("z"))));
+    CanonicalQuery q3 = CanonicalQuery.make(Arrays.asList(and(var("z"), var("z"))));
+    assertNotEquals(q1.getKey(), q2.getKey());
+    assertEquals(q1.getKey(), q3.getKey());
+  }
+
+  @Test
+  public void testKeyIsLinearInDagSize() {
+    SmtLibTerm t = var("x");
+    for (int i = 0; i < 64; ++i) {
+      t = and(t, t);
+    }
+    String key = CanonicalQuery.make(Collections.singletonList(t)).getKey();
+    assertTrue(key.length() < 64 * 100);
+  }
+
+  @Test
+  public void testResultIsSharedAcrossQueries() {
+    SolverVariable x = var("x");
+    SolverVariable y = var("y");
+    SolverVariable a = var("a");
+    SolverVariable b = var("b");
+    SmtLibTerm notY = not(y);
+    SmtLibTerm notA = not(a);
+    CanonicalQuery q1 = CanonicalQuery.make(Arrays.asList(x, notY));
+    CanonicalQuery q2 = CanonicalQuery.make(Arrays.asList(notA, b));
+    Map<SolverVariable, Term> m = new HashMap<>();
+    m.put(x, BoolTerm.mkTrue());
+    m.put(y, BoolTerm.mkFalse());
+    SmtResult sat = new SmtResult(SmtStatus.SATISFIABLE, Model.make(m), 0, 0);
+    Map<SolverVariable, Term> expected = new HashMap<>();
+    expected.put(b, BoolTerm.mkTrue());
+    expected.put(a, BoolTerm.mkFalse());
+    assertEquals(expected, q2.translate(sat, q1).model.getVal());
+    SmtResult unsat =
+        new SmtResult(SmtStatus.UNSATISFIABLE, null, 0, 0, Collections.singleton(notY));
+    assertEquals(Collections.singleton(notA), q2.translate(unsat, q1).unsatCore);
+  }
+}
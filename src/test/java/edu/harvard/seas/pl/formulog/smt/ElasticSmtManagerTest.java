@@ -0,0 +1,254 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import edu.harvard.seas.pl.formulog.ast.BoolTerm;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Test;
+
+public class ElasticSmtManagerTest {
+
+  private static final Collection<SmtLibTerm> query = Collections.singleton(BoolTerm.mkTrue());
+
+  private final List<StubSolver> made = new ArrayList<>();
+  private final ExecutorService exec = Executors.newCachedThreadPool();
+  private ElasticSmtManager mgr;
+
+  @After
+  public void tearDown() {
+    exec.shutdownNow();
+    if (mgr != null) {
+      mgr.destroy();
+    }
+  }
+
+  private Supplier<AbstractSmtLibSolver> maker(StubSolver.Answer answer) {
+    return () -> {
+      StubSolver s = new StubSolver(answer);
+      synchronized (made) {
+        made.add(s);
+      }
+      return s;
+    };
+  }
+
+  private int numMade() {
+    synchronized (made) {
+      return made.size();
+    }
+  }
+
+  private void start(
+      int minSize,
+      int maxSize,
+      StubSolver.Answer answer,
+      int idleTimeout,
+      int hangTimeout,
+      int retries,
+      boolean doubleCheckUnknowns)
+      throws EvaluationException {
+    mgr =
+        new ElasticSmtManager(
+            minSize,
+            maxSize,
+            maker(answer),
+            1,
+            idleTimeout,
+            hangTimeout,
+            retries,
+            doubleCheckUnknowns);
+    mgr.start(null);
+  }
+
+  private Future<SmtResult> submit() {
+    return exec.submit(() -> mgr.check(query, false, -1));
+  }
+
+  @Test(timeout = 10000)
+  public void testGrowAndShrink() throws Exception {
+    CountDownLatch entered = new CountDownLatch(3);
+    CountDownLatch release = new CountDownLatch(1);
+    StubSolver.Answer answer =
+        (s, conjuncts) -> {
+          entered.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new EvaluationException(e);
+          }
+          return StubSolver.result(SmtStatus.SATISFIABLE);
+        };
+    start(1, 3, answer, 0, 0, 0, false);
+    assertEquals(1, numMade());
+    List<Future<SmtResult>> futs = new ArrayList<>();
+    for (int i = 0; i < 3; ++i) {
+      futs.add(submit());
+    }
+    // The queries can only all be running at once if the pool has grown to its maximum size.
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    assertEquals(3, numMade());
+    release.countDown();
+    for (Future<SmtResult> fut : futs) {
+      assertEquals(SmtStatus.SATISFIABLE, fut.get().status);
+    }
+    Thread.sleep(5);
+    mgr.checkSolvers();
+    int alive = 0;
+    for (StubSolver s : made) {
+      if (s.isAlive()) {
+        alive++;
+      }
+    }
+    assertEquals(1, alive);
+  }
+
+  @Test(timeout = 10000)
+  public void testWatchdog() throws Exception {
+    start(1, 1, (s, conjuncts) -> s.hang(), 60000, 10, 1, true);
+    Future<SmtResult> fut = submit();
+    while (!fut.isDone()) {
+      mgr.checkSolvers();
+      Thread.sleep(5);
+    }
+    assertEquals(SmtStatus.UNKNOWN, fut.get().status);
+    // The killed solver is neither retried nor double checked.
+    assertEquals(1, numMade());
+    assertEquals(1, made.get(0).checks.get());
+    assertFalse(made.get(0).isAlive());
+  }
+
+  @Test(timeout = 10000)
+  public void testRetry() throws Exception {
+    start(
+        1,
+        1,
+        (s, conjuncts) -> s == made.get(0) ? s.crash() : StubSolver.result(SmtStatus.SATISFIABLE),
+        60000,
+        0,
+        1,
+        false);
+    assertEquals(SmtStatus.SATISFIABLE, mgr.check(query, false, -1).status);
+    assertEquals(2, numMade());
+  }
+
+  @Test(timeout = 10000)
+  public void testGiveUpAfterRetries() throws Exception {
+    start(1, 1, (s, conjuncts) -> s.crash(), 60000, 0, 1, false);
+    try {
+      mgr.check(query, false, -1);
+      fail("Expected the query to fail");
+    } catch (EvaluationException e) {
+      // expected
+    }
+    assertEquals(2, numMade());
+    // The failed solvers no longer count against the size of the pool.
+    try {
+      mgr.check(query, false, -1);
+      fail("Expected the query to fail");
+    } catch (EvaluationException e) {
+      // expected
+    }
+    assertEquals(4, numMade());
+  }
+
+  @Test(timeout = 10000)
+  public void testRuntimeExceptionFreesSolver() throws Exception {
+    start(
+        1,
+        1,
+        (s, conjuncts) -> {
+          if (s == made.get(0)) {
+            throw new IllegalStateException();
+          }
+          return StubSolver.result(SmtStatus.SATISFIABLE);
+        },
+        60000,
+        0,
+        0,
+        false);
+    try {
+      mgr.check(query, false, -1);
+      fail("Expected the query to fail");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    // Otherwise this would wait forever for the only solver in the pool.
+    assertEquals(SmtStatus.SATISFIABLE, mgr.check(query, false, -1).status);
+    assertFalse(made.get(0).isAlive());
+  }
+
+  @Test(timeout = 10000)
+  public void testDoubleCheckKeepsPooledSolver() throws Exception {
+    start(
+        1,
+        1,
+        (s, conjuncts) ->
+            StubSolver.result(s == made.get(0) ? SmtStatus.UNKNOWN : SmtStatus.SATISFIABLE),
+        60000,
+        0,
+        0,
+        true);
+    assertEquals(SmtStatus.SATISFIABLE, mgr.check(query, false, -1).status);
+    assertEquals(2, numMade());
+    assertTrue(made.get(0).isAlive());
+    // The checker is reused for later double checks.
+    assertEquals(SmtStatus.SATISFIABLE, mgr.check(query, false, -1).status);
+    assertEquals(2, numMade());
+    assertEquals(2, made.get(1).checks.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testTimeoutIsNotDoubleChecked() throws Exception {
+    start(
+        1,
+        1,
+        (s, conjuncts) -> {
+          try {
+            Thread.sleep(20);
+          } catch (InterruptedException e) {
+            throw new EvaluationException(e);
+          }
+          return StubSolver.result(SmtStatus.UNKNOWN);
+        },
+        60000,
+        0,
+        0,
+        true);
+    assertEquals(SmtStatus.UNKNOWN, mgr.check(query, false, 10).status);
+    assertEquals(1, numMade());
+  }
+}
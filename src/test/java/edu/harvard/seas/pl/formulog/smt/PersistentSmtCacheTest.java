@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import edu.harvard.seas.pl.formulog.ast.BoolTerm;
+import edu.harvard.seas.pl.formulog.ast.Constructors;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Terms;
+import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class PersistentSmtCacheTest {
+
+  private static final SmtLibTerm t = BoolTerm.mkTrue();
+  private static final SmtLibTerm notT =
+      Constructors.make(BuiltInConstructorSymbol.SMT_NOT, Terms.singletonArray(t));
+
+  @Test
+  public void testReopen() throws IOException {
+    Path path = Files.createTempFile("smtcache", ".bin");
+    Files.delete(path);
+    try {
+      PersistentSmtCache cache = PersistentSmtCache.open(path, "ctx");
+      cache.record(Arrays.asList(t, notT), false, -1, SmtStatus.UNSATISFIABLE);
+      cache.record(Arrays.asList(t), false, -1, SmtStatus.SATISFIABLE);
+      // Neither of these can be replayed without a model or a solver.
+      cache.record(Arrays.asList(notT), true, -1, SmtStatus.SATISFIABLE);
+      cache.record(Arrays.asList(notT), false, 10, SmtStatus.UNKNOWN);
+      cache.close();
+
+      cache = PersistentSmtCache.open(path, "ctx");
+      List<SmtLibTerm> reordered = Arrays.asList(notT, t);
+      assertEquals(SmtStatus.UNSATISFIABLE, cache.lookup(reordered, false, -1));
+      assertEquals(SmtStatus.SATISFIABLE, cache.lookup(Arrays.asList(t), false, -1));
+      assertNull(cache.lookup(Arrays.asList(t), true, -1));
+      assertNull(cache.lookup(Arrays.asList(t), false, 10));
+      assertNull(cache.lookup(Arrays.asList(notT), true, -1));
+      assertNull(cache.lookup(Arrays.asList(notT), false, 10));
+      cache.close();
+
+      cache = PersistentSmtCache.open(path, "other");
+      assertNull(cache.lookup(reordered, false, -1));
+      cache.close();
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void testTruncatedRecord() throws IOException {
+    Path path = Files.createTempFile("smtcache", ".bin");
+    Files.delete(path);
+    try {
+      PersistentSmtCache cache = PersistentSmtCache.open(path, "ctx");
+      cache.record(Arrays.asList(t), false, -1, SmtStatus.SATISFIABLE);
+      cache.close();
+      byte[] bytes = Files.readAllBytes(path);
+      Files.write(path, Arrays.copyOf(bytes, bytes.length + 5));
+      cache = PersistentSmtCache.open(path, "ctx");
+      assertEquals(SmtStatus.SATISFIABLE, cache.lookup(Arrays.asList(t), false, -1));
+      cache.record(Arrays.asList(notT), false, -1, SmtStatus.UNSATISFIABLE);
+      cache.close();
+      cache = PersistentSmtCache.open(path, "ctx");
+      assertEquals(SmtStatus.SATISFIABLE, cache.lookup(Arrays.asList(t), false, -1));
+      assertEquals(SmtStatus.UNSATISFIABLE, cache.lookup(Arrays.asList(notT), false, -1));
+      cache.close();
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  public void testSharedSubterms() throws IOException {
+    Path path = Files.createTempFile("smtcache", ".bin");
+    Files.delete(path);
+    try {
+      // Written out as a tree, this term would have 2^64 leaves.
+      SmtLibTerm dag = t;
+      for (int i = 0; i < 64; ++i) {
+        dag = Constructors.make(BuiltInConstructorSymbol.SMT_AND, new Term[] {dag, dag});
+      }
+      PersistentSmtCache cache = PersistentSmtCache.open(path, "ctx");
+      cache.record(Arrays.asList(dag), false, -1, SmtStatus.SATISFIABLE);
+      cache.close();
+      cache = PersistentSmtCache.open(path, "ctx");
+      assertEquals(SmtStatus.SATISFIABLE, cache.lookup(Arrays.asList(dag), false, -1));
+      cache.close();
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsOtherFiles() throws IOException {
+    Path path = Files.createTempFile("smtcache", ".bin");
+    try {
+      Files.write(path, "not a cache".getBytes());
+      PersistentSmtCache.open(path, "ctx");
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
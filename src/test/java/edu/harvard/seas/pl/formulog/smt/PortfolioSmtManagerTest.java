@@ -0,0 +1,248 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import edu.harvard.seas.pl.formulog.ast.BoolTerm;
+import edu.harvard.seas.pl.formulog.ast.Program;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class PortfolioSmtManagerTest {
+
+  private static final Collection<SmtLibTerm> query = Collections.singleton(BoolTerm.mkTrue());
+
+  private final Map<String, StubSolver.Answer> answers = new HashMap<>();
+  private final Map<String, List<StubSolver>> made = new HashMap<>();
+  private PortfolioSmtManager mgr;
+
+  @After
+  public void tearDown() {
+    if (mgr != null) {
+      mgr.destroy();
+    }
+  }
+
+  private void start(String... solvers) throws EvaluationException {
+    for (String solver : solvers) {
+      made.put(solver, Collections.synchronizedList(new ArrayList<>()));
+    }
+    mgr =
+        new PortfolioSmtManager(
+            Arrays.asList(solvers),
+            name -> {
+              StubSolver s = new StubSolver(answers.get(name));
+              made.get(name).add(s);
+              return s;
+            });
+    mgr.start(null);
+  }
+
+  private static SmtResult sleepThen(long millis, SmtStatus status) throws EvaluationException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      throw new EvaluationException(e);
+    }
+    return StubSolver.result(status);
+  }
+
+  @Test(timeout = 10000)
+  public void testLateSolverIsReplaced() throws Exception {
+    CountDownLatch hanging = new CountDownLatch(1);
+    answers.put(
+        "fast",
+        (s, conjuncts) -> {
+          try {
+            hanging.await();
+          } catch (InterruptedException e) {
+            throw new EvaluationException(e);
+          }
+          return StubSolver.result(SmtStatus.SATISFIABLE);
+        });
+    answers.put(
+        "late",
+        (s, conjuncts) -> {
+          hanging.countDown();
+          return s.hang();
+        });
+    start("fast", "late");
+    assertEquals(SmtStatus.SATISFIABLE, mgr.check(query, false, -1).status);
+    while (made.get("late").size() < 2) {
+      Thread.sleep(1);
+    }
+    assertEquals(1, made.get("late").get(0).checks.get());
+    assertFalse(made.get("late").get(0).isAlive());
+    assertEquals(1, made.get("fast").size());
+  }
+
+  @Test(timeout = 10000)
+  public void testFailedRestartIsRetried() throws Exception {
+    CountDownLatch hanging = new CountDownLatch(1);
+    AtomicInteger fastChecks = new AtomicInteger();
+    answers.put(
+        "fast",
+        (s, conjuncts) -> {
+          if (fastChecks.getAndIncrement() > 0) {
+            return StubSolver.result(SmtStatus.UNKNOWN);
+          }
+          try {
+            hanging.await();
+          } catch (InterruptedException e) {
+            throw new EvaluationException(e);
+          }
+          return StubSolver.result(SmtStatus.SATISFIABLE);
+        });
+    answers.put(
+        "late",
+        (s, conjuncts) -> {
+          if (s == made.get("late").get(0)) {
+            hanging.countDown();
+            return s.hang();
+          }
+          return StubSolver.result(SmtStatus.UNSATISFIABLE);
+        });
+    made.put("fast", Collections.synchronizedList(new ArrayList<>()));
+    made.put("late", Collections.synchronizedList(new ArrayList<>()));
+    mgr =
+        new PortfolioSmtManager(
+            Arrays.asList("fast", "late"),
+            name -> {
+              List<StubSolver> l = made.get(name);
+              // The first replacement of the late solver cannot be started.
+              StubSolver s =
+                  name.equals("late") && l.size() == 1
+                      ? new StubSolver(answers.get(name)) {
+                        @Override
+                        public void start(Program<?, ?> prog) {
+                          throw new IllegalStateException("Could not start solver");
+                        }
+                      }
+                      : new StubSolver(answers.get(name));
+              l.add(s);
+              return s;
+            });
+    mgr.start(null);
+    assertEquals(SmtStatus.SATISFIABLE, mgr.check(query, false, -1).status);
+    // The late member replaces its broken solver before taking the next query.
+    assertEquals(SmtStatus.UNSATISFIABLE, mgr.check(query, false, -1).status);
+    assertEquals(3, made.get("late").size());
+  }
+
+  @Test(timeout = 10000)
+  public void testUnknownWaitsForOthers() throws Exception {
+    answers.put("unknown", (s, conjuncts) -> StubSolver.result(SmtStatus.UNKNOWN));
+    answers.put("late", (s, conjuncts) -> sleepThen(50, SmtStatus.UNSATISFIABLE));
+    start("unknown", "late");
+    assertEquals(SmtStatus.UNSATISFIABLE, mgr.check(query, false, -1).status);
+    // Nobody was killed, since every solver finished the query.
+    assertEquals(1, made.get("late").size());
+  }
+
+  @Test(timeout = 10000)
+  public void testAllUnknown() throws Exception {
+    answers.put("unknown1", (s, conjuncts) -> StubSolver.result(SmtStatus.UNKNOWN));
+    answers.put("unknown2", (s, conjuncts) -> StubSolver.result(SmtStatus.UNKNOWN));
+    start("unknown1", "unknown2");
+    assertEquals(SmtStatus.UNKNOWN, mgr.check(query, false, -1).status);
+  }
+
+  @Test(timeout = 10000)
+  public void testCrashIsIgnored() throws Exception {
+    answers.put("crash", (s, conjuncts) -> s.crash());
+    answers.put("late", (s, conjuncts) -> sleepThen(50, SmtStatus.SATISFIABLE));
+    start("crash", "late");
+    assertEquals(SmtStatus.SATISFIABLE, mgr.check(query, false, -1).status);
+  }
+
+  @Test(timeout = 10000)
+  public void testAllCrash() throws Exception {
+    answers.put("crash", (s, conjuncts) -> s.crash());
+    start("crash");
+    try {
+      mgr.check(query, false, -1);
+      fail("Expected the query to fail");
+    } catch (EvaluationException e) {
+      // expected
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testStaleQueryIsSkipped() throws Exception {
+    CountDownLatch hanging = new CountDownLatch(1);
+    CountDownLatch replace = new CountDownLatch(1);
+    answers.put(
+        "fast",
+        (s, conjuncts) -> {
+          try {
+            hanging.await();
+          } catch (InterruptedException e) {
+            throw new EvaluationException(e);
+          }
+          return StubSolver.result(SmtStatus.SATISFIABLE);
+        });
+    answers.put(
+        "late",
+        (s, conjuncts) -> {
+          if (s == made.get("late").get(0)) {
+            hanging.countDown();
+            return s.hang();
+          }
+          return StubSolver.result(SmtStatus.UNSATISFIABLE);
+        });
+    start("fast", "late");
+    // Keep the late solver's member busy replacing its killed solver during the second query.
+    made.put(
+        "late",
+        new ArrayList<>(made.get("late")) {
+          @Override
+          public boolean add(StubSolver s) {
+            try {
+              replace.await();
+            } catch (InterruptedException e) {
+              throw new AssertionError(e);
+            }
+            return super.add(s);
+          }
+        });
+    assertEquals(SmtStatus.SATISFIABLE, mgr.check(query, false, -1).status);
+    assertEquals(SmtStatus.SATISFIABLE, mgr.check(query, false, -1).status);
+    replace.countDown();
+    while (made.get("late").size() < 2) {
+      Thread.sleep(1);
+    }
+    Thread.sleep(50);
+    assertEquals(0, made.get("late").get(1).checks.get());
+  }
+}
@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import static edu.harvard.seas.pl.formulog.smt.SmtTestTerms.var;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+
+public class PrefixTrieSmtManagerTest {
+
+  private static final SolverVariable a = var("a");
+  private static final SolverVariable b = var("b");
+  private static final SolverVariable c = var("c");
+  private static final SolverVariable d = var("d");
+
+  private final List<StubSolver> made = new ArrayList<>();
+  private StubSolver last;
+  private List<SmtLibTerm> lastQuery;
+  private PrefixTrieSmtManager mgr;
+
+  @After
+  public void tearDown() {
+    if (mgr != null) {
+      mgr.destroy();
+    }
+  }
+
+  private void start(int size, StubSolver.Answer answer) throws EvaluationException {
+    StubSolver.Answer recording =
+        (s, conjuncts) -> {
+          last = s;
+          lastQuery = new ArrayList<>(conjuncts);
+          return answer.answer(s, conjuncts);
+        };
+    mgr =
+        new PrefixTrieSmtManager(
+            size,
+            () -> {
+              StubSolver s = new StubSolver(recording);
+              made.add(s);
+              return s;
+            });
+    mgr.start(null);
+  }
+
+  private void start(int size) throws EvaluationException {
+    start(size, (s, conjuncts) -> StubSolver.result(SmtStatus.SATISFIABLE));
+  }
+
+  /** Returns the index of the solver that the query was sent to. */
+  private int route(SmtLibTerm... conjuncts) throws EvaluationException {
+    mgr.check(Arrays.asList(conjuncts), false, -1);
+    return made.indexOf(last);
+  }
+
+  @Test
+  public void testPickCheapestSolver() throws Exception {
+    start(2);
+    // Ties go to the first solver.
+    assertEquals(0, route(a));
+    // One push instead of two
+    assertEquals(0, route(a, b));
+    // One push instead of two pops and a push
+    assertEquals(1, route(c));
+    // Conjuncts are put in the order in which they were first seen.
+    assertEquals(0, route(b, a));
+    assertEquals(Arrays.asList(a, b), lastQuery);
+    assertEquals(1, route(c, d));
+    assertEquals(0, route(a, b, d));
+    assertEquals(Arrays.asList(a, b, d), lastQuery);
+  }
+
+  @Test
+  public void testTrieIsPruned() throws Exception {
+    start(2);
+    for (int i = 0; i < 100; ++i) {
+      route(var("x" + i), var("y" + i));
+      // Only the paths to the two solvers' positions are kept.
+      assertEquals(i == 0 ? 2 : 4, mgr.trieSize());
+      assertEquals(i == 0 ? 2 : 4, mgr.orderSize());
+    }
+    int i = route(a, b);
+    assertEquals(i, route(a, c));
+    // Once the solver has popped b, no stack contains it anymore.
+    assertEquals(4, mgr.trieSize());
+    assertEquals(4, mgr.orderSize());
+  }
+
+  @Test
+  public void testResetToRootAfterFailure() throws Exception {
+    start(
+        1,
+        (s, conjuncts) -> {
+          if (conjuncts.contains(c)) {
+            throw new EvaluationException("Solver failed");
+          }
+          return StubSolver.result(SmtStatus.SATISFIABLE);
+        });
+    route(a, b);
+    assertEquals(2, mgr.trieSize());
+    try {
+      mgr.check(Arrays.<SmtLibTerm>asList(a, c), false, -1);
+      fail("Expected the query to fail");
+    } catch (EvaluationException e) {
+      // expected
+    }
+    assertEquals(0, mgr.trieSize());
+    assertEquals(0, mgr.orderSize());
+    route(a);
+    assertEquals(1, mgr.trieSize());
+  }
+}
@@ -0,0 +1,206 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import static edu.harvard.seas.pl.formulog.smt.SmtTestTerms.and;
+import static edu.harvard.seas.pl.formulog.smt.SmtTestTerms.var;
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.formulog.ast.Constructors;
+import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Terms;
+import edu.harvard.seas.pl.formulog.parsing.Parser;
+import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
+import edu.harvard.seas.pl.formulog.symbols.ConstructorSymbol;
+import edu.harvard.seas.pl.formulog.symbols.GlobalSymbolManager;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.BuiltInConstructorSymbolBase;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.Param;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.ParamKind;
+import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
+import edu.harvard.seas.pl.formulog.types.TypeChecker;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmtLibShimTest {
+
+  private StringWriter out;
+  private SmtLibShim shim;
+
+  @Before
+  public void setUp() throws Exception {
+    out = new StringWriter();
+    shim = new SmtLibShim(null, out, null, "z3", true, 1000);
+    shim.initialize(new TypeChecker(new Parser().parse(new StringReader(""))).typeCheck(), false);
+    out.getBuffer().setLength(0);
+  }
+
+  private static SmtLibTerm forall(SolverVariable x, Term body) {
+    ConstructorSymbol wrap =
+        GlobalSymbolManager.getParameterizedSymbol(BuiltInConstructorSymbolBase.SMT_WRAP_VAR)
+            .copyWithNewArgs(new Param(BuiltInTypes.bool, ParamKind.SMT_REPRESENTABLE_TYPE));
+    Term vars =
+        Constructors.make(
+            BuiltInConstructorSymbol.CONS,
+            new Term[] {Constructors.make(wrap, Terms.singletonArray(x)), Constructors.nil()});
+    return Constructors.make(
+        BuiltInConstructorSymbol.SMT_FORALL, new Term[] {vars, body, Constructors.nil()});
+  }
+
+  private static SmtLibTerm eq(Term t1, Term t2) {
+    ConstructorSymbol sym =
+        GlobalSymbolManager.getParameterizedSymbol(BuiltInConstructorSymbolBase.SMT_EQ)
+            .copyWithNewArgs(
+                new Param(
+                    BuiltInTypes.option(BuiltInTypes.list(BuiltInTypes.bool)),
+                    ParamKind.PRE_SMT_TYPE));
+    return Constructors.make(sym, new Term[] {t1, t2});
+  }
+
+  private static String name(SolverVariable x) {
+    return "x" + x.getSolverVarId();
+  }
+
+  /** Returns the definitions and assertions that have been sent to the solver. */
+  private List<String> emitted() {
+    List<String> l = new ArrayList<>();
+    for (String line : out.toString().split("\n")) {
+      if (line.startsWith("(define-fun") || line.startsWith("(assert")) {
+        l.add(line);
+      }
+    }
+    return l;
+  }
+
+  @Test
+  public void testSubtermSharedUnderAndOutsideQuantifier() throws Exception {
+    SolverVariable x = var("x");
+    SolverVariable a = var("a");
+    SolverVariable b = var("b");
+    SmtLibTerm ab = and(a, b);
+    SmtLibTerm xa = and(x, a);
+    shim.makeAssertion(and(ab, forall(x, and(ab, and(xa, xa)))));
+    String xs = name(x);
+    String as = name(a);
+    // The repeated subterm that mentions the bound variable is not defined.
+    assertEquals(
+        Arrays.asList(
+            "(define-fun d0 () Bool (and " + as + " " + name(b) + "))",
+            "(assert (and d0 (forall (("
+                + xs
+                + " Bool)) (and d0 (and (and "
+                + xs
+                + " "
+                + as
+                + ") (and "
+                + xs
+                + " "
+                + as
+                + "))))))"),
+        emitted());
+  }
+
+  @Test
+  public void testDefinitionNotUsedWhereItsVariableIsBound() throws Exception {
+    SolverVariable x = var("x");
+    SolverVariable a = var("a");
+    SolverVariable b = var("b");
+    SmtLibTerm xa = and(x, a);
+    shim.makeAssertion(and(xa, xa));
+    shim.makeAssertion(forall(x, and(xa, b)));
+    String xs = name(x);
+    String as = name(a);
+    assertEquals(
+        Arrays.asList(
+            "(define-fun d0 () Bool (and " + xs + " " + as + "))",
+            "(assert (and d0 d0))",
+            "(assert (forall (("
+                + xs
+                + " Bool)) (and (and "
+                + xs
+                + " "
+                + as
+                + ") "
+                + name(b)
+                + ")))"),
+        emitted());
+  }
+
+  @Test
+  public void testPopDropsDefinitions() throws Exception {
+    SmtLibTerm ab = and(var("a"), var("b"));
+    shim.push();
+    shim.makeAssertion(and(ab, ab));
+    shim.pop();
+    shim.makeAssertion(and(ab, ab));
+    shim.makeAssertion(and(ab, ab));
+    List<String> l = emitted();
+    assertEquals(5, l.size());
+    assertEquals("(assert (and d0 d0))", l.get(1));
+    assertEquals(l.get(0).replace("d0", "d1"), l.get(2));
+    assertEquals("(assert (and d1 d1))", l.get(3));
+    assertEquals("(assert (and d1 d1))", l.get(4));
+  }
+
+  @Test
+  public void testResetDropsDefinitions() throws Exception {
+    SmtLibTerm ab = and(var("a"), var("b"));
+    shim.makeAssertion(and(ab, ab));
+    shim.reset();
+    shim.makeAssertion(and(ab, ab));
+    List<String> l = emitted();
+    assertEquals(4, l.size());
+    assertEquals("(assert (and d0 d0))", l.get(1));
+    assertEquals(l.get(0).replace("d0", "d1"), l.get(2));
+    assertEquals("(assert (and d1 d1))", l.get(3));
+  }
+
+  @Test
+  public void testPolymorphicSubtermNotDefined() throws Exception {
+    SolverVariable a = var("a");
+    // The type of the first subterm depends on the equality it appears in.
+    Term poly = Constructors.some(Constructors.nil());
+    Term mono = Constructors.some(Constructors.cons(a, Constructors.nil()));
+    shim.makeAssertion(and(eq(poly, poly), eq(mono, mono)));
+    String type = "(|option| (|list| Bool))";
+    String nil = "(as nil (|list| Bool))";
+    String some = "(as some " + type + ")";
+    String polyStr = "(" + some + " " + nil + ")";
+    assertEquals(
+        Arrays.asList(
+            "(define-fun d0 () "
+                + type
+                + " ("
+                + some
+                + " ((as cons (|list| Bool)) "
+                + name(a)
+                + " "
+                + nil
+                + ")))",
+            "(assert (and (= " + polyStr + " " + polyStr + ") (= d0 d0)))"),
+        emitted());
+  }
+}
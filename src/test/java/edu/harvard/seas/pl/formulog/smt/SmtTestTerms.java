@@ -0,0 +1,61 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import edu.harvard.seas.pl.formulog.ast.Constructors;
+import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.ast.StringTerm;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.ast.Terms;
+import edu.harvard.seas.pl.formulog.symbols.BuiltInConstructorSymbol;
+import edu.harvard.seas.pl.formulog.symbols.GlobalSymbolManager;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.BuiltInConstructorSymbolBase;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.Param;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.ParamKind;
+import edu.harvard.seas.pl.formulog.symbols.parameterized.ParameterizedConstructorSymbol;
+import edu.harvard.seas.pl.formulog.types.BuiltInTypes;
+
+/** Builders for the SMT terms used in tests. */
+final class SmtTestTerms {
+
+  private SmtTestTerms() {
+    throw new AssertionError();
+  }
+
+  /** Returns the boolean solver variable with the given name. */
+  static SolverVariable var(String name) {
+    ParameterizedConstructorSymbol sym =
+        GlobalSymbolManager.getParameterizedSymbol(BuiltInConstructorSymbolBase.SMT_VAR);
+    sym =
+        sym.copyWithNewArgs(
+            Param.wildCard(BuiltInTypes.string),
+            new Param(BuiltInTypes.bool, ParamKind.PRE_SMT_TYPE));
+    return (SolverVariable) Constructors.make(sym, Terms.singletonArray(StringTerm.make(name)));
+  }
+
+  static SmtLibTerm not(Term t) {
+    return Constructors.make(BuiltInConstructorSymbol.SMT_NOT, Terms.singletonArray(t));
+  }
+
+  static SmtLibTerm and(Term t1, Term t2) {
+    return Constructors.make(BuiltInConstructorSymbol.SMT_AND, new Term[] {t1, t2});
+  }
+}
@@ -0,0 +1,126 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import edu.harvard.seas.pl.formulog.ast.Constructors.SolverVariable;
+import edu.harvard.seas.pl.formulog.ast.Program;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import edu.harvard.seas.pl.formulog.util.Pair;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A solver that answers queries without starting a process, for testing solver strategies. */
+class StubSolver extends AbstractSmtLibSolver {
+
+  interface Answer {
+
+    SmtResult answer(StubSolver solver, Collection<SmtLibTerm> conjuncts)
+        throws EvaluationException;
+  }
+
+  private final Answer answer;
+  private volatile boolean alive;
+  final AtomicInteger checks = new AtomicInteger();
+
+  StubSolver(Answer answer) {
+    super(
+        "z3",
+        incremental -> {
+          throw new IOException("Stub solvers do not start processes");
+        });
+    this.answer = answer;
+  }
+
+  static StubSolver answering(SmtStatus status) {
+    return new StubSolver((s, conjuncts) -> result(status));
+  }
+
+  static SmtResult result(SmtStatus status) {
+    return new SmtResult(status, null, -1, -1);
+  }
+
+  /** Blocks until the solver is killed, and then fails like a solver whose process died. */
+  SmtResult hang() throws EvaluationException {
+    while (alive) {
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        throw new EvaluationException(e);
+      }
+    }
+    throw new EvaluationException("Solver was killed");
+  }
+
+  /** Fails like a solver whose process died in the middle of a query. */
+  SmtResult crash() throws EvaluationException {
+    alive = false;
+    throw new EvaluationException("Solver crashed");
+  }
+
+  @Override
+  public void start(Program<?, ?> prog) {
+    alive = true;
+  }
+
+  @Override
+  public SmtResult check(Collection<SmtLibTerm> conjuncts, boolean getModel, int timeout)
+      throws EvaluationException {
+    if (!alive) {
+      throw new EvaluationException("Solver is not running");
+    }
+    checks.incrementAndGet();
+    return answer.answer(this, conjuncts);
+  }
+
+  @Override
+  public void kill() {
+    alive = false;
+  }
+
+  @Override
+  public boolean isAlive() {
+    return alive;
+  }
+
+  @Override
+  public void destroy() {
+    alive = false;
+    super.destroy();
+  }
+
+  @Override
+  protected boolean isIncremental() {
+    return false;
+  }
+
+  @Override
+  protected void start() {}
+
+  @Override
+  protected Pair<Collection<SolverVariable>, Collection<SolverVariable>> makeAssertions(
+      Collection<SmtLibTerm> assertions) {
+    return emptyCollectionPair;
+  }
+
+  @Override
+  protected void cleanup() {}
+}
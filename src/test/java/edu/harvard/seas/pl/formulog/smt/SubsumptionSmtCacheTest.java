@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.smt;
+
+import static edu.harvard.seas.pl.formulog.smt.SmtTestTerms.var;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import edu.harvard.seas.pl.formulog.ast.Model;
+import edu.harvard.seas.pl.formulog.ast.SmtLibTerm;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+public class SubsumptionSmtCacheTest {
+
+  private static Set<SmtLibTerm> set(String... names) {
+    Set<SmtLibTerm> s = new HashSet<>();
+    for (String name : names) {
+      s.add(var(name));
+    }
+    return s;
+  }
+
+  @Test
+  public void testSupersetOfUnsatCore() {
+    SubsumptionSmtCache cache = new SubsumptionSmtCache(10, true);
+    cache.record(set("a", "b", "c"), SmtStatus.UNSATISFIABLE, null, set("a", "b"));
+    assertEquals(SmtStatus.UNSATISFIABLE, cache.lookup(set("a", "b", "d"), false).status);
+    assertNull(cache.lookup(set("a", "c"), false));
+  }
+
+  @Test
+  public void testWholeQueryWithoutCore() {
+    SubsumptionSmtCache cache = new SubsumptionSmtCache(10, true);
+    cache.record(set("a", "b"), SmtStatus.UNSATISFIABLE, null, null);
+    assertEquals(SmtStatus.UNSATISFIABLE, cache.lookup(set("a", "b", "c"), true).status);
+    assertNull(cache.lookup(set("a"), false));
+  }
+
+  @Test
+  public void testSubsetOfSat() {
+    SubsumptionSmtCache cache = new SubsumptionSmtCache(10, true);
+    cache.record(set("a", "b", "c"), SmtStatus.SATISFIABLE, null, null);
+    assertEquals(SmtStatus.SATISFIABLE, cache.lookup(set("a", "c"), false).status);
+    assertNull(cache.lookup(set("a", "d"), false));
+    // No model was recorded.
+    assertNull(cache.lookup(set("a", "c"), true));
+  }
+
+  @Test
+  public void testModelReuse() {
+    Model m = Model.make(Collections.emptyMap());
+    SubsumptionSmtCache cache = new SubsumptionSmtCache(10, true);
+    cache.record(set("a", "b"), SmtStatus.SATISFIABLE, m, null);
+    assertEquals(m, cache.lookup(set("b"), true).model);
+    cache = new SubsumptionSmtCache(10, false);
+    cache.record(set("a", "b"), SmtStatus.SATISFIABLE, m, null);
+    assertNull(cache.lookup(set("b"), true));
+    assertEquals(SmtStatus.SATISFIABLE, cache.lookup(set("b"), false).status);
+  }
+
+  @Test
+  public void testEviction() {
+    SubsumptionSmtCache cache = new SubsumptionSmtCache(1, true);
+    cache.record(set("a"), SmtStatus.UNSATISFIABLE, null, null);
+    cache.record(set("b"), SmtStatus.UNSATISFIABLE, null, null);
+    assertNull(cache.lookup(set("a"), false));
+    assertEquals(SmtStatus.UNSATISFIABLE, cache.lookup(set("b"), false).status);
+  }
+
+  @Test
+  public void testRepeatedQueriesDoNotEvictOthers() {
+    SubsumptionSmtCache cache = new SubsumptionSmtCache(2, true);
+    cache.record(set("a", "b"), SmtStatus.SATISFIABLE, null, null);
+    cache.record(set("c"), SmtStatus.SATISFIABLE, null, null);
+    cache.record(set("a", "b"), SmtStatus.SATISFIABLE, null, null);
+    cache.record(set("a", "b"), SmtStatus.SATISFIABLE, null, null);
+    assertEquals(SmtStatus.SATISFIABLE, cache.lookup(set("c"), false).status);
+    assertEquals(SmtStatus.SATISFIABLE, cache.lookup(set("a"), false).status);
+  }
+}
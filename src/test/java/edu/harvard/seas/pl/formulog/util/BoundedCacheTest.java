@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.formulog.util.BoundedCache.Eviction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+  @Test
+  public void testBounded() {
+    BoundedCache<Integer, Integer> c = new BoundedCache<>(100, Eviction.LRU);
+    for (int i = 0; i < 10000; ++i) {
+      c.put(i, i);
+    }
+    assertTrue(c.size() <= 100);
+    assertEquals(Integer.valueOf(9999), c.get(9999));
+  }
+
+  @Test
+  public void testLru() {
+    BoundedCache<Integer, Integer> c = new BoundedCache<>(1, Eviction.LRU);
+    c.put(0, 0);
+    c.put(1, 1);
+    assertNull(c.get(0));
+    assertNotNull(c.get(1));
+  }
+
+  @Test
+  public void testLruKeepsRecentlyUsed() {
+    // With 16 segments of size 2, keys 0, 16 and 32 all land in the same segment.
+    BoundedCache<Integer, Integer> lru = new BoundedCache<>(32, Eviction.LRU);
+    BoundedCache<Integer, Integer> fifo = new BoundedCache<>(32, Eviction.FIFO);
+    for (BoundedCache<Integer, Integer> c : Arrays.asList(lru, fifo)) {
+      c.put(0, 0);
+      c.put(16, 16);
+      c.get(0);
+      c.put(32, 32);
+    }
+    assertNotNull(lru.get(0));
+    assertNull(lru.get(16));
+    assertNull(fifo.get(0));
+    assertNotNull(fifo.get(16));
+  }
+
+  @Test
+  public void testClear() {
+    BoundedCache<String, String> c = new BoundedCache<>(10, Eviction.FIFO);
+    c.put("a", "b");
+    c.clear();
+    assertEquals(0, c.size());
+    assertNull(c.get("a"));
+  }
+
+  @Test
+  public void testLfu() {
+    List<Integer> evicted = new ArrayList<>();
+    BoundedCache<Integer, Integer> c =
+        new BoundedCache<>(2, Eviction.LFU, (k, v) -> evicted.add(k));
+    // Two segments of size 1: even keys share one, odd keys the other.
+    c.put(0, 0);
+    c.put(2, 2);
+    assertEquals(Arrays.asList(0), evicted);
+    assertNull(c.putIfAbsent(4, 4));
+    assertEquals(Arrays.asList(0, 2), evicted);
+    assertEquals(Integer.valueOf(4), c.putIfAbsent(4, 5));
+  }
+
+  @Test
+  public void testLfuKeepsFrequentlyUsed() {
+    BoundedCache<Integer, Integer> c = new BoundedCache<>(32, Eviction.LFU);
+    c.put(0, 0);
+    c.put(16, 16);
+    c.get(0);
+    c.get(16);
+    c.get(0);
+    c.put(32, 32);
+    assertNotNull(c.get(0));
+    assertNull(c.get(16));
+    c.put(48, 48);
+    assertNull(c.get(32));
+    assertNotNull(c.get(48));
+  }
+
+  @Test
+  public void testRemove() {
+    for (Eviction eviction : Eviction.values()) {
+      BoundedCache<Integer, Integer> c = new BoundedCache<>(32, eviction);
+      c.put(0, 0);
+      c.put(16, 16);
+      c.get(16);
+      assertFalse(c.remove(0, 1));
+      assertTrue(c.remove(0, 0));
+      assertNull(c.get(0));
+      c.put(32, 32);
+      c.put(48, 48);
+      assertEquals(2, c.size());
+      assertNull(c.putIfAbsent(0, 0));
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class InternTableTest {
+
+  @Test
+  public void testStrongIdentity() {
+    InternTable<String, Object> t = new InternTable<>(false);
+    Object o = t.lookupOrCreate("a", Object::new);
+    assertSame(o, t.lookupOrCreate("a", Object::new));
+    assertNotSame(o, t.lookupOrCreate("b", Object::new));
+    assertEquals(2, t.size());
+  }
+
+  @Test
+  public void testWeakIdentity() {
+    InternTable<String, Object> t = new InternTable<>(true);
+    List<Object> live = new ArrayList<>();
+    for (int i = 0; i < 1000; ++i) {
+      live.add(t.lookupOrCreate("k" + i, Object::new));
+    }
+    System.gc();
+    for (int i = 0; i < 1000; ++i) {
+      assertSame(live.get(i), t.lookupOrCreate("k" + i, Object::new));
+    }
+  }
+
+  @Test
+  public void testWeakCollection() throws InterruptedException {
+    InternTable<Integer, Object> t = new InternTable<>(true);
+    for (int i = 0; i < 1000; ++i) {
+      t.lookupOrCreate(i, Object::new);
+    }
+    for (int tries = 0; tries < 50 && t.size() > 0; ++tries) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertTrue(t.size() < 1000);
+  }
+}
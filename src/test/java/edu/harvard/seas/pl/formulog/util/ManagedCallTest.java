@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.util;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.formulog.eval.EvaluationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ManagedCallTest {
+
+  @Test
+  public void testBlockedWorkerIsCompensated() throws Exception {
+    // With one worker and no spares, the first task would block the second one forever.
+    ForkJoinPool pool =
+        new ForkJoinPool(
+            1,
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+            null,
+            false,
+            0,
+            2,
+            1,
+            p -> true,
+            60,
+            TimeUnit.SECONDS);
+    CountDownLatch latch = new CountDownLatch(1);
+    try {
+      ForkJoinTask<Integer> blocked =
+          pool.submit(
+              () ->
+                  ManagedCall.run(
+                      () -> {
+                        try {
+                          latch.await();
+                        } catch (InterruptedException e) {
+                          throw new EvaluationException(e);
+                        }
+                        return 42;
+                      }));
+      pool.submit(latch::countDown);
+      assertEquals(Integer.valueOf(42), blocked.get(30, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test(expected = EvaluationException.class)
+  public void testExceptionIsRethrown() throws EvaluationException {
+    ManagedCall.run(
+        () -> {
+          throw new EvaluationException("oops");
+        });
+  }
+}
@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * Formulog
+ * %%
+ * Copyright (C) 2020-2023 President and Fellows of Harvard College
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package edu.harvard.seas.pl.formulog.util;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import edu.harvard.seas.pl.formulog.ast.Constructor;
+import edu.harvard.seas.pl.formulog.ast.Constructors;
+import edu.harvard.seas.pl.formulog.ast.I32;
+import edu.harvard.seas.pl.formulog.ast.Term;
+import edu.harvard.seas.pl.formulog.symbols.GlobalSymbolManager;
+import edu.harvard.seas.pl.formulog.symbols.GlobalSymbolManager.TupleSymbol;
+import edu.harvard.seas.pl.formulog.util.FunctorUtil.Memoizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class MemoizerTest {
+
+  private static final TupleSymbol pair = GlobalSymbolManager.lookupTupleSymbol(2);
+
+  private static Term[] args(int x, int y) {
+    return new Term[] {I32.make(x), I32.make(y)};
+  }
+
+  private static void testIdentity(boolean weak) {
+    Memoizer<Constructor> m = new Memoizer<>(weak);
+    List<Constructor> made = new ArrayList<>();
+    for (int i = 0; i < 10000; ++i) {
+      Term[] args = args(i, -i);
+      assertNull(m.lookup(pair, args));
+      made.add(m.lookupOrCreate(pair, args, () -> Constructors.make(pair, args)));
+    }
+    for (int i = 0; i < 10000; ++i) {
+      assertSame(made.get(i), m.lookup(pair, args(i, -i)));
+      assertSame(made.get(i), m.lookupOrCreate(pair, args(i, -i), () -> null));
+    }
+  }
+
+  @Test
+  public void testStrongIdentity() {
+    testIdentity(false);
+  }
+
+  @Test
+  public void testWeakIdentity() {
+    testIdentity(true);
+  }
+
+  @Test
+  public void testConcurrentInserts() throws Exception {
+    Memoizer<Constructor> m = new Memoizer<>(false);
+    ExecutorService exec = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<Constructor>>> fs = new ArrayList<>();
+      for (int t = 0; t < 4; ++t) {
+        fs.add(
+            exec.submit(
+                () -> {
+                  List<Constructor> l = new ArrayList<>();
+                  for (int i = 0; i < 5000; ++i) {
+                    Term[] args = args(i, i);
+                    l.add(m.lookupOrCreate(pair, args, () -> Constructors.make(pair, args)));
+                  }
+                  return l;
+                }));
+      }
+      List<Constructor> first = fs.get(0).get();
+      for (Future<List<Constructor>> f : fs) {
+        List<Constructor> l = f.get();
+        for (int i = 0; i < l.size(); ++i) {
+          assertSame(first.get(i), l.get(i));
+        }
+      }
+    } finally {
+      exec.shutdown();
+    }
+  }
+}